@@ -19,6 +19,9 @@ package io.groundhog.jmeter;
 
 import io.groundhog.base.URIScheme;
 import io.groundhog.replay.AbstractReplayResultListener;
+import io.groundhog.replay.RequestTiming;
+import io.groundhog.replay.ResponsePage;
+import io.groundhog.replay.ResponseSize;
 import io.groundhog.replay.UserAgent;
 
 import com.google.common.base.Charsets;
@@ -37,6 +40,7 @@ import java.io.StringWriter;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Queue;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -57,14 +61,14 @@ public class HarReplayResultListener extends AbstractReplayResultListener {
 
   @Override
   public void success(HttpRequest request, HttpResponse response, UserAgent userAgent,
-                      int bytesRead, long start, long end, Optional<Document> document) {
-    queueResult(request, response, userAgent, bytesRead, start, end, document, Optional.<String>absent());
+                      ResponseSize size, RequestTiming timing, Optional<ResponsePage> page) {
+    queueResult(request, response, userAgent, size, timing, page, Optional.<String>absent());
   }
 
   @Override
   public void failure(String failureReason, HttpRequest request, HttpResponse response, UserAgent userAgent,
-                      int bytesRead, long start, long end, Optional<Document> document) {
-    queueResult(request, response, userAgent, bytesRead, start, end, document, Optional.of(failureReason));
+                      ResponseSize size, RequestTiming timing, Optional<ResponsePage> page) {
+    queueResult(request, response, userAgent, size, timing, page, Optional.of(failureReason));
   }
 
   @Override
@@ -88,11 +92,22 @@ public class HarReplayResultListener extends AbstractReplayResultListener {
     resultQueue.add(result);
   }
 
-  private void queueResult(HttpRequest request, HttpResponse response, UserAgent userAgent, int bytesRead, long start,
-                           long end, Optional<Document> document, Optional<String> failureReason) {
+  /**
+   * Pages are shown as the response data of their samples.
+   */
+  @Override
+  public boolean isDocumentRequired() {
+    return true;
+  }
+
+  private void queueResult(HttpRequest request, HttpResponse response, UserAgent userAgent, ResponseSize size,
+                           RequestTiming timing, Optional<ResponsePage> page, Optional<String> failureReason) {
     checkNotNull(userAgent);
-    SampleResult result = SampleResult.createTestSample(start, end);
-    result.setSamplerData(request.getMethod() + " " + request.getUri() + " " + request.getProtocolVersion());
+    // Samples start when the request was intended to be sent, so elapsed time includes any delay sending it
+    SampleResult result = SampleResult.createTestSample(timing.getIntendedStartMillis(), timing.getEndedMillis());
+    result.setSamplerData(request.getMethod() + " " + request.getUri() + " " + request.getProtocolVersion()
+        + "\nService time: " + timing.getServiceTime(TimeUnit.MILLISECONDS) + "ms"
+        + "\nSend delay: " + timing.getSendDelay(TimeUnit.MILLISECONDS) + "ms");
     boolean hasFailure = failureReason.isPresent();
     result.setSuccessful(!hasFailure);
     if (hasFailure) {
@@ -103,7 +118,8 @@ public class HarReplayResultListener extends AbstractReplayResultListener {
       result.setResponseCode(String.valueOf(status.code()));
       result.setResponseMessage(status.reasonPhrase());
     }
-    result.setSampleLabel(getLabel(request, response, document));
+    result.setSampleLabel(getLabel(request, response, page));
+    Optional<Document> document = page.isPresent() ? page.get().getDocument() : Optional.<Document>absent();
     if (document.isPresent()) {
       Document responseData = document.get();
       result.setResponseData(responseData.outerHtml(), responseData.outputSettings().charset().name());
@@ -111,18 +127,21 @@ public class HarReplayResultListener extends AbstractReplayResultListener {
       result.setResponseData("No response data received", Charsets.UTF_8.name());
     }
     try {
-      result.setURL(new URL(scheme.scheme(), hostAndPort.getHostText(), hostAndPort.getPortOrDefault(scheme.defaultPort()), request.getUri()));
+      // The URL is of the backend that served the request, so results can be compared by backend
+      HostAndPort urlHostAndPort = getBackend(request).or(hostAndPort);
+      result.setURL(new URL(scheme.scheme(), urlHostAndPort.getHostText(), urlHostAndPort.getPortOrDefault(scheme.defaultPort()), request.getUri()));
     } catch (MalformedURLException e) {
       throw Throwables.propagate(e);
     }
 
     Joiner.MapJoiner joiner = Joiner.on('\n').withKeyValueSeparator(": ");
-    String requestHeaders = joiner.join(request.headers());
+    String requestHeaders = joiner.join(getRequestHeaders(request));
     String responseHeaders = joiner.join(response.headers());
 
     result.setRequestHeaders(checkNotNull(requestHeaders));
     result.setResponseHeaders(checkNotNull(responseHeaders));
-    result.setBytes(bytesRead);
+    result.setBytes(size.getWireBytes());
+    result.setBodySize(size.getContentBytes());
     resultQueue.add(result);
   }
 }
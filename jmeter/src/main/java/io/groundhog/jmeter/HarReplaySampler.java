@@ -1,9 +1,16 @@
 package io.groundhog.jmeter;
 
 import io.groundhog.base.URIScheme;
+import io.groundhog.replay.ArrivalRate;
+import io.groundhog.replay.CapacitySearch;
 import io.groundhog.replay.ReplayClient;
 import io.groundhog.replay.RequestDispatcher;
+import io.groundhog.replay.ServiceLevelObjective;
+import io.groundhog.replay.TimeDilation;
 
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
 import com.google.common.net.HostAndPort;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
@@ -38,8 +45,28 @@ public class HarReplaySampler extends AbstractSampler implements TestBean, Threa
   private URIScheme scheme;
   private String host;
   private int port;
+  private String backends = "";
   private int connectionTimeout;
   private int socketReadTimeout;
+  private boolean keepAlive;
+  private boolean warmUp;
+  private double speed = 1;
+  private double finalSpeed = 1;
+  private int rampDuration;
+  private double sessionRate;
+  private double finalSessionRate;
+  private int sessionRampDuration;
+  private int copies = 1;
+  private int copyOffset;
+  private int saturationConcurrency;
+  private double searchMultiplier;
+  private double searchIncrement = 0.5;
+  private int searchSteps = 10;
+  private int searchWindow = 5;
+  private double sloPercentile = 99;
+  private int sloLatency = 1000;
+  private double sloErrorRate = 1;
+  private String coordinator = "";
   private ReplayClient client;
 
   @Override
@@ -47,7 +74,24 @@ public class HarReplaySampler extends AbstractSampler implements TestBean, Threa
     if (null == client) {
       try {
         HostAndPort hostAndPort = HostAndPort.fromParts(host, port);
-        Module jmeterModule = new JMeterModule(new File(filename), results, scheme, hostAndPort, connectionTimeout, socketReadTimeout);
+        ImmutableList.Builder<HostAndPort> backendHostAndPorts = ImmutableList.builder();
+        for (String backend : Splitter.on(',').trimResults().omitEmptyStrings().split(backends)) {
+          backendHostAndPorts.add(HostAndPort.fromString(backend).withDefaultPort(port));
+        }
+        TimeDilation timeDilation = rampDuration > 0 ? TimeDilation.ramp(speed, finalSpeed, rampDuration, TimeUnit.MINUTES) : TimeDilation.constant(speed);
+        ArrivalRate arrivalRate = ArrivalRate.CAPTURED;
+        if (sessionRate > 0) {
+          arrivalRate = sessionRampDuration > 0 ? ArrivalRate.ramp(sessionRate, finalSessionRate, sessionRampDuration, TimeUnit.MINUTES) : ArrivalRate.constant(sessionRate);
+        }
+        CapacitySearch capacitySearch = CapacitySearch.NONE;
+        if (searchMultiplier > 0) {
+          ServiceLevelObjective objective = ServiceLevelObjective.of(sloPercentile, sloLatency, TimeUnit.MILLISECONDS, sloErrorRate / 100);
+          capacitySearch = CapacitySearch.stepped(searchMultiplier, searchIncrement, searchSteps, searchWindow, TimeUnit.MINUTES, objective);
+        }
+        Optional<HostAndPort> coordinatorHostAndPort = coordinator.isEmpty() ? Optional.<HostAndPort>absent() : Optional.of(HostAndPort.fromString(coordinator));
+        Module jmeterModule = new JMeterModule(new File(filename), results, scheme, hostAndPort, backendHostAndPorts.build(),
+            connectionTimeout, socketReadTimeout, keepAlive, warmUp, timeDilation, arrivalRate, copies, copyOffset,
+            saturationConcurrency, capacitySearch, coordinatorHostAndPort);
         Injector injector = Guice.createInjector(new JMeterSlf4jModule(), jmeterModule);
         client = injector.getInstance(ReplayClient.class);
 
@@ -129,6 +173,14 @@ public class HarReplaySampler extends AbstractSampler implements TestBean, Threa
     this.port = port;
   }
 
+  public String getBackends() {
+    return backends;
+  }
+
+  public void setBackends(String backends) {
+    this.backends = checkNotNull(backends);
+  }
+
   public void setConnectionTimeout (int connectionTimeout) { this.connectionTimeout = connectionTimeout; }
 
   public int getConnectionTimeout() { return this.connectionTimeout; }
@@ -136,4 +188,80 @@ public class HarReplaySampler extends AbstractSampler implements TestBean, Threa
   public void setSocketReadTimeout(int socketReadTimeout) { this.socketReadTimeout = socketReadTimeout; }
 
   public int getSocketReadTimeout() { return this.socketReadTimeout; }
+
+  public void setKeepAlive(boolean keepAlive) { this.keepAlive = keepAlive; }
+
+  public boolean getKeepAlive() { return this.keepAlive; }
+
+  public void setWarmUp(boolean warmUp) { this.warmUp = warmUp; }
+
+  public boolean getWarmUp() { return this.warmUp; }
+
+  public void setSpeed(double speed) { this.speed = speed; }
+
+  public double getSpeed() { return this.speed; }
+
+  public void setFinalSpeed(double finalSpeed) { this.finalSpeed = finalSpeed; }
+
+  public double getFinalSpeed() { return this.finalSpeed; }
+
+  public void setRampDuration(int rampDuration) { this.rampDuration = rampDuration; }
+
+  public int getRampDuration() { return this.rampDuration; }
+
+  public void setSessionRate(double sessionRate) { this.sessionRate = sessionRate; }
+
+  public double getSessionRate() { return this.sessionRate; }
+
+  public void setFinalSessionRate(double finalSessionRate) { this.finalSessionRate = finalSessionRate; }
+
+  public double getFinalSessionRate() { return this.finalSessionRate; }
+
+  public void setSessionRampDuration(int sessionRampDuration) { this.sessionRampDuration = sessionRampDuration; }
+
+  public int getSessionRampDuration() { return this.sessionRampDuration; }
+
+  public void setCopies(int copies) { this.copies = copies; }
+
+  public int getCopies() { return this.copies; }
+
+  public void setCopyOffset(int copyOffset) { this.copyOffset = copyOffset; }
+
+  public int getCopyOffset() { return this.copyOffset; }
+
+  public void setSaturationConcurrency(int saturationConcurrency) { this.saturationConcurrency = saturationConcurrency; }
+
+  public int getSaturationConcurrency() { return this.saturationConcurrency; }
+
+  public void setSearchMultiplier(double searchMultiplier) { this.searchMultiplier = searchMultiplier; }
+
+  public double getSearchMultiplier() { return this.searchMultiplier; }
+
+  public void setSearchIncrement(double searchIncrement) { this.searchIncrement = searchIncrement; }
+
+  public double getSearchIncrement() { return this.searchIncrement; }
+
+  public void setSearchSteps(int searchSteps) { this.searchSteps = searchSteps; }
+
+  public int getSearchSteps() { return this.searchSteps; }
+
+  public void setSearchWindow(int searchWindow) { this.searchWindow = searchWindow; }
+
+  public int getSearchWindow() { return this.searchWindow; }
+
+  public void setSloPercentile(double sloPercentile) { this.sloPercentile = sloPercentile; }
+
+  public double getSloPercentile() { return this.sloPercentile; }
+
+  public void setSloLatency(int sloLatency) { this.sloLatency = sloLatency; }
+
+  public int getSloLatency() { return this.sloLatency; }
+
+  public void setSloErrorRate(double sloErrorRate) { this.sloErrorRate = sloErrorRate; }
+
+  public double getSloErrorRate() { return this.sloErrorRate; }
+
+  public void setCoordinator(String coordinator) { this.coordinator = checkNotNull(coordinator); }
+
+  public String getCoordinator() { return this.coordinator; }
 }
@@ -21,7 +21,7 @@ public class HarReplaySamplerBeanInfo extends BeanInfoSupport {
     p.setValue(DEFAULT, "");
     p.setPropertyEditorClass(FileEditor.class);
 
-    createPropertyGroup("server", new String[]{"scheme", "host", "port"});
+    createPropertyGroup("server", new String[]{"scheme", "host", "port", "backends"});
     p = property("scheme", URIScheme.class);
     p.setValue(NOT_UNDEFINED, Boolean.TRUE);
     p.setValue(NOT_EXPRESSION, Boolean.TRUE);
@@ -35,6 +35,10 @@ public class HarReplaySamplerBeanInfo extends BeanInfoSupport {
     p.setValue(NOT_UNDEFINED, Boolean.TRUE);
     p.setValue(DEFAULT, URIScheme.HTTP.defaultPort());
 
+    p = property("backends");
+    p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+    p.setValue(DEFAULT, "");
+
     createPropertyGroup("timeouts", new String[]{"connectionTimeout", "socketReadTimeout"});
     p = property("connectionTimeout");
     p.setValue(NOT_UNDEFINED, Boolean.TRUE);
@@ -43,5 +47,89 @@ public class HarReplaySamplerBeanInfo extends BeanInfoSupport {
     p = property("socketReadTimeout");
     p.setValue(NOT_UNDEFINED, Boolean.TRUE);
     p.setValue(DEFAULT, 250);
+
+    createPropertyGroup("connections", new String[]{"keepAlive", "warmUp"});
+    p = property("keepAlive");
+    p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+    p.setValue(DEFAULT, Boolean.FALSE);
+
+    p = property("warmUp");
+    p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+    p.setValue(DEFAULT, Boolean.FALSE);
+
+    createPropertyGroup("timeDilation", new String[]{"speed", "finalSpeed", "rampDuration"});
+    p = property("speed");
+    p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+    p.setValue(DEFAULT, 1.0);
+
+    p = property("finalSpeed");
+    p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+    p.setValue(DEFAULT, 1.0);
+
+    p = property("rampDuration");
+    p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+    p.setValue(DEFAULT, 0);
+
+    createPropertyGroup("arrivalRate", new String[]{"sessionRate", "finalSessionRate", "sessionRampDuration"});
+    p = property("sessionRate");
+    p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+    p.setValue(DEFAULT, 0.0);
+
+    p = property("finalSessionRate");
+    p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+    p.setValue(DEFAULT, 0.0);
+
+    p = property("sessionRampDuration");
+    p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+    p.setValue(DEFAULT, 0);
+
+    createPropertyGroup("multiplication", new String[]{"copies", "copyOffset"});
+    p = property("copies");
+    p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+    p.setValue(DEFAULT, 1);
+
+    p = property("copyOffset");
+    p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+    p.setValue(DEFAULT, 0);
+
+    createPropertyGroup("saturation", new String[]{"saturationConcurrency"});
+    p = property("saturationConcurrency");
+    p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+    p.setValue(DEFAULT, 0);
+
+    createPropertyGroup("capacitySearch", new String[]{"searchMultiplier", "searchIncrement", "searchSteps", "searchWindow",
+        "sloPercentile", "sloLatency", "sloErrorRate"});
+    p = property("searchMultiplier");
+    p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+    p.setValue(DEFAULT, 0.0);
+
+    p = property("searchIncrement");
+    p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+    p.setValue(DEFAULT, 0.5);
+
+    p = property("searchSteps");
+    p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+    p.setValue(DEFAULT, 10);
+
+    p = property("searchWindow");
+    p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+    p.setValue(DEFAULT, 5);
+
+    p = property("sloPercentile");
+    p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+    p.setValue(DEFAULT, 99.0);
+
+    p = property("sloLatency");
+    p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+    p.setValue(DEFAULT, 1000);
+
+    p = property("sloErrorRate");
+    p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+    p.setValue(DEFAULT, 1.0);
+
+    createPropertyGroup("distribution", new String[]{"coordinator"});
+    p = property("coordinator");
+    p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+    p.setValue(DEFAULT, "");
   }
 }
@@ -20,13 +20,16 @@ package io.groundhog.jmeter;
 import io.groundhog.base.URIScheme;
 import io.groundhog.replay.*;
 
+import com.google.common.base.Optional;
 import com.google.common.net.HostAndPort;
 import com.google.inject.AbstractModule;
+import com.google.inject.TypeLiteral;
 import com.google.inject.name.Names;
 import io.netty.bootstrap.Bootstrap;
 import org.apache.jmeter.samplers.SampleResult;
 
 import java.io.File;
+import java.util.List;
 import java.util.Queue;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -40,25 +43,74 @@ public final class JMeterModule extends AbstractReplayModule {
   private final Queue<SampleResult> results;
   private final URIScheme scheme;
   private final HostAndPort targetHostAndPort;
+  private final List<HostAndPort> backends;
   private final int connectionTimeout;
   private final int socketReadTimeout;
+  private final boolean keepAlive;
+  private final boolean warmUp;
+  private final TimeDilation timeDilation;
+  private final ArrivalRate arrivalRate;
+  private final int copies;
+  private final int copyOffset;
+  private final int saturationConcurrency;
+  private final CapacitySearch capacitySearch;
+  private final Optional<HostAndPort> coordinator;
 
-  public JMeterModule(File recordingFile, Queue<SampleResult> results, URIScheme scheme, HostAndPort targetHostAndPort, int connectionTimeout, int socketReadTimeout) {
+  public JMeterModule(File recordingFile,
+                      Queue<SampleResult> results,
+                      URIScheme scheme,
+                      HostAndPort targetHostAndPort,
+                      List<HostAndPort> backends,
+                      int connectionTimeout,
+                      int socketReadTimeout,
+                      boolean keepAlive,
+                      boolean warmUp,
+                      TimeDilation timeDilation,
+                      ArrivalRate arrivalRate,
+                      int copies,
+                      int copyOffset,
+                      int saturationConcurrency,
+                      CapacitySearch capacitySearch,
+                      Optional<HostAndPort> coordinator) {
     this.recordingFile = checkNotNull(recordingFile);
     this.results = checkNotNull(results);
     this.scheme = checkNotNull(scheme);
     this.targetHostAndPort = checkNotNull(targetHostAndPort);
+    this.backends = checkNotNull(backends);
     this.connectionTimeout = connectionTimeout;
     this.socketReadTimeout = socketReadTimeout;
+    this.keepAlive = keepAlive;
+    this.warmUp = warmUp;
+    this.timeDilation = checkNotNull(timeDilation);
+    this.arrivalRate = checkNotNull(arrivalRate);
+    this.copies = copies;
+    this.copyOffset = copyOffset;
+    this.saturationConcurrency = saturationConcurrency;
+    this.capacitySearch = checkNotNull(capacitySearch);
+    this.coordinator = checkNotNull(coordinator);
   }
 
   @Override
   protected void configureReplay() {
     bind(File.class).toInstance(recordingFile);
     bind(HostAndPort.class).annotatedWith(Names.named("target")).toInstance(targetHostAndPort);
+    bind(new TypeLiteral<List<HostAndPort>>() {}).annotatedWith(Names.named("backends")).toInstance(backends);
     bind(boolean.class).annotatedWith(Names.named("usessl")).toInstance(URIScheme.HTTPS == scheme);
     bind(Integer.class).annotatedWith(Names.named("connectionTimeout")).toInstance(connectionTimeout);
     bind(Integer.class).annotatedWith(Names.named("socketReadTimeout")).toInstance(socketReadTimeout);
+    bind(boolean.class).annotatedWith(Names.named("keepAlive")).toInstance(keepAlive);
+    bind(boolean.class).annotatedWith(Names.named("warmUp")).toInstance(warmUp);
+    bind(TimeDilation.class).toInstance(timeDilation);
+    bind(ArrivalRate.class).toInstance(arrivalRate);
+    bind(Integer.class).annotatedWith(Names.named("copies")).toInstance(copies);
+    bind(Integer.class).annotatedWith(Names.named("copyOffset")).toInstance(copyOffset);
+    bind(Integer.class).annotatedWith(Names.named("saturationConcurrency")).toInstance(saturationConcurrency);
+    bind(CapacitySearch.class).toInstance(capacitySearch);
+    if (coordinator.isPresent()) {
+      bind(ReplayPartition.class).toProvider(new CoordinatedPartitionProvider(coordinator.get()));
+    } else {
+      bind(ReplayPartition.class).toInstance(ReplayPartition.ALL);
+    }
     bind(ReplayResultListener.class).toInstance(new HarReplayResultListener(results, scheme, targetHostAndPort));
   }
 }
@@ -19,9 +19,11 @@ package io.groundhog.replay;
 
 import com.google.inject.AbstractModule;
 import com.google.inject.assistedinject.FactoryModuleBuilder;
+import com.google.inject.name.Names;
 import io.netty.bootstrap.Bootstrap;
-import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandler;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
 
 /**
  * @author Danny Thomas
@@ -31,9 +33,11 @@ public abstract class AbstractReplayModule extends AbstractModule {
   @Override
   protected void configure() {
     bind(Bootstrap.class).toInstance(new Bootstrap());
+    bind(EventLoopGroup.class).toInstance(new NioEventLoopGroup());
     bind(RequestDispatcher.class).to(DefaultRequestDispatcher.class);
     bind(RequestReader.class).to(DefaultRequestReader.class);
-    install(new FactoryModuleBuilder().implement(ChannelFutureListener.class, UserAgentChannelWriter.class).build(UserAgentChannelWriterFactory.class));
+    bind(ReplayResultListener.class).annotatedWith(Names.named("notifying")).to(NotifyingResultListener.class);
+    install(new FactoryModuleBuilder().build(UserAgentChannelWriterFactory.class));
     install(new FactoryModuleBuilder().implement(UserAgent.class, DefaultUserAgent.class).build(UserAgentFactory.class));
     install(new FactoryModuleBuilder().implement(ChannelHandler.class, ReplayHandler.class).build(ReplayHandlerFactory.class));
     configureReplay();
@@ -20,12 +20,13 @@ package io.groundhog.replay;
 import com.google.common.base.Optional;
 import com.google.common.base.Strings;
 import com.google.common.hash.HashCode;
+import com.google.common.net.HostAndPort;
 import com.google.common.net.MediaType;
 import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponse;
-import org.jsoup.nodes.Document;
 
+import javax.annotation.Nullable;
 import java.nio.channels.ClosedChannelException;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -53,6 +54,14 @@ public abstract class AbstractReplayResultListener implements ReplayResultListen
   private static final MediaType TEXT_XML = MediaType.create(TEXT, XML);
   private static final MediaType APPLICATION_XML = MediaType.create(APPLICATION, XML);
 
+  /**
+   * Documents aren't required by default, so pages are only scraped as they're read.
+   */
+  @Override
+  public boolean isDocumentRequired() {
+    return false;
+  }
+
   protected static Optional<String> getMessageForKnownException(Throwable cause) {
     //noinspection ThrowableResultOfMethodCallIgnored
     checkNotNull(cause);
@@ -63,19 +72,19 @@ public abstract class AbstractReplayResultListener implements ReplayResultListen
   }
 
   protected static String getLabel(HttpRequest request) {
-    return getLabel(request, Optional.<HttpResponse>absent(), Optional.<Document>absent());
+    return getLabel(request, Optional.<HttpResponse>absent(), Optional.<ResponsePage>absent());
   }
 
-  protected static String getLabel(HttpRequest request, HttpResponse response, Optional<Document> document) {
-    return getLabel(request, Optional.of(response), document);
+  protected static String getLabel(HttpRequest request, HttpResponse response, Optional<ResponsePage> page) {
+    return getLabel(request, Optional.of(response), page);
   }
 
-  protected static String getLabel(HttpRequest request, Optional<HttpResponse> response, Optional<Document> document) {
+  protected static String getLabel(HttpRequest request, Optional<HttpResponse> response, Optional<ResponsePage> page) {
     checkNotNull(request);
     checkNotNull(response);
-    checkNotNull(document);
+    checkNotNull(page);
     StringBuilder label = new StringBuilder();
-    String headerLabel = request.headers().get(TRANSACTION_LABEL_HEADER);
+    String headerLabel = getTransactionLabel(request);
     if (null == headerLabel) {
       label.append(request.getUri());
       if (response.isPresent()) {
@@ -87,8 +96,8 @@ public abstract class AbstractReplayResultListener implements ReplayResultListen
           label.append(", ");
           MediaType type = MediaType.parse(contentType);
           label.append(getMediaTypeLabel(type));
-          if (document.isPresent()) {
-            String title = document.get().title();
+          if (page.isPresent()) {
+            String title = page.get().getTitle();
             label.append(": ");
             label.append(title.isEmpty() ? UNTITLED_PAGE_LABEL : title);
           }
@@ -101,6 +110,48 @@ public abstract class AbstractReplayResultListener implements ReplayResultListen
     return label.toString();
   }
 
+  /**
+   * Get the headers sent for a request. For a {@link ReplayHttpRequest} these are the static headers encoded in the
+   * request prelude, followed by the headers set at send time.
+   */
+  protected static HttpHeaders getRequestHeaders(HttpRequest request) {
+    checkNotNull(request);
+    if (request instanceof ReplayHttpRequest) {
+      UserAgentRequest uaRequest = ((ReplayHttpRequest) request).getUserAgentRequest();
+      boolean hasBody = uaRequest.getPostData().isPresent();
+      HttpHeaders headers = RequestPreludeEncoder.getStaticHeaders(uaRequest.headers(), hasBody, uaRequest.isKeepAlive());
+      headers.add(request.headers());
+      return headers;
+    }
+    return request.headers();
+  }
+
+  /**
+   * Get the backend a request was sent to, or absent if the request wasn't sent to a backend, such as requests that
+   * failed before they were written.
+   */
+  protected static Optional<HostAndPort> getBackend(HttpRequest request) {
+    checkNotNull(request);
+    if (request instanceof ReportedRequest) {
+      return ((ReportedRequest) request).getBackend();
+    }
+    return request instanceof ReplayHttpRequest ? ((ReplayHttpRequest) request).getBackend() : Optional.<HostAndPort>absent();
+  }
+
+  /**
+   * Get the transaction label a request was captured with, or null if it had none.
+   */
+  @Nullable
+  static String getTransactionLabel(HttpRequest request) {
+    checkNotNull(request);
+    if (request instanceof ReportedRequest) {
+      return ((ReportedRequest) request).getTransactionLabel().orNull();
+    }
+    HttpHeaders capturedHeaders = request instanceof ReplayHttpRequest ?
+        ((ReplayHttpRequest) request).getUserAgentRequest().headers() : request.headers();
+    return capturedHeaders.get(TRANSACTION_LABEL_HEADER);
+  }
+
   protected static String getMediaTypeLabel(MediaType type) {
     if (type.is(TEXT_HTML)) {
       return "Page";
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay;
+
+import com.google.common.base.Objects;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * The rate new sessions are started during replay, in sessions per second, for open-loop replay at a controlled
+ * arrival rate rather than following the timing of the capture.
+ * <p/>
+ * The rate may be ramped linearly over a period of time, after which the final rate is held.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ * @see SessionArrivalScheduler
+ */
+public final class ArrivalRate {
+  /**
+   * Start sessions when they were started in the capture.
+   */
+  public static final ArrivalRate CAPTURED = new ArrivalRate(null);
+
+  // The nth arrival is at the replay offset of n seconds of capture, replayed at a speed equal to the rate
+  private final TimeDilation arrivals;
+
+  private ArrivalRate(TimeDilation arrivals) {
+    this.arrivals = arrivals;
+  }
+
+  /**
+   * Start sessions at a constant rate.
+   *
+   * @param sessionsPerSecond the number of sessions started each second
+   */
+  public static ArrivalRate constant(double sessionsPerSecond) {
+    return new ArrivalRate(TimeDilation.constant(sessionsPerSecond));
+  }
+
+  /**
+   * Start sessions at a rate ramped linearly from the initial to the final rate.
+   *
+   * @param initialSessionsPerSecond the rate at the start of replay
+   * @param finalSessionsPerSecond   the rate at the end of the ramp, and for the remainder of replay
+   * @param duration                 the duration of the ramp
+   * @param unit                     the unit of the duration
+   */
+  public static ArrivalRate ramp(double initialSessionsPerSecond, double finalSessionsPerSecond, long duration, TimeUnit unit) {
+    return new ArrivalRate(TimeDilation.ramp(initialSessionsPerSecond, finalSessionsPerSecond, duration, unit));
+  }
+
+  @Override
+  public String toString() {
+    Objects.ToStringHelper helper = Objects.toStringHelper(this);
+    helper.add("arrivals", isCaptured() ? "captured" : arrivals);
+    return helper.toString();
+  }
+
+  /**
+   * If sessions are started when they were started in the capture.
+   */
+  public boolean isCaptured() {
+    return null == arrivals;
+  }
+
+  /**
+   * Get the time from the start of replay that a session should start.
+   *
+   * @param arrival the number of sessions started before this session
+   * @param unit    the unit of the returned offset
+   */
+  public long getArrivalOffset(long arrival, TimeUnit unit) {
+    checkNotNull(unit);
+    checkState(!isCaptured(), "Captured arrivals have no fixed rate");
+    return unit.convert(arrivals.getReplayOffsetNanos(arrival, TimeUnit.SECONDS), TimeUnit.NANOSECONDS);
+  }
+}
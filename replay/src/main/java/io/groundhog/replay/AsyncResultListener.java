@@ -0,0 +1,287 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay;
+
+import io.groundhog.har.HttpArchive;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.hash.HashCode;
+import io.netty.handler.codec.http.Cookie;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A {@link ReplayResultListener} that reports results to another listener on its own thread, so the event loops that
+ * read responses never block or do reporting work, and a slow listener doesn't add to the latency of the requests
+ * being measured.
+ * <p/>
+ * Each result is copied to a compact immutable record, holding the request line, label inputs, status and timings
+ * rather than the requests, responses and user agents being replayed, and offered to a {@link RingBuffer}, which a
+ * listener thread drains in batches. If the buffer fills because the listener can't keep up, or results arrive once
+ * the listener has been closed, results are dropped rather than waited for, and the number dropped is reported when
+ * the listener is closed. Only reporting is affected, as requests complete before their results are offered.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+final class AsyncResultListener implements ReplayResultListener, Closeable {
+  private static final int CAPACITY = 1 << 16;
+  private static final int BATCH_SIZE = 256;
+  private static final long IDLE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final ReplayResultListener delegate;
+  private final boolean documentRequired;
+  private final int capacity;
+  private final RingBuffer<Result> results;
+  private final AtomicLong dropped;
+  private final Thread listenerThread;
+
+  private volatile boolean closed;
+
+  private Logger log = LoggerFactory.getLogger(AsyncResultListener.class);
+
+  /**
+   * Create a listener, starting its listener thread.
+   *
+   * @param delegate the listener results are reported to, from the listener thread
+   */
+  AsyncResultListener(ReplayResultListener delegate) {
+    this(delegate, CAPACITY);
+  }
+
+  @VisibleForTesting
+  AsyncResultListener(ReplayResultListener delegate, int capacity) {
+    this.delegate = checkNotNull(delegate);
+    documentRequired = delegate.isDocumentRequired();
+    this.capacity = capacity;
+    results = new RingBuffer<>(capacity);
+    dropped = new AtomicLong();
+    listenerThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        drain();
+      }
+    }, "ReplayResultListener");
+    listenerThread.setDaemon(true);
+    listenerThread.start();
+  }
+
+  @Override
+  public void success(HttpRequest request, HttpResponse response, UserAgent userAgent, ResponseSize size,
+                      RequestTiming timing, Optional<ResponsePage> page) {
+    offer(new Result(null, ReportedRequest.of(request), CapturedResponse.copyOf(response),
+        ReportedUserAgent.of(checkNotNull(userAgent)), checkNotNull(size), checkNotNull(timing), checkNotNull(page), null));
+  }
+
+  @Override
+  public void failure(String failureReason, HttpRequest request, HttpResponse response, UserAgent userAgent,
+                      ResponseSize size, RequestTiming timing, Optional<ResponsePage> page) {
+    offer(new Result(checkNotNull(failureReason), ReportedRequest.of(request), CapturedResponse.copyOf(response),
+        ReportedUserAgent.of(checkNotNull(userAgent)), checkNotNull(size), checkNotNull(timing), checkNotNull(page), null));
+  }
+
+  @Override
+  public void failure(HttpRequest request, Optional<UserAgent> userAgent, Optional<Throwable> cause) {
+    ReportedUserAgent reportedUserAgent = userAgent.isPresent() ? ReportedUserAgent.of(userAgent.get()) : null;
+    offer(new Result(null, ReportedRequest.of(request), null, reportedUserAgent, null, null, null, cause.orNull()));
+  }
+
+  @Override
+  public boolean isDocumentRequired() {
+    return documentRequired;
+  }
+
+  /**
+   * Get the number of results dropped, as the buffer was full or the listener was closed.
+   */
+  long getDropped() {
+    return dropped.get();
+  }
+
+  /**
+   * Stop the listener thread once it has reported every result offered, then close the delegate listener, if it is
+   * {@link Closeable}.
+   */
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    try {
+      listenerThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    // Report any result offered as the listener thread stopped
+    List<Result> remaining = Lists.newArrayList();
+    results.drainTo(remaining, capacity);
+    for (Result result : remaining) {
+      result.report(delegate);
+    }
+    if (dropped.get() > 0) {
+      log.warn("The result listener fell behind, and {} results were dropped without being reported", dropped.get());
+    }
+    if (delegate instanceof Closeable) {
+      ((Closeable) delegate).close();
+    }
+  }
+
+  private void offer(Result result) {
+    // Results are offered from the event loops, which must never wait for the listener
+    if (closed || !results.offer(result)) {
+      dropped.incrementAndGet();
+    }
+  }
+
+  private void drain() {
+    List<Result> batch = Lists.newArrayListWithCapacity(BATCH_SIZE);
+    while (true) {
+      // Read the flag before draining, so results offered before the listener was closed are always reported
+      boolean stopping = closed;
+      if (0 == results.drainTo(batch, BATCH_SIZE)) {
+        if (stopping) {
+          return;
+        }
+        LockSupport.parkNanos(IDLE_WAIT_NANOS);
+        continue;
+      }
+      for (Result result : batch) {
+        try {
+          result.report(delegate);
+        } catch (RuntimeException e) {
+          log.error("Result listener failed to report a result for {}", result.request.getUri(), e);
+        }
+      }
+      batch.clear();
+    }
+  }
+
+  /**
+   * A result, held until it is reported. Results that failed without a response have only a request, and the user agent
+   * and cause of the failure, if known.
+   */
+  private static final class Result {
+    @Nullable
+    private final String failureReason;
+    private final ReportedRequest request;
+    @Nullable
+    private final CapturedResponse response;
+    @Nullable
+    private final ReportedUserAgent userAgent;
+    @Nullable
+    private final ResponseSize size;
+    @Nullable
+    private final RequestTiming timing;
+    @Nullable
+    private final Optional<ResponsePage> page;
+    @Nullable
+    private final Throwable cause;
+
+    private Result(@Nullable String failureReason, ReportedRequest request, @Nullable CapturedResponse response,
+                   @Nullable ReportedUserAgent userAgent, @Nullable ResponseSize size, @Nullable RequestTiming timing,
+                   @Nullable Optional<ResponsePage> page, @Nullable Throwable cause) {
+      this.failureReason = failureReason;
+      this.request = request;
+      this.response = response;
+      this.userAgent = userAgent;
+      this.size = size;
+      this.timing = timing;
+      this.page = page;
+      this.cause = cause;
+    }
+
+    private void report(ReplayResultListener listener) {
+      if (null == response) {
+        listener.failure(request, Optional.<UserAgent>fromNullable(userAgent), Optional.fromNullable(cause));
+      } else if (null == failureReason) {
+        listener.success(request, response, userAgent, size, timing, page);
+      } else {
+        listener.failure(failureReason, request, response, userAgent, size, timing, page);
+      }
+    }
+  }
+
+  /**
+   * The identity of the user agent a result was replayed for, without its cookies and other session state.
+   */
+  private static final class ReportedUserAgent implements UserAgent {
+    private final HashCode key;
+    private final boolean persistent;
+
+    private ReportedUserAgent(HashCode key, boolean persistent) {
+      this.key = key;
+      this.persistent = persistent;
+    }
+
+    private static ReportedUserAgent of(UserAgent userAgent) {
+      return new ReportedUserAgent(userAgent.getKey(), userAgent.isPersistent());
+    }
+
+    @Override
+    public HashCode getKey() {
+      return key;
+    }
+
+    @Override
+    public boolean isPersistent() {
+      return persistent;
+    }
+
+    @Override
+    public void setCookies(Collection<Cookie> cookies) {
+      throw unsupportedOperation();
+    }
+
+    @Override
+    public void setOverridePostValues(Collection<HttpArchive.Param> params) {
+      throw unsupportedOperation();
+    }
+
+    @Override
+    public Set<Cookie> getCookiesForUri(String uri) {
+      throw unsupportedOperation();
+    }
+
+    @Override
+    public String getCookieHeader(String uri) {
+      throw unsupportedOperation();
+    }
+
+    @Override
+    public Optional<HttpArchive.Param> getOverrideParam(String name) {
+      throw unsupportedOperation();
+    }
+
+    private static UnsupportedOperationException unsupportedOperation() {
+      return new UnsupportedOperationException("Reported user agents only identify the user agent");
+    }
+  }
+}
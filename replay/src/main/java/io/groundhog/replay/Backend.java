@@ -0,0 +1,114 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.net.HostAndPort;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An instance of the target that requests are balanced across, resolved once when the replay starts.
+ * <p/>
+ * Connections to a backend carry it as an attribute, so the requests written to them can be attributed to it, and
+ * counted while they're outstanding.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+public final class Backend {
+  static final AttributeKey<Backend> BACKEND_KEY = AttributeKey.valueOf(Backend.class.getName());
+
+  private final HostAndPort hostAndPort;
+  private final InetSocketAddress address;
+  private final AtomicInteger outstanding;
+  private final AtomicLong requests;
+
+  private Backend(HostAndPort hostAndPort, InetSocketAddress address) {
+    this.hostAndPort = hostAndPort;
+    this.address = address;
+    outstanding = new AtomicInteger();
+    requests = new AtomicLong();
+  }
+
+  /**
+   * Resolve a backend.
+   *
+   * @throws UnknownHostException if the host of the backend could not be resolved
+   */
+  public static Backend resolve(HostAndPort hostAndPort) throws UnknownHostException {
+    checkNotNull(hostAndPort);
+    InetSocketAddress address = new InetSocketAddress(hostAndPort.getHostText(), hostAndPort.getPort());
+    if (address.isUnresolved()) {
+      throw new UnknownHostException("Could not resolve target " + hostAndPort);
+    }
+    return new Backend(hostAndPort, address);
+  }
+
+  /**
+   * Get the backend a connection was opened to, or absent if it wasn't opened by a {@link ChannelConnector}.
+   */
+  public static Optional<Backend> get(Channel channel) {
+    checkNotNull(channel);
+    return Optional.fromNullable(channel.attr(BACKEND_KEY).get());
+  }
+
+  public HostAndPort getHostAndPort() {
+    return hostAndPort;
+  }
+
+  public InetSocketAddress getAddress() {
+    return address;
+  }
+
+  /**
+   * Get the number of requests written to this backend that haven't completed.
+   */
+  public int getOutstanding() {
+    return outstanding.get();
+  }
+
+  /**
+   * Get the number of requests written to this backend.
+   */
+  public long getRequests() {
+    return requests.get();
+  }
+
+  void requestStarted() {
+    outstanding.incrementAndGet();
+    requests.incrementAndGet();
+  }
+
+  void requestCompleted() {
+    outstanding.decrementAndGet();
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this).add("hostAndPort", hostAndPort).add("address", address)
+        .add("outstanding", outstanding).toString();
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Balances requests across the backends of the target, in place of a load balancer in front of them, which would add
+ * its own latency to every request.
+ * <p/>
+ * The requests of a session stick to one backend, chosen by consistent hashing on the key of its user agent, so
+ * sessions held by a backend are followed, and most sessions keep their backend if the backends change. Requests
+ * without a session go to the backend with the fewest outstanding requests.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+final class BackendBalancer {
+  private static final HashFunction USER_AGENT_HASH = Hashing.murmur3_32();
+
+  private final List<Backend> backends;
+  private final AtomicInteger next;
+
+  BackendBalancer(List<Backend> backends) {
+    checkArgument(!backends.isEmpty(), "There must be at least one backend");
+    this.backends = ImmutableList.copyOf(backends);
+    next = new AtomicInteger();
+  }
+
+  List<Backend> getBackends() {
+    return backends;
+  }
+
+  /**
+   * Select the backend for a request.
+   *
+   * @param userAgent the user agent the request is sent for
+   * @param copy      the copy of the capture the request is replayed for, each copy having its own user agents
+   * @return the index of the backend
+   */
+  int select(UserAgent userAgent, int copy) {
+    checkNotNull(userAgent);
+    if (1 == backends.size()) {
+      return 0;
+    }
+    if (userAgent.isPersistent()) {
+      byte[] key = userAgent.getKey().asBytes();
+      return Hashing.consistentHash(USER_AGENT_HASH.newHasher().putBytes(key).putInt(copy).hash(), backends.size());
+    }
+    return selectLeastOutstanding();
+  }
+
+  /**
+   * Select the backend with the fewest outstanding requests. Ties are broken in turn, so backends are used evenly while
+   * the target keeps up.
+   */
+  private int selectLeastOutstanding() {
+    int size = backends.size();
+    int start = (next.getAndIncrement() & Integer.MAX_VALUE) % size;
+    int selected = start;
+    int fewest = Integer.MAX_VALUE;
+    for (int i = 0; i < size; i++) {
+      int index = (start + i) % size;
+      int outstanding = backends.get(index).getOutstanding();
+      if (outstanding < fewest) {
+        selected = index;
+        fewest = outstanding;
+      }
+    }
+    return selected;
+  }
+}
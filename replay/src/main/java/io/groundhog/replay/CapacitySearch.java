@@ -0,0 +1,125 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay;
+
+import com.google.common.base.Objects;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A search for the capacity of the target, replaying the start of the capture repeatedly at increasing multiples of
+ * the captured speed. The search stops at the first step that breaks its {@link ServiceLevelObjective}, and the
+ * multiplier of the last step that met it is the maximum sustainable multiplier.
+ * <p/>
+ * Each step replays the same window of the capture, at a constant speed equal to the step's multiplier, in place of
+ * the configured time dilation.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+public final class CapacitySearch {
+  /**
+   * Replay the capture once, without searching for capacity.
+   */
+  public static final CapacitySearch NONE = new CapacitySearch(0, 0, 0, 0, null);
+
+  private final double initialMultiplier;
+  private final double increment;
+  private final int steps;
+  private final long windowMillis;
+  private final ServiceLevelObjective objective;
+
+  private CapacitySearch(double initialMultiplier, double increment, int steps, long windowMillis,
+                         ServiceLevelObjective objective) {
+    this.initialMultiplier = initialMultiplier;
+    this.increment = increment;
+    this.steps = steps;
+    this.windowMillis = windowMillis;
+    this.objective = objective;
+  }
+
+  /**
+   * Search for capacity in steps of a fixed increment.
+   *
+   * @param initialMultiplier the multiplier of the first step
+   * @param increment         the amount the multiplier is increased by for each step
+   * @param steps             the maximum number of steps
+   * @param window            the duration of the capture replayed by each step
+   * @param unit              the unit of the window
+   * @param objective         the objective each step must meet
+   */
+  public static CapacitySearch stepped(double initialMultiplier, double increment, int steps, long window, TimeUnit unit,
+                                       ServiceLevelObjective objective) {
+    checkArgument(initialMultiplier > 0, "The initial multiplier must be positive");
+    checkArgument(increment > 0, "The increment must be positive");
+    checkArgument(steps > 0, "There must be at least one step");
+    checkArgument(window > 0, "The window must be positive");
+    checkNotNull(unit);
+    checkNotNull(objective);
+    return new CapacitySearch(initialMultiplier, increment, steps, unit.toMillis(window), objective);
+  }
+
+  @Override
+  public String toString() {
+    Objects.ToStringHelper helper = Objects.toStringHelper(this);
+    if (isEnabled()) {
+      helper.add("initialMultiplier", initialMultiplier);
+      helper.add("increment", increment);
+      helper.add("steps", steps);
+      helper.add("windowMillis", windowMillis);
+      helper.add("objective", objective);
+    } else {
+      helper.addValue("none");
+    }
+    return helper.toString();
+  }
+
+  /**
+   * If a search is made, rather than replaying the capture once.
+   */
+  public boolean isEnabled() {
+    return null != objective;
+  }
+
+  public int getSteps() {
+    return steps;
+  }
+
+  /**
+   * Get the multiplier of a step.
+   *
+   * @param step the step, from 0
+   */
+  public double getMultiplier(int step) {
+    checkState(isEnabled(), "No search is made");
+    checkArgument(step >= 0 && step < steps, "The step must be between 0 and %s", steps - 1);
+    return initialMultiplier + step * increment;
+  }
+
+  public long getWindow(TimeUnit unit) {
+    return checkNotNull(unit).convert(windowMillis, TimeUnit.MILLISECONDS);
+  }
+
+  public ServiceLevelObjective getObjective() {
+    checkState(isEnabled(), "No search is made");
+    return objective;
+  }
+}
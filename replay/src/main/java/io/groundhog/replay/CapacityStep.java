@@ -0,0 +1,143 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay;
+
+import com.google.common.base.Optional;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The results of a step of a {@link CapacitySearch}, recorded as requests complete on the event loops.
+ * <p/>
+ * Requests that fail, with or without a response, count as errors, as do requests that haven't completed by the time
+ * the step is evaluated. Each step replays its own copies of the capture, so results are only recorded for requests
+ * replayed by the step, and not once the step has finished, as requests from a step that timed out may still complete
+ * during the next step.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+final class CapacityStep {
+  private final double multiplier;
+  private final int index;
+  private final int copies;
+  private final Histogram latency;
+
+  private long expected;
+  private long completed;
+  private long failed;
+  private boolean finished;
+
+  /**
+   * @param multiplier the multiplier of the captured load replayed by the step
+   * @param index      the index of the step in the search
+   * @param copies     the copies of the capture replayed by each step
+   */
+  CapacityStep(double multiplier, int index, int copies) {
+    checkArgument(multiplier > 0, "The multiplier must be positive");
+    checkArgument(index >= 0, "The index must not be negative");
+    checkArgument(copies > 0, "The number of copies must be positive");
+    this.multiplier = multiplier;
+    this.index = index;
+    this.copies = copies;
+    latency = new Histogram();
+  }
+
+  double getMultiplier() {
+    return multiplier;
+  }
+
+  /**
+   * If a request for the given copy of the capture was replayed by this step. Steps replay copies starting from
+   * {@code index * copies}.
+   */
+  boolean isReplaying(int copy) {
+    return copy / copies == index;
+  }
+
+  /**
+   * Record a completed request, unless the step has finished.
+   *
+   * @param timing the timing of the request, or absent if it failed without a response
+   * @param failed if the request failed
+   */
+  synchronized void record(Optional<RequestTiming> timing, boolean failed) {
+    checkNotNull(timing);
+    if (finished) {
+      return;
+    }
+    if (timing.isPresent()) {
+      latency.record(timing.get().getLatency(TimeUnit.MICROSECONDS));
+    }
+    completed++;
+    if (failed) {
+      this.failed++;
+    }
+    notifyAll();
+  }
+
+  /**
+   * Wait until the expected number of requests have completed, or the timeout elapses.
+   *
+   * @param expected the number of requests sent during the step
+   * @return if every expected request completed
+   */
+  synchronized boolean awaitCompletion(long expected, long timeout, TimeUnit unit) throws InterruptedException {
+    checkArgument(expected >= 0, "The number of expected requests must not be negative");
+    checkNotNull(unit);
+    this.expected = expected;
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (completed < expected) {
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) {
+        return false;
+      }
+      TimeUnit.NANOSECONDS.timedWait(this, remaining);
+    }
+    return true;
+  }
+
+  /**
+   * Finish the step, once it has been waited for, so requests that complete late don't change its results.
+   */
+  synchronized void finish() {
+    finished = true;
+  }
+
+  /**
+   * Get the latency of the requests that completed, in microseconds.
+   */
+  Histogram getLatency() {
+    return latency;
+  }
+
+  synchronized long getCompleted() {
+    return completed;
+  }
+
+  /**
+   * Get the fraction of requests that failed or didn't complete.
+   */
+  synchronized double getErrorRate() {
+    long requests = Math.max(expected, completed);
+    long errors = failed + requests - completed;
+    return 0 == requests ? 0 : (double) errors / requests;
+  }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.*;
+import io.netty.handler.codec.http.HttpHeaders;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Immutable headers of a captured message, held as a single array of interned names and values.
+ * <p/>
+ * Captures repeat the same few header names and values across every entry, so interning lets the requests buffered
+ * ahead of replay share them rather than each holding its own copy. Lookups scan the array, which for the handful of
+ * headers on a typical request is as fast as hashing.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+final class CapturedHeaders extends HttpHeaders {
+  static final CapturedHeaders EMPTY = new CapturedHeaders(new String[0]);
+
+  private static final Interner<String> INTERNER = Interners.newWeakInterner();
+
+  private final String[] namesAndValues;
+
+  private CapturedHeaders(String[] namesAndValues) {
+    this.namesAndValues = namesAndValues;
+  }
+
+  /**
+   * Get immutable headers with the same entries as the given headers.
+   */
+  static CapturedHeaders of(HttpHeaders headers) {
+    return of(headers, Predicates.<String>alwaysTrue());
+  }
+
+  /**
+   * Get immutable headers with the entries of the given headers whose names are retained.
+   *
+   * @param headers the headers to copy
+   * @param retained a predicate on header names, which is true for the headers to retain
+   */
+  static CapturedHeaders of(HttpHeaders headers, Predicate<String> retained) {
+    checkNotNull(headers);
+    checkNotNull(retained);
+    if (headers instanceof CapturedHeaders && Predicates.<String>alwaysTrue() == retained) {
+      return (CapturedHeaders) headers;
+    }
+    List<String> namesAndValues = Lists.newArrayList();
+    for (Map.Entry<String, String> header : headers) {
+      if (retained.apply(header.getKey())) {
+        namesAndValues.add(intern(header.getKey()));
+        namesAndValues.add(intern(header.getValue()));
+      }
+    }
+    return namesAndValues.isEmpty() ? EMPTY : new CapturedHeaders(namesAndValues.toArray(new String[namesAndValues.size()]));
+  }
+
+  /**
+   * Intern a value that is likely to be repeated throughout a capture.
+   */
+  static String intern(String value) {
+    return INTERNER.intern(value);
+  }
+
+  @Override
+  public String get(String name) {
+    checkNotNull(name);
+    for (int i = 0; i < namesAndValues.length; i += 2) {
+      if (name.equalsIgnoreCase(namesAndValues[i])) {
+        return namesAndValues[i + 1];
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public List<String> getAll(String name) {
+    checkNotNull(name);
+    ImmutableList.Builder<String> values = ImmutableList.builder();
+    for (int i = 0; i < namesAndValues.length; i += 2) {
+      if (name.equalsIgnoreCase(namesAndValues[i])) {
+        values.add(namesAndValues[i + 1]);
+      }
+    }
+    return values.build();
+  }
+
+  @Override
+  public List<Map.Entry<String, String>> entries() {
+    return ImmutableList.copyOf(iterator());
+  }
+
+  @Override
+  public boolean contains(String name) {
+    return null != get(name);
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return 0 == namesAndValues.length;
+  }
+
+  @Override
+  public Set<String> names() {
+    ImmutableSortedSet.Builder<String> names = ImmutableSortedSet.orderedBy(String.CASE_INSENSITIVE_ORDER);
+    for (int i = 0; i < namesAndValues.length; i += 2) {
+      names.add(namesAndValues[i]);
+    }
+    return names.build();
+  }
+
+  @Override
+  public Iterator<Map.Entry<String, String>> iterator() {
+    return new AbstractIterator<Map.Entry<String, String>>() {
+      private int index;
+
+      @Override
+      protected Map.Entry<String, String> computeNext() {
+        if (index == namesAndValues.length) {
+          return endOfData();
+        }
+        Map.Entry<String, String> entry = Maps.immutableEntry(namesAndValues[index], namesAndValues[index + 1]);
+        index += 2;
+        return entry;
+      }
+    };
+  }
+
+  @Override
+  public HttpHeaders add(String name, Object value) {
+    throw new UnsupportedOperationException("Captured headers are immutable");
+  }
+
+  @Override
+  public HttpHeaders add(String name, Iterable<?> values) {
+    throw new UnsupportedOperationException("Captured headers are immutable");
+  }
+
+  @Override
+  public HttpHeaders set(String name, Object value) {
+    throw new UnsupportedOperationException("Captured headers are immutable");
+  }
+
+  @Override
+  public HttpHeaders set(String name, Iterable<?> values) {
+    throw new UnsupportedOperationException("Captured headers are immutable");
+  }
+
+  @Override
+  public HttpHeaders remove(String name) {
+    throw new UnsupportedOperationException("Captured headers are immutable");
+  }
+
+  @Override
+  public HttpHeaders clear() {
+    throw new UnsupportedOperationException("Captured headers are immutable");
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableSortedSet;
+import io.netty.handler.codec.DecoderResult;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An immutable response. The responses expected for a {@link UserAgentRequest} hold only the status and the headers
+ * replay inspects, while the copies results are reported with hold every header.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+final class CapturedResponse implements HttpResponse {
+  private static final Set<String> RETAINED_HEADERS = ImmutableSortedSet.orderedBy(String.CASE_INSENSITIVE_ORDER).add(
+      HttpHeaders.Names.SET_COOKIE, HttpHeaders.Names.CONTENT_TYPE).build();
+
+  private final HttpVersion protocolVersion;
+  private final HttpResponseStatus status;
+  private final CapturedHeaders headers;
+
+  CapturedResponse(HttpVersion protocolVersion, HttpResponseStatus status, HttpHeaders headers) {
+    this(protocolVersion, status, CapturedHeaders.of(headers, Predicates.in(RETAINED_HEADERS)));
+  }
+
+  private CapturedResponse(HttpVersion protocolVersion, HttpResponseStatus status, CapturedHeaders headers) {
+    this.protocolVersion = checkNotNull(protocolVersion);
+    this.status = checkNotNull(status);
+    this.headers = headers;
+  }
+
+  /**
+   * Get the expected response for a captured response.
+   */
+  static CapturedResponse of(HttpResponse response) {
+    checkNotNull(response);
+    if (response instanceof CapturedResponse) {
+      return (CapturedResponse) response;
+    }
+    return new CapturedResponse(response.getProtocolVersion(), response.getStatus(), response.headers());
+  }
+
+  /**
+   * Get a copy of a response, with every header, for reporting.
+   */
+  static CapturedResponse copyOf(HttpResponse response) {
+    checkNotNull(response);
+    return new CapturedResponse(response.getProtocolVersion(), response.getStatus(), CapturedHeaders.of(response.headers()));
+  }
+
+  @Override
+  public String toString() {
+    Objects.ToStringHelper helper = Objects.toStringHelper(this);
+    helper.add("status", status);
+    return helper.toString();
+  }
+
+  @Override
+  public HttpResponseStatus getStatus() {
+    return status;
+  }
+
+  @Override
+  public HttpResponse setStatus(HttpResponseStatus status) {
+    throw new UnsupportedOperationException("Captured responses are immutable");
+  }
+
+  @Override
+  public HttpVersion getProtocolVersion() {
+    return protocolVersion;
+  }
+
+  @Override
+  public HttpResponse setProtocolVersion(HttpVersion version) {
+    throw new UnsupportedOperationException("Captured responses are immutable");
+  }
+
+  @Override
+  public HttpHeaders headers() {
+    return headers;
+  }
+
+  @Override
+  public DecoderResult getDecoderResult() {
+    return DecoderResult.SUCCESS;
+  }
+
+  @Override
+  public void setDecoderResult(DecoderResult result) {
+    throw new UnsupportedOperationException("Captured responses are immutable");
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Queues;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+
+import java.util.List;
+import java.util.Queue;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Opens connections to a {@link Backend} of the target for a single event loop, at the address it was resolved to when
+ * the replay started.
+ * <p/>
+ * Connections can be opened ahead of the replay to warm up the connector, so requests due as the replay starts don't
+ * all connect, and handshake, at once. Warm connections are handed out before any new connection is opened. Every
+ * connection is added to the channel group when it is opened.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+public final class ChannelConnector {
+  private final Backend backend;
+  private final Bootstrap bootstrap;
+  private final ChannelGroup channelGroup;
+  private final Queue<Channel> warm;
+
+  /**
+   * Create a connector.
+   *
+   * @param bootstrap    the bootstrap connections are made with, registering connections with a single event loop
+   * @param backend      the backend connections are opened to
+   * @param channelGroup the group every connection opened by this connector is added to
+   */
+  public ChannelConnector(Bootstrap bootstrap, Backend backend, ChannelGroup channelGroup) {
+    this.backend = checkNotNull(backend);
+    this.bootstrap = checkNotNull(bootstrap).clone().remoteAddress(backend.getAddress());
+    this.bootstrap.attr(Backend.BACKEND_KEY, backend);
+    this.channelGroup = checkNotNull(channelGroup);
+    // Connections are warmed up from the thread starting the replay, and handed out on the loop
+    warm = Queues.newConcurrentLinkedQueue();
+  }
+
+  public Backend getBackend() {
+    return backend;
+  }
+
+  /**
+   * Get a connection to the backend, using a warm connection if one is still open, otherwise opening a new connection.
+   */
+  public ChannelFuture connect() {
+    Channel channel = warm.poll();
+    // The target may have closed a warm connection while it was idle
+    while (null != channel && !channel.isActive()) {
+      channel = warm.poll();
+    }
+    if (null != channel) {
+      return channel.newSucceededFuture();
+    }
+    ChannelFuture future = bootstrap.connect();
+    channelGroup.add(future.channel());
+    return future;
+  }
+
+  /**
+   * Open a connection to be handed out by a later {@link #connect()}.
+   *
+   * @return a future completed once the connection is ready to be written to, including its TLS handshake, if any
+   */
+  public ChannelFuture warmUp() {
+    ChannelFuture connectFuture = bootstrap.connect();
+    final Channel channel = connectFuture.channel();
+    channelGroup.add(channel);
+    final ChannelPromise promise = channel.newPromise();
+    connectFuture.addListener(new ChannelFutureListener() {
+      @Override
+      public void operationComplete(ChannelFuture future) throws Exception {
+        if (!future.isSuccess()) {
+          promise.setFailure(future.cause());
+          return;
+        }
+        SslHandler sslHandler = channel.pipeline().get(SslHandler.class);
+        if (null == sslHandler) {
+          ready(channel, promise);
+        } else {
+          sslHandler.handshakeFuture().addListener(new GenericFutureListener<Future<Channel>>() {
+            @Override
+            public void operationComplete(Future<Channel> future) throws Exception {
+              if (future.isSuccess()) {
+                ready(channel, promise);
+              } else {
+                promise.setFailure(future.cause());
+              }
+            }
+          });
+        }
+      }
+    });
+    return promise;
+  }
+
+  private void ready(Channel channel, ChannelPromise promise) {
+    warm.add(channel);
+    promise.setSuccess();
+  }
+
+  /**
+   * Close the warm connections that haven't been handed out.
+   */
+  public List<ChannelFuture> close() {
+    List<ChannelFuture> futures = Lists.newArrayList();
+    Channel channel;
+    while (null != (channel = warm.poll())) {
+      futures.add(channel.close());
+    }
+    return futures;
+  }
+}
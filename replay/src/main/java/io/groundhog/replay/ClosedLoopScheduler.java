@@ -0,0 +1,282 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.groundhog.replay;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Queues;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Replays the sessions of a capture as closed loops, to find the maximum throughput of the target. The requests of a
+ * session are sent in capture order, each as soon as the previous request of the session has completed, without think
+ * time. The number of requests in flight is capped, and sessions with a request ready wait for a free slot in the order
+ * they became ready. Requests without a session are treated as sessions of their own.
+ * <p/>
+ * Requests are offered from a single thread in capture order, and completed from the event loops. Offering blocks once
+ * enough requests are waiting and every slot is busy, so the capture is only read as fast as it is replayed. Offering
+ * never blocks while a slot is free, as requests queued behind long sessions would otherwise stop new sessions from
+ * starting.
+ * <p/>
+ * Requests are dispatched without think time, so user agents expire relative to the time their requests were
+ * captured, rather than when they are expected to be sent.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+final class ClosedLoopScheduler {
+  private static final int READ_AHEAD_PER_SLOT = 16;
+
+  private final RequestDispatcher dispatcher;
+  private final int concurrency;
+  private final int readAheadLimit;
+  private final SessionRouter router;
+  private final Map<String, SessionLoop> sessions;
+  private final Map<UserAgentRequest, SessionLoop> inFlight;
+  private final Queue<SessionLoop> ready;
+  private final Histogram latency;
+  private final long startedNanos;
+
+  private int waiting;
+  private long completed;
+  private long failed;
+  private long peakThroughput;
+  private long lastReportNanos;
+  private long lastReportCompleted;
+
+  private Logger log = LoggerFactory.getLogger(ClosedLoopScheduler.class);
+
+  /**
+   * @param dispatcher  the dispatcher requests are sent with
+   * @param concurrency the maximum number of requests in flight
+   */
+  ClosedLoopScheduler(RequestDispatcher dispatcher, int concurrency) {
+    this.dispatcher = checkNotNull(dispatcher);
+    checkArgument(concurrency > 0, "The concurrency must be at least one");
+    this.concurrency = concurrency;
+    readAheadLimit = concurrency * READ_AHEAD_PER_SLOT;
+    router = new SessionRouter();
+    sessions = Maps.newHashMap();
+    inFlight = Maps.newIdentityHashMap();
+    ready = Queues.newArrayDeque();
+    latency = new Histogram();
+    startedNanos = System.nanoTime();
+    lastReportNanos = startedNanos;
+  }
+
+  /**
+   * Offer the next request of the capture, blocking while the read-ahead limit is reached and every slot is busy.
+   */
+  void offer(UserAgentRequest request) throws InterruptedException {
+    checkNotNull(request);
+    Optional<String> session = router.getSession(request);
+    List<UserAgentRequest> dispatch;
+    synchronized (this) {
+      while (waiting >= readAheadLimit && inFlight.size() >= concurrency) {
+        wait();
+      }
+      SessionLoop loop = session.isPresent() ? sessions.get(session.get()) : null;
+      if (null == loop) {
+        loop = new SessionLoop(session);
+        if (session.isPresent()) {
+          sessions.put(session.get(), loop);
+        }
+      }
+      loop.requests.add(request);
+      waiting++;
+      if (!loop.inFlight && 1 == loop.requests.size()) {
+        ready.add(loop);
+      }
+      dispatch = takeReady();
+    }
+    dispatch(dispatch);
+  }
+
+  /**
+   * Complete a request, sending the next request of its session. Requests that were not sent by this scheduler, or
+   * that have already completed, are ignored.
+   *
+   * @param timing the timing of the request, or absent if it failed without a response
+   */
+  void complete(UserAgentRequest request, Optional<RequestTiming> timing) {
+    checkNotNull(request);
+    checkNotNull(timing);
+    List<UserAgentRequest> dispatch;
+    synchronized (this) {
+      SessionLoop loop = inFlight.remove(request);
+      if (null == loop) {
+        return;
+      }
+      completed++;
+      if (timing.isPresent()) {
+        latency.record(timing.get().getLatency(TimeUnit.MICROSECONDS));
+      } else {
+        failed++;
+      }
+      loop.inFlight = false;
+      if (!loop.requests.isEmpty()) {
+        ready.add(loop);
+      } else if (loop.session.isPresent()) {
+        sessions.remove(loop.session.get());
+      }
+      dispatch = takeReady();
+      notifyAll();
+    }
+    dispatch(dispatch);
+  }
+
+  /**
+   * Wait until every offered request has completed, reporting throughput and latency as the run progresses.
+   */
+  synchronized void awaitCompletion(long reportInterval, TimeUnit unit) throws InterruptedException {
+    long intervalMillis = unit.toMillis(reportInterval);
+    long deadline = System.currentTimeMillis() + intervalMillis;
+    while (0 < waiting || !inFlight.isEmpty()) {
+      long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0) {
+        report();
+        deadline = System.currentTimeMillis() + intervalMillis;
+      } else {
+        wait(remaining);
+      }
+    }
+  }
+
+  /**
+   * Release the requests waiting to be sent, for a forced shutdown. Requests in flight are no longer waited for, as the
+   * dispatcher may have cancelled them without completing them.
+   */
+  void clear() {
+    List<UserAgentRequest> released = Lists.newArrayList();
+    synchronized (this) {
+      for (SessionLoop loop : ready) {
+        released.addAll(loop.requests);
+        loop.requests.clear();
+      }
+      for (SessionLoop loop : inFlight.values()) {
+        released.addAll(loop.requests);
+        loop.requests.clear();
+      }
+      ready.clear();
+      inFlight.clear();
+      sessions.clear();
+      waiting = 0;
+      notifyAll();
+    }
+    for (UserAgentRequest request : released) {
+      request.releasePrelude();
+    }
+  }
+
+  /**
+   * Log the throughput and latency since the last report.
+   */
+  synchronized void report() {
+    long now = System.nanoTime();
+    long throughput = getIntervalThroughput(now);
+    log.info("Completed {} requests, {} requests/s. Latency p50 {}ms, p99 {}ms, max {}ms. {} requests in flight, {} waiting",
+        completed, throughput, toMillis(latency.getValueAtPercentile(50)), toMillis(latency.getValueAtPercentile(99)),
+        toMillis(latency.getMax()), inFlight.size(), waiting);
+    lastReportNanos = now;
+    lastReportCompleted = completed;
+  }
+
+  /**
+   * Log the throughput and latency at saturation, once every request has completed.
+   */
+  synchronized void reportSummary() {
+    getIntervalThroughput(System.nanoTime());
+    double runSeconds = Math.max(1, System.nanoTime() - startedNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+    log.info("Saturation summary at concurrency {}: {} requests ({} failed without a response), {} requests/s mean, {} requests/s peak. " +
+        "Latency mean {}ms, p50 {}ms, p90 {}ms, p99 {}ms, p99.9 {}ms, max {}ms",
+        concurrency, completed, failed, String.format("%.1f", completed / runSeconds), peakThroughput,
+        String.format("%.1f", latency.getMean() / 1000), toMillis(latency.getValueAtPercentile(50)),
+        toMillis(latency.getValueAtPercentile(90)), toMillis(latency.getValueAtPercentile(99)),
+        toMillis(latency.getValueAtPercentile(99.9)), toMillis(latency.getMax()));
+  }
+
+  /**
+   * Get the throughput since the last report, updating the peak throughput.
+   */
+  private long getIntervalThroughput(long now) {
+    double intervalSeconds = Math.max(1, now - lastReportNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+    long throughput = Math.round((completed - lastReportCompleted) / intervalSeconds);
+    peakThroughput = Math.max(peakThroughput, throughput);
+    return throughput;
+  }
+
+  /**
+   * Take the next request of each ready session, while there are free slots.
+   */
+  private List<UserAgentRequest> takeReady() {
+    List<UserAgentRequest> dispatch = Lists.newArrayList();
+    while (inFlight.size() < concurrency && !ready.isEmpty()) {
+      SessionLoop loop = ready.remove();
+      UserAgentRequest request = loop.requests.remove();
+      loop.inFlight = true;
+      inFlight.put(request, loop);
+      waiting--;
+      dispatch.add(request);
+    }
+    return dispatch;
+  }
+
+  private void dispatch(List<UserAgentRequest> requests) {
+    for (UserAgentRequest request : requests) {
+      // Requests are intended to be sent immediately, so latency is measured from when their slot became free
+      long startedDateTime = request.getStartedDateTime();
+      DelayedUserAgentRequest delayedRequest = new DelayedUserAgentRequest(request, startedDateTime, System.nanoTime(),
+          startedDateTime, TimeDilation.NONE, 0);
+      try {
+        dispatcher.queue(delayedRequest);
+      } catch (Exception e) {
+        log.error("Could not dispatch {}", request, e);
+        request.releasePrelude();
+        complete(request, Optional.<RequestTiming>absent());
+      }
+    }
+  }
+
+  private static long toMillis(long micros) {
+    return TimeUnit.MICROSECONDS.toMillis(micros);
+  }
+
+  /**
+   * The requests of a session waiting to be sent, and whether a request of the session is in flight.
+   */
+  private static final class SessionLoop {
+    private final Optional<String> session;
+    private final Queue<UserAgentRequest> requests;
+    private boolean inFlight;
+
+    private SessionLoop(Optional<String> session) {
+      this.session = session;
+      requests = Queues.newArrayDeque();
+    }
+  }
+}
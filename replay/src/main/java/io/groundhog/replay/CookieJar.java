@@ -0,0 +1,127 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import io.netty.handler.codec.http.ClientCookieEncoder;
+import io.netty.handler.codec.http.Cookie;
+
+import java.util.Iterator;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The cookies of a user agent, indexed by path. A request is sent the cookies of every path that prefixes its URI,
+ * cookies with longer paths first, and cookies without a path last.
+ * <p/>
+ * The paths that prefix a URI are exactly the paths that prefix the longest of them, so the cookies sent with a
+ * request depend only on the longest matching path. The encoded {@code Cookie} header is cached for each path until
+ * cookies are next set, so requests are sent a precomputed header without allocating.
+ * <p/>
+ * Jars aren't thread safe, and are confined to the event loop of their user agent.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+final class CookieJar {
+  /**
+   * Cookies grouped by path, longest path first. Cookies without a path share the empty path, which prefixes every URI.
+   */
+  private final List<PathCookies> paths;
+
+  CookieJar() {
+    paths = Lists.newArrayList();
+  }
+
+  /**
+   * Set a cookie, replacing any cookie with the same name, path and domain.
+   */
+  void set(Cookie cookie) {
+    checkNotNull(cookie);
+    String path = Strings.nullToEmpty(cookie.getPath());
+    PathCookies pathCookies = null;
+    int insertAt = paths.size();
+    for (int i = 0; i < paths.size(); i++) {
+      PathCookies candidate = paths.get(i);
+      if (candidate.path.equals(path)) {
+        pathCookies = candidate;
+        break;
+      }
+      if (candidate.path.length() < path.length()) {
+        insertAt = Math.min(insertAt, i);
+      }
+    }
+    if (null == pathCookies) {
+      pathCookies = new PathCookies(path);
+      paths.add(insertAt, pathCookies);
+    }
+    for (Iterator<Cookie> iterator = pathCookies.cookies.iterator(); iterator.hasNext(); ) {
+      if (iterator.next().equals(cookie)) {
+        iterator.remove();
+      }
+    }
+    pathCookies.cookies.add(cookie);
+    // Every header that includes the path's cookies is stale
+    for (PathCookies candidate : paths) {
+      candidate.header = null;
+    }
+  }
+
+  /**
+   * Get the cookies sent with a request.
+   */
+  List<Cookie> getCookies(String uri) {
+    checkNotNull(uri);
+    ImmutableList.Builder<Cookie> builder = ImmutableList.builder();
+    for (PathCookies pathCookies : paths) {
+      if (uri.startsWith(pathCookies.path)) {
+        builder.addAll(pathCookies.cookies);
+      }
+    }
+    return builder.build();
+  }
+
+  /**
+   * Get the encoded {@code Cookie} header sent with a request, or an empty string if no cookies are sent.
+   */
+  String getHeader(String uri) {
+    checkNotNull(uri);
+    for (PathCookies pathCookies : paths) {
+      if (uri.startsWith(pathCookies.path)) {
+        if (null == pathCookies.header) {
+          pathCookies.header = ClientCookieEncoder.encode(getCookies(pathCookies.path));
+        }
+        return pathCookies.header;
+      }
+    }
+    return "";
+  }
+
+  private static final class PathCookies {
+    private final String path;
+    private final List<Cookie> cookies;
+    private String header;
+
+    private PathCookies(String path) {
+      this.path = path;
+      cookies = Lists.newArrayList();
+    }
+  }
+}
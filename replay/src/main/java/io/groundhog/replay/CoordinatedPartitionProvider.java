@@ -0,0 +1,63 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay;
+
+import com.google.common.base.Throwables;
+import com.google.common.net.HostAndPort;
+import com.google.inject.Provider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Provides the {@link ReplayPartition} assigned to this worker by a {@link ReplayCoordinator}, blocking until every
+ * worker has connected to the coordinator.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+public final class CoordinatedPartitionProvider implements Provider<ReplayPartition> {
+  private final HostAndPort coordinator;
+
+  private Logger log = LoggerFactory.getLogger(CoordinatedPartitionProvider.class);
+
+  public CoordinatedPartitionProvider(HostAndPort coordinator) {
+    this.coordinator = checkNotNull(coordinator);
+  }
+
+  @Override
+  public ReplayPartition get() {
+    log.info("Waiting for partition assignment from coordinator {}", coordinator);
+    try (Socket socket = new Socket(coordinator.getHostText(), coordinator.getPortOrDefault(ReplayCoordinator.DEFAULT_PORT))) {
+      DataInputStream in = new DataInputStream(socket.getInputStream());
+      int partition = in.readInt();
+      int partitions = in.readInt();
+      long startDelayMillis = in.readLong();
+      ReplayPartition replayPartition = ReplayPartition.of(partition, partitions, startDelayMillis, TimeUnit.MILLISECONDS);
+      log.info("Assigned {}, starting in {}ms", replayPartition, startDelayMillis);
+      return replayPartition;
+    } catch (IOException e) {
+      throw Throwables.propagate(e);
+    }
+  }
+}
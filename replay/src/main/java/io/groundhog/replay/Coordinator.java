@@ -0,0 +1,40 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay;
+
+import io.groundhog.base.Services;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coordinates distributed replay. Usage: {@code Coordinator <workers> [port]}.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+public final class Coordinator {
+  private static final int START_DELAY_SECONDS = 10;
+
+  public static void main(String[] args) throws Exception {
+    int workers = Integer.parseInt(args[0]);
+    int port = args.length > 1 ? Integer.parseInt(args[1]) : ReplayCoordinator.DEFAULT_PORT;
+    ReplayCoordinator coordinator = new ReplayCoordinator(port, workers, START_DELAY_SECONDS, TimeUnit.SECONDS);
+    Services.addShutdownHook(coordinator);
+    coordinator.startAsync();
+    coordinator.awaitTerminated();
+  }
+}
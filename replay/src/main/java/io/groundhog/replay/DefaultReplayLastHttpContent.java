@@ -23,28 +23,27 @@ import io.netty.handler.codec.DecoderResult;
 import io.netty.handler.codec.http.HttpContent;
 import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.LastHttpContent;
-import org.jsoup.nodes.Document;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
- * A {@link LastHttpContent} that allows a parsed JSoup {@link Document} to be attached.
+ * A {@link LastHttpContent} that allows the {@link ResponsePage} scraped from the response to be attached.
  *
  * @author Danny Thomas
  * @since 1.0
  */
 public final class DefaultReplayLastHttpContent implements ReplayLastHttpContent {
   private final LastHttpContent content;
-  private final Optional<Document> document;
+  private final Optional<ResponsePage> page;
 
-  public DefaultReplayLastHttpContent(LastHttpContent content, Optional<Document> document) {
+  public DefaultReplayLastHttpContent(LastHttpContent content, Optional<ResponsePage> page) {
     this.content = checkNotNull(content);
-    this.document = checkNotNull(document);
+    this.page = checkNotNull(page);
   }
 
   @Override
-  public Optional<Document> getDocument() {
-    return document;
+  public Optional<ResponsePage> getPage() {
+    return page;
   }
 
   @Override
@@ -59,12 +58,12 @@ public final class DefaultReplayLastHttpContent implements ReplayLastHttpContent
 
   @Override
   public LastHttpContent copy() {
-    return new DefaultReplayLastHttpContent(content.copy(), document);
+    return new DefaultReplayLastHttpContent(content.copy(), page);
   }
 
   @Override
   public HttpContent duplicate() {
-    return new DefaultReplayLastHttpContent((LastHttpContent) content.duplicate(), document);
+    return new DefaultReplayLastHttpContent((LastHttpContent) content.duplicate(), page);
   }
 
   @Override
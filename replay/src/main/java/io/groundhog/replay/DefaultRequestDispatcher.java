@@ -17,69 +17,144 @@
 
 package io.groundhog.replay;
 
+import com.google.common.base.Optional;
+import com.google.common.base.Ticker;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.hash.HashCode;
 import com.google.common.net.HostAndPort;
-import com.google.common.util.concurrent.AbstractExecutionThreadService;
-import com.google.common.util.concurrent.Service;
+import com.google.common.util.concurrent.AbstractIdleService;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.EventLoopGroup;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.util.concurrent.EventExecutor;
 import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.DelayQueue;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
 /**
+ * A {@link RequestDispatcher} that shards user agents across lanes, one for each event loop of the group. Each lane
+ * has its own user agents and connection pools, and requests are routed to lanes by session using a
+ * {@link SessionRouter}. Requests are scheduled, connected and handled on their lane's loop, so the state of a user
+ * agent is only touched by a single thread, and dispatch scales with the number of loops.
+ * <p/>
+ * Requests wait for the requests they depend on, as described by {@link SessionDependencies}, without blocking the
+ * loop: they are dispatched once their prerequisites complete. Independent requests are dispatched at their expected
+ * time.
+ * <p/>
+ * Requests sent on persistent connections are written using a {@link UserAgentChannelPool} owned by their user agent.
+ * Otherwise, each request is sent on a new connection. The target is resolved once as the dispatcher starts, and
+ * connections can be opened ahead of the replay with {@link #warmUp(int)}.
+ * <p/>
+ * If the target has several backends, requests are balanced across them by a {@link BackendBalancer}, sessions
+ * sticking to their backend. Each lane connects to every backend.
+ * <p/>
+ * User agents are evicted along with their connection pool once the last request of their session has completed,
+ * and expire once idle for {@value #USER_AGENT_IDLE_MINUTES} minutes of capture time, so only the
+ * sessions being replayed are held.
+ *
  * @author Danny Thomas
  * @since 1.0
  */
-public final class DefaultRequestDispatcher extends AbstractExecutionThreadService implements RequestDispatcher {
+public final class DefaultRequestDispatcher extends AbstractIdleService implements RequestDispatcher {
   private static final int CHANNEL_WAIT_DURATION = 5000;
+  private static final int WARM_UP_CONCURRENCY = 50;
+  private static final int WARM_UP_TIMEOUT_SECONDS = 30;
+  private static final int REPORT_INTERVAL_SECONDS = 30;
+  private static final int USER_AGENT_IDLE_MINUTES = 30;
 
   private final Bootstrap bootstrap;
+  private final EventLoopGroup group;
   private final ChannelGroup channelGroup;
-  private final DelayQueue<DelayedUserAgentRequest> queue;
-  private final HostAndPort hostAndPort;
-  private final LoadingCache<HashCode, UserAgent> userAgentCache;
+  private final Set<DispatchTask> scheduled;
+  private final DispatchMetrics metrics;
+  private final SessionRouter router;
+  private final SessionDependencies dependencies;
+  private final List<HostAndPort> backendHostAndPorts;
+  private final UserAgentFactory userAgentFactory;
   private final UserAgentChannelWriterFactory channelWriterFactory;
 
+  private volatile List<Lane> lanes = ImmutableList.of();
+  private BackendBalancer balancer;
+  private ScheduledFuture<?> reportFuture;
+
   private Logger log = LoggerFactory.getLogger(RequestDispatcher.class);
 
+  /**
+   * Create a dispatcher.
+   *
+   * @param hostAndPort the target
+   * @param backends    the backends of the target to balance requests across, or empty if requests are sent to the
+   *                    target itself
+   */
   @Inject
-  DefaultRequestDispatcher(Bootstrap bootstrap, @Named("target") HostAndPort hostAndPort,
+  DefaultRequestDispatcher(Bootstrap bootstrap, EventLoopGroup group, @Named("target") HostAndPort hostAndPort,
+                           @Named("backends") List<HostAndPort> backends,
                            UserAgentChannelWriterFactory channelWriterFactory,
-                           final UserAgentFactory userAgentFactory) {
+                           UserAgentFactory userAgentFactory, ReplaySslContext sslContext) {
     this.bootstrap = checkNotNull(bootstrap);
-    this.hostAndPort = checkNotNull(hostAndPort);
+    this.group = checkNotNull(group);
+    checkNotNull(hostAndPort);
+    backendHostAndPorts = backends.isEmpty() ? ImmutableList.of(hostAndPort) : ImmutableList.copyOf(backends);
     this.channelWriterFactory = checkNotNull(channelWriterFactory);
 
-    checkNotNull(userAgentFactory);
-    CacheLoader<HashCode, UserAgent> loader = new CacheLoader<HashCode, UserAgent>() {
+    this.userAgentFactory = checkNotNull(userAgentFactory);
+
+    channelGroup = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE) {
       @Override
-      public UserAgent load(HashCode key) throws Exception {
-        return userAgentFactory.create(key);
+      public boolean add(Channel channel) {
+        // Every connection, including those opened by channel pools, is added to the group
+        metrics.recordConnect();
+        return super.add(channel);
       }
     };
-    userAgentCache = CacheBuilder.newBuilder().build(loader);
-
-    channelGroup = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
-    queue = new DelayQueue<>();
+    scheduled = Sets.newConcurrentHashSet();
+    metrics = new DispatchMetrics(scheduled, channelGroup, checkNotNull(sslContext));
+    router = new SessionRouter();
+    dependencies = new SessionDependencies(router, USER_AGENT_IDLE_MINUTES, TimeUnit.MINUTES);
   }
 
   @Override
   public void clearQueue() {
-    queue.clear();
+    for (DispatchTask task : scheduled) {
+      // Only release requests removed here, the task may have started dispatching in the meantime
+      if (scheduled.remove(task)) {
+        task.cancel();
+      }
+    }
+    for (Lane lane : lanes) {
+      for (UserAgentChannelPool channelPool : lane.channelPools.values()) {
+        channelPool.clear();
+      }
+      for (ChannelConnector connector : lane.connectors) {
+        connector.close();
+      }
+    }
     channelGroup.disconnect();
   }
 
@@ -87,46 +162,342 @@ public final class DefaultRequestDispatcher extends AbstractExecutionThreadServi
   public void queue(DelayedUserAgentRequest request) throws InterruptedException {
     checkNotNull(request);
     checkState(isRunning(), "This dispatcher is not running");
-    queue.put(request);
+    List<Lane> currentLanes = lanes;
+    Lane lane = currentLanes.get(router.route(request.getRequest(), request.getCopy(), currentLanes.size()));
+    DispatchTask task = new DispatchTask(lane, request, dependencies.add(request.getRequest(), request.getCopy()));
+    scheduled.add(task);
+    task.schedule();
   }
 
   @Override
-  protected void startUp() throws Exception {
-    log.info("Request dispatcher starting up");
-  }
-
-  @Override
-  protected void run() throws Exception {
-    long startTime = System.nanoTime();
-    log.info("Running request replay, with skew threshold of {}ms", SKEW_THRESHOLD_MILLIS);
-    while (isRunning() || !queue.isEmpty()) {
-      DelayedUserAgentRequest delayedRequest = queue.poll(SKEW_THRESHOLD_MILLIS, TimeUnit.MILLISECONDS);
-      if (null != delayedRequest) {
-        long actualTime = System.nanoTime() - startTime;
-        checkSkew(TimeUnit.NANOSECONDS.toMillis(actualTime), delayedRequest.getExpectedTime());
-        ChannelFuture future = bootstrap.connect(hostAndPort.getHostText(), hostAndPort.getPort());
-        UserAgentRequest request = delayedRequest.getRequest();
-        future.addListener(channelWriterFactory.create(request, userAgentCache));
-        channelGroup.add(future.channel());
+  public void warmUp(int connections) throws InterruptedException {
+    checkArgument(connections >= 0, "The number of connections must not be negative");
+    checkState(isRunning(), "This dispatcher is not running");
+    List<Lane> currentLanes = lanes;
+    // Limit the connections being opened at once, so warming up isn't itself a thundering herd
+    final Semaphore permits = new Semaphore(WARM_UP_CONCURRENCY);
+    final AtomicInteger warmed = new AtomicInteger();
+    ChannelFutureListener listener = new ChannelFutureListener() {
+      @Override
+      public void operationComplete(ChannelFuture future) throws Exception {
+        if (future.isSuccess()) {
+          warmed.incrementAndGet();
+        }
+        permits.release();
       }
+    };
+    long startNanos = System.nanoTime();
+    long deadlineNanos = startNanos + TimeUnit.SECONDS.toNanos(WARM_UP_TIMEOUT_SECONDS);
+    int opened = 0;
+    while (opened < connections && permits.tryAcquire(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+      // Requests are routed evenly across lanes, and can only use connections registered with their lane's loop
+      Lane lane = currentLanes.get(opened % currentLanes.size());
+      lane.connectors.get(opened / currentLanes.size() % lane.connectors.size()).warmUp().addListener(listener);
+      opened++;
     }
+    if (permits.tryAcquire(WARM_UP_CONCURRENCY, Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+      permits.release(WARM_UP_CONCURRENCY);
+    }
+    log.info("Warmed up {} of {} connections in {}ms", warmed.get(), connections,
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
   }
 
-  private void checkSkew(long actualTime, long expectedTime) {
-    long skew = actualTime - expectedTime;
-    if (Math.abs(skew) > SKEW_THRESHOLD_MILLIS) {
-      String message = skew > 0 ? "Dispatcher is behind simulated time by {}ms" : "Dispatcher is ahead of simulated time by {}ms";
-      log.warn(message, skew);
+  @Override
+  protected void startUp() throws Exception {
+    log.info("Request dispatcher starting up, with skew threshold of {}ms", SKEW_THRESHOLD_MILLIS);
+    // Resolve the backends once, rather than for every connection
+    ImmutableList.Builder<Backend> backends = ImmutableList.builder();
+    for (HostAndPort backendHostAndPort : backendHostAndPorts) {
+      Backend backend = Backend.resolve(backendHostAndPort);
+      log.info("Resolved target {} to {}", backendHostAndPort, backend.getAddress().getAddress().getHostAddress());
+      backends.add(backend);
     }
+    balancer = new BackendBalancer(backends.build());
+    ImmutableList.Builder<Lane> builder = ImmutableList.builder();
+    for (EventExecutor loop : group) {
+      builder.add(new Lane(loop, balancer));
+    }
+    lanes = builder.build();
+    log.info("Dispatching requests across {} lanes", lanes.size());
+    reportFuture = GlobalEventExecutor.INSTANCE.scheduleAtFixedRate(new Runnable() {
+      @Override
+      public void run() {
+        metrics.report(getUserAgentCount(), getUserAgentStats());
+      }
+    }, REPORT_INTERVAL_SECONDS, REPORT_INTERVAL_SECONDS, TimeUnit.SECONDS);
   }
 
   @Override
   protected void shutDown() throws Exception {
     log.info("Request dispatcher shutting down");
+    while (!scheduled.isEmpty()) {
+      log.info("Waiting for {} scheduled requests to be dispatched...", scheduled.size());
+      Thread.sleep(CHANNEL_WAIT_DURATION);
+    }
+    int unused = 0;
+    for (Lane lane : lanes) {
+      for (UserAgentChannelPool channelPool : lane.channelPools.values()) {
+        channelPool.close();
+      }
+      for (ChannelConnector connector : lane.connectors) {
+        unused += connector.close().size();
+      }
+    }
+    if (unused > 0) {
+      log.info("Closed {} warm connections that weren't used", unused);
+    }
     while (!channelGroup.isEmpty()) {
-      log.info("Waiting for in flight channels to complete...");
+      log.info("Waiting for {} in flight channels to complete...", channelGroup.size());
       Thread.sleep(CHANNEL_WAIT_DURATION);
     }
-    checkState(queue.isEmpty(), "The request queue should have been drained before shutdown");
+    reportFuture.cancel(false);
+    for (final Lane lane : lanes) {
+      lane.sweepFuture.cancel(false);
+      // The cache is only read on the lane's loop
+      lane.loop.submit(new Runnable() {
+        @Override
+        public void run() {
+          lane.updateUserAgentStats();
+        }
+      }).awaitUninterruptibly();
+    }
+    metrics.reportSummary(getUserAgentCount(), getUserAgentStats());
+    if (balancer.getBackends().size() > 1) {
+      for (Backend backend : balancer.getBackends()) {
+        log.info("Sent {} requests to backend {}", backend.getRequests(), backend.getHostAndPort());
+      }
+    }
+  }
+
+  private long getUserAgentCount() {
+    long count = 0;
+    for (Lane lane : lanes) {
+      count += lane.userAgentCount;
+    }
+    return count;
+  }
+
+  private CacheStats getUserAgentStats() {
+    CacheStats stats = new CacheStats(0, 0, 0, 0, 0, 0);
+    for (Lane lane : lanes) {
+      stats = stats.plus(lane.userAgentStats);
+    }
+    return stats;
+  }
+
+  /**
+   * A shard of the user agents being replayed. Lanes are only accessed from their event loop, other than when the
+   * dispatcher is cleared or shut down. The loop's task queue serves as the mailbox of the lane's user agents: their
+   * requests are dispatched, resumed once their prerequisites complete, and their responses read as tasks of the loop,
+   * so each user agent handles one event at a time, in order.
+   */
+  private final class Lane {
+    private final EventLoopGroup loop;
+    private final BackendBalancer balancer;
+    /**
+     * A connector to each backend, in the order of the balancer's backends.
+     */
+    private final List<ChannelConnector> connectors;
+    private final LoadingCache<HashCode, UserAgent> userAgentCache;
+    private final Map<UserAgent, UserAgentChannelPool> channelPools;
+    private final ScheduledFuture<?> sweepFuture;
+
+    /**
+     * The capture time reached by the lane, which user agents expire relative to, so expiry follows the sessions being
+     * replayed regardless of replay speed. The clock follows the time requests were captured, rather than their expected
+     * time, which includes the offset of their copy, so a later copy doesn't expire the user agents of earlier copies.
+     * Only advanced on the lane's loop, but read by the cache's ticker wherever the cache is accessed.
+     */
+    private volatile long captureNanos;
+
+    /**
+     * The size and statistics of the user agent cache as of the last sweep, as the cache is only read on the lane's loop.
+     */
+    private volatile long userAgentCount;
+    private volatile CacheStats userAgentStats = new CacheStats(0, 0, 0, 0, 0, 0);
+
+    private Lane(final EventExecutor loop, BackendBalancer balancer) {
+      this.loop = (EventLoopGroup) loop;
+      this.balancer = balancer;
+      ImmutableList.Builder<ChannelConnector> builder = ImmutableList.builder();
+      for (Backend backend : balancer.getBackends()) {
+        builder.add(new ChannelConnector(bootstrap.clone().group(this.loop), backend, channelGroup));
+      }
+      connectors = builder.build();
+      userAgentCache = CacheBuilder.newBuilder().concurrencyLevel(1)
+          .expireAfterAccess(USER_AGENT_IDLE_MINUTES, TimeUnit.MINUTES)
+          .ticker(new Ticker() {
+            @Override
+            public long read() {
+              return captureNanos;
+            }
+          })
+          .recordStats()
+          .build(new CacheLoader<HashCode, UserAgent>() {
+            @Override
+            public UserAgent load(HashCode key) throws Exception {
+              return userAgentFactory.create(key, loop);
+            }
+          });
+      // Pools are created on the loop, but closed from the thread shutting down the dispatcher
+      channelPools = Maps.newConcurrentMap();
+      sweepFuture = loop.scheduleAtFixedRate(new Runnable() {
+        @Override
+        public void run() {
+          sweep();
+        }
+      }, REPORT_INTERVAL_SECONDS, REPORT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private void advance(long startedDateTime) {
+      captureNanos = Math.max(captureNanos, TimeUnit.MILLISECONDS.toNanos(startedDateTime));
+    }
+
+    private ChannelConnector getConnector(UserAgent userAgent, int copy) {
+      return connectors.get(balancer.select(userAgent, copy));
+    }
+
+    /**
+     * Get the connection pool of a user agent, which connects to the backend its session sticks to.
+     */
+    private UserAgentChannelPool getChannelPool(UserAgent userAgent, int copy) {
+      UserAgentChannelPool channelPool = channelPools.get(userAgent);
+      if (null == channelPool) {
+        ChannelConnector connector = getConnector(userAgent, copy);
+        log.debug("Created connection pool for {} to {}", userAgent, connector.getBackend().getHostAndPort());
+        channelPool = new UserAgentChannelPool(connector, UserAgentChannelPool.DEFAULT_MAX_CONNECTIONS);
+        channelPools.put(userAgent, channelPool);
+      }
+      return channelPool;
+    }
+
+    /**
+     * Evict a user agent and retire its connection pool, once the last request of its session has completed.
+     */
+    private void endSession(UserAgentChannelWriter writer, UserAgent userAgent) {
+      writer.evictUserAgent();
+      retireChannelPool(userAgent);
+      metrics.recordSessionEnd();
+    }
+
+    /**
+     * Retire the connection pools of user agents that have expired, or were no longer cached when their pool was
+     * created.
+     */
+    private void sweep() {
+      userAgentCache.cleanUp();
+      Set<UserAgent> cached = Sets.newIdentityHashSet();
+      cached.addAll(userAgentCache.asMap().values());
+      for (UserAgent userAgent : channelPools.keySet()) {
+        if (!cached.contains(userAgent)) {
+          retireChannelPool(userAgent);
+        }
+      }
+      updateUserAgentStats();
+    }
+
+    private void updateUserAgentStats() {
+      userAgentCount = userAgentCache.size();
+      userAgentStats = userAgentCache.stats();
+    }
+
+    private void retireChannelPool(UserAgent userAgent) {
+      UserAgentChannelPool channelPool = channelPools.remove(userAgent);
+      if (null != channelPool) {
+        log.debug("Retired connection pool for {}", userAgent);
+        channelPool.retire();
+      }
+    }
+  }
+
+  /**
+   * Connects and writes a request when its expected time is reached, and its prerequisites have completed. Whichever
+   * of the task or {@link #clearQueue()} removes the task from the scheduled set owns the request.
+   */
+  private final class DispatchTask implements Runnable {
+    private final Lane lane;
+    private final DelayedUserAgentRequest delayedRequest;
+    private final SessionDependencies.Dependency dependency;
+    private final ListenableFuture<?> prerequisites;
+    private volatile ScheduledFuture<?> future;
+    private boolean due;
+
+    private DispatchTask(Lane lane, DelayedUserAgentRequest delayedRequest, SessionDependencies.Dependency dependency) {
+      this.lane = lane;
+      this.delayedRequest = delayedRequest;
+      this.dependency = dependency;
+      prerequisites = dependency.getPrerequisites();
+    }
+
+    void schedule() {
+      // Requests that are already late are dispatched immediately, and reported as skew when they run
+      long delay = Math.max(0, delayedRequest.getDelay(TimeUnit.NANOSECONDS));
+      future = lane.loop.schedule(this, delay, TimeUnit.NANOSECONDS);
+    }
+
+    void cancel() {
+      ScheduledFuture<?> scheduledFuture = future;
+      if (null != scheduledFuture) {
+        scheduledFuture.cancel(false);
+      }
+      delayedRequest.getRequest().releasePrelude();
+      completeDependents();
+    }
+
+    private void completeDependents() {
+      Optional<SettableFuture<Void>> completion = dependency.getCompletion();
+      if (completion.isPresent()) {
+        completion.get().set(null);
+      }
+    }
+
+    @Override
+    public void run() {
+      if (!due) {
+        due = true;
+        lane.advance(delayedRequest.getRequest().getStartedDateTime());
+        // Time spent waiting for prerequisites is modelled behaviour, not dispatcher lag, so isn't skew
+        metrics.recordSkew(-delayedRequest.getDelay(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+      }
+      if (!prerequisites.isDone()) {
+        // Run again on the lane's loop once the prerequisites complete
+        prerequisites.addListener(this, lane.loop);
+        return;
+      }
+      if (!scheduled.remove(this)) {
+        return;
+      }
+      UserAgentRequest request = delayedRequest.getRequest();
+      UserAgentChannelWriter writer = channelWriterFactory.create(delayedRequest, lane.userAgentCache, dependency.getCompletion());
+      // Resolve the user agent in dispatch order, before the last request of the session evicts it
+      UserAgent userAgent = writer.getUserAgent();
+      // Requests without a session aren't attributable to a browser, so can't share its connections
+      if (request.isKeepAlive() && userAgent.isPersistent()) {
+        lane.getChannelPool(userAgent, delayedRequest.getCopy()).acquire(writer);
+      } else {
+        lane.getConnector(userAgent, delayedRequest.getCopy()).connect().addListener(writer);
+      }
+      if (request.isSessionEnd() && userAgent.isPersistent()) {
+        endSessionOnCompletion(writer, userAgent);
+      }
+    }
+
+    /**
+     * End the session once the request completes, rather than once it is dispatched, so requests of the session that
+     * were resumed on the loop just before it still find their user agent.
+     */
+    private void endSessionOnCompletion(final UserAgentChannelWriter writer, final UserAgent userAgent) {
+      Optional<SettableFuture<Void>> completion = dependency.getCompletion();
+      if (completion.isPresent()) {
+        completion.get().addListener(new Runnable() {
+          @Override
+          public void run() {
+            lane.endSession(writer, userAgent);
+          }
+        }, lane.loop);
+      } else {
+        lane.endSession(writer, userAgent);
+      }
+    }
   }
 }
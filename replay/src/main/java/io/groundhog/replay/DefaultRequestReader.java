@@ -28,6 +28,8 @@ import com.google.common.collect.Sets;
 import com.google.common.io.Files;
 import com.google.inject.Inject;
 import io.groundhog.har.HttpArchive;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.handler.codec.http.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -59,13 +61,30 @@ public class DefaultRequestReader implements RequestReader {
   private final File uploadLocation;
   private final JsonParser parser;
   private final SimpleDateFormat iso8601Format;
+  private final RequestPreludeEncoder preludeEncoder;
+  private final boolean keepAlive;
+  private final Optional<SessionEndIndex> sessionEnds;
 
   private boolean lightweight;
+  private int position;
   private State state = State.START;
 
   @Inject
   DefaultRequestReader(File recordingFile, File uploadLocation) throws IOException {
+    this(recordingFile, uploadLocation, false);
+  }
+
+  DefaultRequestReader(File recordingFile, File uploadLocation, boolean keepAlive) throws IOException {
+    this(recordingFile, uploadLocation, keepAlive, Optional.<SessionEndIndex>absent());
+  }
+
+  /**
+   * @param sessionEnds an index of the capture, used to mark the last request of each session, if present
+   */
+  DefaultRequestReader(File recordingFile, File uploadLocation, boolean keepAlive, Optional<SessionEndIndex> sessionEnds) throws IOException {
     this.uploadLocation = checkNotNull(uploadLocation);
+    this.keepAlive = keepAlive;
+    this.sessionEnds = checkNotNull(sessionEnds);
 
     JsonFactory jsonFactory = new JsonFactory();
     String filename = recordingFile.getName();
@@ -80,6 +99,7 @@ public class DefaultRequestReader implements RequestReader {
     TimeZone tz = TimeZone.getTimeZone("UTC");
     iso8601Format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
     iso8601Format.setTimeZone(tz);
+    preludeEncoder = new RequestPreludeEncoder(PooledByteBufAllocator.DEFAULT, keepAlive);
   }
 
   @Override
@@ -219,19 +239,26 @@ public class DefaultRequestReader implements RequestReader {
         }
       }
     }
+    boolean sessionEnd = sessionEnds.isPresent() && sessionEnds.get().isSessionEnd(position);
+    position++;
     JsonToken jsonToken = parser.nextToken();
     if (JsonToken.START_OBJECT == jsonToken) {
       //noinspection ConstantConditions
-      return new UserAgentRequest(userAgentRequest, expectedResponse);
+      return new UserAgentRequest(userAgentRequest, expectedResponse, encodePrelude(userAgentRequest), keepAlive, sessionEnd);
     } else if (JsonToken.END_ARRAY == jsonToken) {
       state = State.END;
       //noinspection ConstantConditions
-      return new LastUserAgentRequest(userAgentRequest, expectedResponse);
+      return new LastUserAgentRequest(userAgentRequest, expectedResponse, encodePrelude(userAgentRequest), keepAlive, sessionEnd);
     } else {
       throw new IOException(String.format("Unexpected token '%s'. Location '%s'", jsonToken, parser.getCurrentLocation()));
     }
   }
 
+  private ByteBuf encodePrelude(UserAgentRequest request) {
+    checkState(null != request, "An entry must have a request");
+    return preludeEncoder.encode(request, request.getPostData().isPresent());
+  }
+
   private UserAgentRequest parseRequest(long startedDateTime, boolean lightweight) throws IOException {
     checkObjectStart(parser.nextToken());
 
@@ -531,9 +558,7 @@ public class DefaultRequestReader implements RequestReader {
       }
     }
 
-    HttpResponse response = new DefaultHttpResponse(httpVersion, status);
-    response.headers().set(headers);
-    return response;
+    return new CapturedResponse(httpVersion, status, headers);
   }
 
   private void parseCache() throws IOException {
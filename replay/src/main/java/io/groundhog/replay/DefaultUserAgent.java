@@ -4,48 +4,46 @@ import io.groundhog.har.HttpArchive;
 
 import com.google.common.base.Objects;
 import com.google.common.base.Optional;
-import com.google.common.base.Predicate;
-import com.google.common.base.Throwables;
-import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
 import com.google.common.hash.HashCode;
-import com.google.common.util.concurrent.UncheckedTimeoutException;
 import com.google.inject.assistedinject.Assisted;
 import io.netty.handler.codec.http.Cookie;
+import io.netty.util.concurrent.EventExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.annotation.Nullable;
 import javax.inject.Inject;
 import java.util.*;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Objects.ToStringHelper;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 
 /**
+ * A persistent {@link UserAgent}, pinned to the event loop of the dispatcher lane that owns it. Every request of the
+ * user agent is scheduled, connected, written and read on that loop, which orders updates to its cookies and post
+ * parameter overrides without locking. The user agent must only be accessed from its loop.
+ *
  * @author Danny Thomas
  * @since 1.0
  */
 public final class DefaultUserAgent implements UserAgent {
-  private final Set<Cookie> cookies;
+  private final CookieJar cookies;
   private final Map<String, HttpArchive.Param> postParamOverrides;
-  private final Semaphore block;
 
   private final HashCode key;
+  private final EventExecutor loop;
 
   private Logger log = LoggerFactory.getLogger(DefaultUserAgent.class);
 
   @Inject
-  DefaultUserAgent(@Assisted HashCode key) {
+  DefaultUserAgent(@Assisted HashCode key, @Assisted EventExecutor loop) {
     this.key = checkNotNull(key);
-    cookies = Sets.newLinkedHashSet();
+    this.loop = checkNotNull(loop);
+    cookies = new CookieJar();
     postParamOverrides = Maps.newHashMap();
-    block = new Semaphore(1, true);
   }
 
   @Override
@@ -61,81 +59,46 @@ public final class DefaultUserAgent implements UserAgent {
     return helper.toString();
   }
 
-  @Override
-  public void tryBlock(long timeout) {
-    try {
-      if (!block.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
-        block.release();
-        int queueLength = block.getQueueLength();
-        throw new UncheckedTimeoutException("Timeout during block acquire for " + key + ", queue length " + queueLength);
-      }
-    } catch (InterruptedException e) {
-      throw Throwables.propagate(e);
-    }
-  }
-
-  @Override
-  public void releaseBlock() {
-    block.release();
-  }
-
   @Override
   public void setCookies(Collection<Cookie> cookies) {
     checkNotNull(cookies);
-    synchronized (this.cookies) {
-      for (Cookie cookie : cookies) {
-        log.trace("Setting cookie {} for {}", cookie, key);
-        this.cookies.remove(cookie);
-        this.cookies.add(cookie);
-      }
+    checkInLoop();
+    for (Cookie cookie : cookies) {
+      log.trace("Setting cookie {} for {}", cookie, key);
+      this.cookies.set(cookie);
     }
   }
 
   @Override
   public Set<Cookie> getCookiesForUri(String uri) {
     checkNotNull(uri);
-    synchronized (cookies) {
-      CookiePathPredicate predicate = new CookiePathPredicate(uri);
-      // Temporary list because FluentIterable.toSortedSet considers compare == 0 to be duplicates
-      List<Cookie> sortedCookies = FluentIterable.from(cookies).filter(predicate).toSortedList(COOKIE_PATH_COMPARATOR);
-      return ImmutableSet.copyOf(sortedCookies);
-    }
+    checkInLoop();
+    return ImmutableSet.copyOf(cookies.getCookies(uri));
   }
 
-  /**
-   * Sort cookies in descending order by path length.
-   */
-  private static final Comparator<Cookie> COOKIE_PATH_COMPARATOR = new Comparator<Cookie>() {
-    @Override
-    public int compare(Cookie o1, Cookie o2) {
-      int path1len = o1.getPath() == null ? 0 : o1.getPath().length();
-      int path2len = o2.getPath() == null ? 0 : o2.getPath().length();
-      return Integer.compare(path2len, path1len);
-    }
-  };
+  @Override
+  public String getCookieHeader(String uri) {
+    checkNotNull(uri);
+    checkInLoop();
+    return cookies.getHeader(uri);
+  }
 
   @Override
   public void setOverridePostValues(Collection<HttpArchive.Param> params) {
     checkNotNull(params);
     checkArgument(!params.isEmpty(), "Parameter list may not be empty");
-    synchronized (postParamOverrides) {
-      log.debug("Setting override post values for {}: {}", key, params);
-      for (HttpArchive.Param param : params) {
-        postParamOverrides.put(param.getName(), param);
-      }
+    checkInLoop();
+    log.debug("Setting override post values for {}: {}", key, params);
+    for (HttpArchive.Param param : params) {
+      postParamOverrides.put(param.getName(), param);
     }
   }
 
   @Override
   public Optional<HttpArchive.Param> getOverrideParam(String name) {
     checkNotNull(name);
-    synchronized (postParamOverrides) {
-      Optional<HttpArchive.Param> param = Optional.fromNullable(postParamOverrides.get(name));
-      if (param.isPresent()) {
-        postParamOverrides.remove(name);
-      }
-      return param;
-    }
+    checkInLoop();
+    return Optional.fromNullable(postParamOverrides.remove(name));
   }
 
   @Override
@@ -143,17 +106,7 @@ public final class DefaultUserAgent implements UserAgent {
     return true;
   }
 
-  private static class CookiePathPredicate implements Predicate<Cookie> {
-    private final String uri;
-
-    public CookiePathPredicate(String uri) {
-      this.uri = checkNotNull(uri);
-    }
-
-    @Override
-    public boolean apply(@Nullable Cookie cookie) {
-      String path = cookie != null ? cookie.getPath() : null;
-      return path == null || path.isEmpty() || uri.startsWith(path);
-    }
+  private void checkInLoop() {
+    checkState(loop.inEventLoop(), "User agent %s accessed outside of its event loop", key);
   }
 }
@@ -18,28 +18,37 @@
 package io.groundhog.replay;
 
 import com.google.common.base.Objects;
-import com.google.common.primitives.Longs;
 
-import java.util.concurrent.Delayed;
 import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
+ * A {@link UserAgentRequest}, and the time it is expected to be dispatched relative to the start of replay. The offset
+ * of the request in the capture is mapped to replay time by a {@link TimeDilation}.
+ * <p/>
+ * When a capture is replayed several times over, the copy identifies which replay of the capture the request is part
+ * of, so each copy has its own user agents.
+ *
  * @author Danny Thomas
  * @since 1.0
  */
-public final class DelayedUserAgentRequest implements Delayed {
+public final class DelayedUserAgentRequest {
   private final UserAgentRequest request;
   private final long startedDateTime;
   private final long timeReplayStartedNanos;
   private final long firstRequestTime;
+  private final TimeDilation timeDilation;
+  private final int copy;
 
-  public DelayedUserAgentRequest(UserAgentRequest request, long startedDateTime, long timeReplayStartedNanos, long firstRequestTime) {
+  public DelayedUserAgentRequest(UserAgentRequest request, long startedDateTime, long timeReplayStartedNanos, long firstRequestTime,
+                                 TimeDilation timeDilation, int copy) {
     this.request = checkNotNull(request);
     this.startedDateTime = startedDateTime;
     this.timeReplayStartedNanos = timeReplayStartedNanos;
     this.firstRequestTime = firstRequestTime;
+    this.timeDilation = checkNotNull(timeDilation);
+    this.copy = copy;
   }
 
   @Override
@@ -48,22 +57,24 @@ public final class DelayedUserAgentRequest implements Delayed {
     helper.add("startedDateTime", startedDateTime);
     helper.add("timeReplayStartedNanos", timeReplayStartedNanos);
     helper.add("firstRequestTime", firstRequestTime);
+    helper.add("copy", copy);
     helper.add("delay", getDelay(TimeUnit.MILLISECONDS));
     helper.add("request", request);
     return helper.toString();
   }
 
-  @Override
+  /**
+   * Get the remaining delay until the expected time of this request.
+   */
   public long getDelay(TimeUnit unit) {
-    long offset = getExpectedTime();
-    long duration = System.nanoTime() - timeReplayStartedNanos;
-    long delay = TimeUnit.MILLISECONDS.toNanos(offset) - duration;
-    return unit.convert(delay, TimeUnit.NANOSECONDS);
+    return unit.convert(getIntendedStartNanos() - System.nanoTime(), TimeUnit.NANOSECONDS);
   }
 
-  @Override
-  public int compareTo(Delayed o) {
-    return Longs.compare(getDelay(TimeUnit.NANOSECONDS), o.getDelay(TimeUnit.NANOSECONDS));
+  /**
+   * Get the {@link System#nanoTime()} this request is intended to be sent, which latency is measured from.
+   */
+  public long getIntendedStartNanos() {
+    return timeReplayStartedNanos + timeDilation.getReplayOffsetNanos(getExpectedTime(), TimeUnit.MILLISECONDS);
   }
 
   public long getExpectedTime() {
@@ -73,4 +84,8 @@ public final class DelayedUserAgentRequest implements Delayed {
   public UserAgentRequest getRequest() {
     return request;
   }
+
+  public int getCopy() {
+    return copy;
+  }
 }
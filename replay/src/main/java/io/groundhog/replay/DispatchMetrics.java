@@ -0,0 +1,159 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay;
+
+import com.google.common.cache.CacheStats;
+import io.netty.channel.group.ChannelGroup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Metrics describing how well a {@link RequestDispatcher} is keeping up with the capture: the skew of each request
+ * from its expected time, the number of requests scheduled and connections in flight, and the rate connections are
+ * opened, along with the user agents held by the dispatcher and the TLS handshakes of its connections.
+ * <p/>
+ * A run where the dispatcher lags the capture is measuring the load generator, not the target, so the lag is reported
+ * along with the results.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+final class DispatchMetrics {
+  private final Collection<?> scheduled;
+  private final ChannelGroup channelGroup;
+  private final ReplaySslContext sslContext;
+  private final Histogram skew;
+  private final AtomicLong connects;
+  private final AtomicLong sessionEnds;
+  private final long startedNanos;
+
+  private long lastReportNanos;
+  private long lastReportConnects;
+  private long lastReportHandshakes;
+
+  private Logger log = LoggerFactory.getLogger(RequestDispatcher.class);
+
+  DispatchMetrics(Collection<?> scheduled, ChannelGroup channelGroup, ReplaySslContext sslContext) {
+    this.scheduled = checkNotNull(scheduled);
+    this.channelGroup = checkNotNull(channelGroup);
+    this.sslContext = checkNotNull(sslContext);
+    skew = new Histogram();
+    connects = new AtomicLong();
+    sessionEnds = new AtomicLong();
+    startedNanos = System.nanoTime();
+    lastReportNanos = startedNanos;
+  }
+
+  /**
+   * Record the time a request was dispatched after its expected time.
+   */
+  void recordSkew(long skew, TimeUnit unit) {
+    this.skew.record(unit.toMicros(skew));
+  }
+
+  void recordConnect() {
+    connects.incrementAndGet();
+  }
+
+  /**
+   * Record a user agent evicted once the last request of its session completed.
+   */
+  void recordSessionEnd() {
+    sessionEnds.incrementAndGet();
+  }
+
+  /**
+   * Log the metrics since the dispatcher started, and the connect rate since the last report.
+   *
+   * @param userAgents     the number of user agents currently cached
+   * @param userAgentStats the statistics of the user agent caches
+   */
+  synchronized void report(long userAgents, CacheStats userAgentStats) {
+    long now = System.nanoTime();
+    long currentConnects = connects.get();
+    double intervalSeconds = Math.max(1, now - lastReportNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+    log.info("Dispatched {} requests. Skew p50 {}ms, p99 {}ms, max {}ms. {} requests scheduled, {} channels in flight, {} connects/s",
+        skew.getCount(), toMillis(skew.getValueAtPercentile(50)), toMillis(skew.getValueAtPercentile(99)), toMillis(skew.getMax()),
+        scheduled.size(), channelGroup.size(), String.format("%.1f", (currentConnects - lastReportConnects) / intervalSeconds));
+    long currentHandshakes = sslContext.getFullHandshakes();
+    reportHandshakes(String.format("%.1f", (currentHandshakes - lastReportHandshakes) / intervalSeconds));
+    lastReportNanos = now;
+    lastReportConnects = currentConnects;
+    lastReportHandshakes = currentHandshakes;
+    reportUserAgents(userAgents, userAgentStats);
+    warnIfLagging();
+  }
+
+  /**
+   * Log a summary of the run, once the dispatcher has stopped.
+   *
+   * @param userAgents     the number of user agents still cached
+   * @param userAgentStats the statistics of the user agent caches
+   */
+  synchronized void reportSummary(long userAgents, CacheStats userAgentStats) {
+    double runSeconds = Math.max(1, System.nanoTime() - startedNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+    log.info("Dispatch summary: {} requests, skew mean {}ms, p50 {}ms, p90 {}ms, p99 {}ms, p99.9 {}ms, max {}ms. {} connects, {} connects/s",
+        skew.getCount(), String.format("%.1f", skew.getMean() / 1000), toMillis(skew.getValueAtPercentile(50)),
+        toMillis(skew.getValueAtPercentile(90)), toMillis(skew.getValueAtPercentile(99)), toMillis(skew.getValueAtPercentile(99.9)),
+        toMillis(skew.getMax()), connects.get(), String.format("%.1f", connects.get() / runSeconds));
+    reportHandshakes(String.format("%.1f", sslContext.getFullHandshakes() / runSeconds));
+    reportUserAgents(userAgents, userAgentStats);
+    if (!warnIfLagging()) {
+      log.info("Dispatcher kept within {}ms of the capture for 99% of requests", RequestDispatcher.SKEW_THRESHOLD_MILLIS);
+    }
+  }
+
+  /**
+   * Log the TLS handshakes of connections, if any have been made. Full handshakes are far more expensive for both the
+   * client and the target than resumed handshakes.
+   */
+  private void reportHandshakes(String fullHandshakeRate) {
+    long full = sslContext.getFullHandshakes();
+    long resumed = sslContext.getResumedHandshakes();
+    long failed = sslContext.getFailedHandshakes();
+    if (full + resumed + failed > 0) {
+      log.info("TLS handshakes: {} full, {} resumed, {} failed. {}% resumed, {} full handshakes/s",
+          full, resumed, failed, String.format("%.1f", resumed * 100d / Math.max(1, full + resumed)), fullHandshakeRate);
+    }
+  }
+
+  private void reportUserAgents(long userAgents, CacheStats userAgentStats) {
+    log.info("User agents: {} cached, {} created, {} evicted at session end, {} expired when idle, {}% hit rate",
+        userAgents, userAgentStats.loadCount(), sessionEnds.get(), userAgentStats.evictionCount(),
+        String.format("%.1f", userAgentStats.hitRate() * 100));
+  }
+
+  private boolean warnIfLagging() {
+    long p99 = toMillis(skew.getValueAtPercentile(99));
+    if (p99 > RequestDispatcher.SKEW_THRESHOLD_MILLIS) {
+      log.warn("Dispatcher is behind the capture by more than {}ms for 1% of requests (p99 {}ms). The load generator may be the bottleneck",
+          RequestDispatcher.SKEW_THRESHOLD_MILLIS, p99);
+      return true;
+    }
+    return false;
+  }
+
+  private static long toMillis(long micros) {
+    return TimeUnit.MICROSECONDS.toMillis(micros);
+  }
+}
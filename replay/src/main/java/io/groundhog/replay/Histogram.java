@@ -0,0 +1,161 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay;
+
+import com.google.common.base.Objects;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A concurrent histogram of non-negative values, recorded with a relative precision of better than 1%.
+ * <p/>
+ * Values are counted in log-linear buckets: values below 256 are counted exactly, and each power of two above is
+ * divided into 128 buckets. By default the histogram covers the full range of a long, in fixed space so recording
+ * never allocates. Histograms that are kept in large numbers can be bounded to a highest trackable value instead, which
+ * reduces their size in proportion to the powers of two they cover.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+public final class Histogram {
+  private static final int SUB_BUCKET_BITS = 8;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+
+  private final AtomicLongArray counts;
+  private final AtomicLong count;
+  private final AtomicLong total;
+  private final AtomicLong max;
+
+  public Histogram() {
+    this(Long.MAX_VALUE);
+  }
+
+  /**
+   * Create a histogram that tracks values up to the given value. Larger values are counted in the highest bucket, so
+   * their percentiles are reported as the highest trackable value, but the maximum is still tracked exactly.
+   *
+   * @param highestTrackableValue the highest value that is tracked with the precision of the histogram
+   */
+  public Histogram(long highestTrackableValue) {
+    checkArgument(highestTrackableValue > 0, "The highest trackable value must be positive");
+    counts = new AtomicLongArray(getIndex(highestTrackableValue) + 1);
+    count = new AtomicLong();
+    total = new AtomicLong();
+    max = new AtomicLong();
+  }
+
+  @Override
+  public String toString() {
+    Objects.ToStringHelper helper = Objects.toStringHelper(this);
+    helper.add("count", getCount());
+    helper.add("p50", getValueAtPercentile(50));
+    helper.add("p99", getValueAtPercentile(99));
+    helper.add("max", getMax());
+    return helper.toString();
+  }
+
+  /**
+   * Record a value. Negative values are recorded as zero.
+   */
+  public void record(long value) {
+    long recorded = Math.max(0, value);
+    counts.incrementAndGet(Math.min(getIndex(recorded), counts.length() - 1));
+    count.incrementAndGet();
+    total.addAndGet(recorded);
+    long currentMax = max.get();
+    while (recorded > currentMax && !max.compareAndSet(currentMax, recorded)) {
+      currentMax = max.get();
+    }
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  public double getMean() {
+    long currentCount = count.get();
+    return 0 == currentCount ? 0 : (double) total.get() / currentCount;
+  }
+
+  /**
+   * Get the value that the given percentage of recorded values are less than or equal to, within the precision of the
+   * histogram.
+   *
+   * @param percentile the percentile, from 0 to 100
+   */
+  public long getValueAtPercentile(double percentile) {
+    checkArgument(percentile >= 0 && percentile <= 100, "The percentile must be between 0 and 100");
+    long currentCount = count.get();
+    if (0 == currentCount) {
+      return 0;
+    }
+    long target = Math.max(1, (long) Math.ceil(percentile / 100 * currentCount));
+    long seen = 0;
+    for (int i = 0; i < counts.length(); i++) {
+      seen += counts.get(i);
+      if (seen >= target) {
+        return Math.min(getHighestValue(i), getMax());
+      }
+    }
+    return getMax();
+  }
+
+  /**
+   * Add the values recorded by another histogram to this histogram.
+   */
+  public void add(Histogram other) {
+    for (int i = 0; i < other.counts.length(); i++) {
+      long bucketCount = other.counts.get(i);
+      if (0 != bucketCount) {
+        counts.addAndGet(Math.min(i, counts.length() - 1), bucketCount);
+      }
+    }
+    count.addAndGet(other.count.get());
+    total.addAndGet(other.total.get());
+    long otherMax = other.getMax();
+    long currentMax = max.get();
+    while (otherMax > currentMax && !max.compareAndSet(currentMax, otherMax)) {
+      currentMax = max.get();
+    }
+  }
+
+  private static int getIndex(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    int shift = Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    int subBucket = (int) (value >>> shift) - SUB_BUCKET_HALF_COUNT;
+    return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF_COUNT + subBucket;
+  }
+
+  private static long getHighestValue(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF_COUNT + 1;
+    long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+    return ((subBucket + 1) << shift) - 1;
+  }
+}
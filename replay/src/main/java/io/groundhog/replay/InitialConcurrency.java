@@ -0,0 +1,75 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Predicate;
+import com.google.common.collect.Sets;
+
+import java.io.IOException;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An estimate of the connections a replay opens as it starts, made by reading the first seconds of a capture ahead of
+ * the replay, so they can be opened before the first request is due.
+ * <p/>
+ * Each session sent on persistent connections is counted as a single connection, and every other request as a
+ * connection of its own. Sessions are followed across cookie changes the same way a {@link SessionRouter} follows
+ * them.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+final class InitialConcurrency {
+  private InitialConcurrency() {
+  }
+
+  /**
+   * Estimate the connections opened by the requests of a window at the start of a capture.
+   *
+   * @param reader       a reader positioned at the start of the capture, which is read until the end of the window
+   * @param partitioner  matches the requests replayed, which must not have been applied to any request
+   * @param windowMillis the capture time after the first request covered by the estimate
+   */
+  static int estimate(RequestReader reader, Predicate<UserAgentRequest> partitioner, long windowMillis) throws IOException {
+    checkNotNull(reader);
+    checkNotNull(partitioner);
+    checkArgument(windowMillis >= 0, "The window must not be negative");
+    SessionRouter router = new SessionRouter();
+    Set<String> sessions = Sets.newHashSet();
+    int connections = 0;
+    UserAgentRequest request = reader.readRequest();
+    long windowEnd = request.getStartedDateTime() + windowMillis;
+    while (request.getStartedDateTime() <= windowEnd) {
+      request.releasePrelude();
+      Optional<String> session = router.getSession(request);
+      boolean persistent = request.isKeepAlive() && session.isPresent();
+      if (partitioner.apply(request) && (!persistent || sessions.add(session.get()))) {
+        connections++;
+      }
+      if (reader.isLastRequest(request)) {
+        return connections;
+      }
+      request = reader.readRequest();
+    }
+    request.releasePrelude();
+    return connections;
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.HttpContentDecompressor;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpResponse;
+
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A {@link HttpContentDecompressor} that only decompresses the responses the {@link UserAgentHandler} will inspect.
+ * <p/>
+ * Replayed requests ask for compressed responses as browsers do, but most bodies are only counted and released, so
+ * inflating them is wasted work. The bodies of other responses are passed through as they were sent.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+final class InspectedContentDecompressor extends HttpContentDecompressor {
+  private final UserAgentHandler userAgentHandler;
+  private boolean inspected;
+  private boolean decompressing;
+
+  InspectedContentDecompressor(UserAgentHandler userAgentHandler) {
+    this.userAgentHandler = checkNotNull(userAgentHandler);
+  }
+
+  @Override
+  protected void decode(ChannelHandlerContext ctx, HttpObject msg, List<Object> out) throws Exception {
+    checkNotNull(ctx);
+    checkNotNull(msg);
+    checkNotNull(out);
+    if (msg instanceof HttpResponse) {
+      inspected = userAgentHandler.isInspected((HttpResponse) msg);
+      decompressing = false;
+    }
+    super.decode(ctx, msg, out);
+  }
+
+  @Override
+  protected EmbeddedChannel newContentDecoder(String contentEncoding) throws Exception {
+    checkNotNull(contentEncoding);
+    if (!inspected) {
+      return null;
+    }
+    EmbeddedChannel decoder = super.newContentDecoder(contentEncoding);
+    decompressing = null != decoder;
+    return decoder;
+  }
+
+  /**
+   * Returns true if the content of the response being read is being decompressed.
+   */
+  boolean isDecompressing() {
+    return decompressing;
+  }
+}
@@ -20,6 +20,7 @@ package io.groundhog.replay;
 import io.groundhog.har.HttpArchive;
 
 import com.google.common.base.Optional;
+import io.netty.buffer.ByteBuf;
 import io.netty.handler.codec.http.*;
 
 import java.io.File;
@@ -32,7 +33,12 @@ import java.util.Set;
  * @since 1.0
  */
 public final class LastUserAgentRequest extends UserAgentRequest {
-  public LastUserAgentRequest(UserAgentRequest request, HttpResponse expectedResponse) {
-    super(request, expectedResponse);
+  public LastUserAgentRequest(UserAgentRequest request, HttpResponse expectedResponse, ByteBuf prelude, boolean keepAlive) {
+    super(request, expectedResponse, prelude, keepAlive);
+  }
+
+  public LastUserAgentRequest(UserAgentRequest request, HttpResponse expectedResponse, ByteBuf prelude, boolean keepAlive,
+                              boolean sessionEnd) {
+    super(request, expectedResponse, prelude, keepAlive, sessionEnd);
   }
 }
@@ -1,13 +1,15 @@
 package io.groundhog.replay;
 
 import com.google.common.base.Optional;
+import com.google.common.net.HostAndPort;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponse;
-import org.jsoup.nodes.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.helpers.MessageFormatter;
 
+import java.util.concurrent.TimeUnit;
+
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
@@ -19,27 +21,33 @@ public final class LoggingResultListener extends AbstractReplayResultListener im
 
   @Override
   public void success(HttpRequest request, HttpResponse response, UserAgent userAgent,
-                      int bytesRead, long start, long end, Optional<Document> document) {
-    checkNotNull(document);
-    log.info("{} {} {} {}",
+                      ResponseSize size, RequestTiming timing, Optional<ResponsePage> page) {
+    checkNotNull(page);
+    log.info("{} {} {} {} {} {} {} {}",
         getRequestLabel(request),
         response.getStatus().code(),
+        getBackendLabel(request),
         getUserAgentKey(userAgent),
-        end - start,
-        bytesRead);
+        timing.getLatency(TimeUnit.MILLISECONDS),
+        timing.getServiceTime(TimeUnit.MILLISECONDS),
+        size.getWireBytes(),
+        size.getContentBytes());
   }
 
   @Override
   public void failure(String failureReason, HttpRequest request, HttpResponse response, UserAgent userAgent,
-                      int bytesRead, long start, long end, Optional<Document> document) {
-    checkNotNull(document);
-    log.error("{}. {} {} {} {}",
+                      ResponseSize size, RequestTiming timing, Optional<ResponsePage> page) {
+    checkNotNull(page);
+    log.error("{}. {} {} {} {} {} {} {} {}",
         checkNotNull(failureReason),
         getRequestLabel(request),
         response.getStatus().code(),
+        getBackendLabel(request),
         getUserAgentKey(userAgent),
-        end - start,
-        bytesRead);
+        timing.getLatency(TimeUnit.MILLISECONDS),
+        timing.getServiceTime(TimeUnit.MILLISECONDS),
+        size.getWireBytes(),
+        size.getContentBytes());
   }
 
   @Override
@@ -58,6 +66,11 @@ public final class LoggingResultListener extends AbstractReplayResultListener im
     }
   }
 
+  private static String getBackendLabel(HttpRequest request) {
+    Optional<HostAndPort> backend = getBackend(request);
+    return backend.isPresent() ? backend.get().toString() : "-";
+  }
+
   private String getRequestLabel(HttpRequest request) {
     return MessageFormatter.arrayFormat("\"{} {} {}\"", new Object[]{
         checkNotNull(request.getMethod()), checkNotNull(request.getUri()), checkNotNull(request.getProtocolVersion())}).getMessage();
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay;
+
+import io.groundhog.har.HttpArchive;
+
+import com.google.common.base.Charsets;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.FileRegion;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.stream.ChunkedInput;
+import io.netty.handler.stream.ChunkedNioFile;
+import io.netty.util.ReferenceCountUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A {@code multipart/form-data} request body, encoded as browsers encode it.
+ * <p/>
+ * Unlike {@link io.netty.handler.codec.http.multipart.HttpPostRequestEncoder}, uploads aren't copied into the body.
+ * The part headers are encoded to buffers, and the content of each upload is written between them as provided by the
+ * {@link UploadStore}, so the length of the body is known up front and it is written without chunked encoding.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+final class MultipartBody {
+  private static final byte[] CRLF = {'\r', '\n'};
+  private static final byte[] DASHES = {'-', '-'};
+  private static final String CONTENT_DISPOSITION = "Content-Disposition";
+  private static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+
+  private final String boundary;
+  private final List<Object> parts;
+
+  private MultipartBody(String boundary, List<Object> parts) {
+    this.boundary = boundary;
+    this.parts = parts;
+  }
+
+  /**
+   * Encode a body.
+   *
+   * @param params          the form parameters, which are uploads if they have a file name
+   * @param uploadDirectory the directory the uploads are stored in
+   * @param uploadStore     the store providing the content of uploads
+   * @param allocator       the allocator to encode the part headers to
+   * @param zeroCopy        if the channel the body will be written to supports {@link FileRegion}s
+   * @return the body
+   * @throws IOException if an upload could not be read
+   */
+  static MultipartBody encode(List<HttpArchive.Param> params, File uploadDirectory, UploadStore uploadStore,
+                              ByteBufAllocator allocator, boolean zeroCopy) throws IOException {
+    checkNotNull(params);
+    checkNotNull(uploadDirectory);
+    checkNotNull(uploadStore);
+    checkNotNull(allocator);
+    String boundary = "----GroundhogFormBoundary" + Long.toHexString(ThreadLocalRandom.current().nextLong());
+    List<Object> parts = new ArrayList<>();
+    MultipartBody body = new MultipartBody(boundary, parts);
+    try {
+      ByteBuf buf = allocator.buffer();
+      parts.add(buf);
+      for (HttpArchive.Param param : params) {
+        writeAscii(buf, "--" + boundary);
+        buf.writeBytes(CRLF);
+        String disposition = "form-data; name=\"" + param.getName() + "\"";
+        if (param.getFileName().isEmpty()) {
+          writeHeader(buf, CONTENT_DISPOSITION, disposition);
+          buf.writeBytes(CRLF);
+          buf.writeBytes(param.getValue().getBytes(Charsets.UTF_8));
+        } else {
+          String contentType = param.getContentType().isEmpty() ? DEFAULT_CONTENT_TYPE : param.getContentType();
+          writeHeader(buf, CONTENT_DISPOSITION, disposition + "; filename=\"" + param.getFileName() + "\"");
+          writeHeader(buf, HttpHeaders.Names.CONTENT_TYPE, contentType);
+          buf.writeBytes(CRLF);
+          parts.add(uploadStore.getContent(new File(uploadDirectory, param.getFileName()), zeroCopy));
+          buf = allocator.buffer();
+          parts.add(buf);
+        }
+        buf.writeBytes(CRLF);
+      }
+      writeAscii(buf, "--" + boundary);
+      buf.writeBytes(DASHES);
+      buf.writeBytes(CRLF);
+    } catch (IOException | RuntimeException e) {
+      body.release();
+      throw e;
+    }
+    return body;
+  }
+
+  private static void writeHeader(ByteBuf buf, String name, String value) {
+    writeAscii(buf, name);
+    buf.writeByte(':');
+    buf.writeByte(' ');
+    buf.writeBytes(value.getBytes(Charsets.UTF_8));
+    buf.writeBytes(CRLF);
+  }
+
+  private static void writeAscii(ByteBuf buf, String value) {
+    HttpHeaders.encodeAscii(value, buf);
+  }
+
+  /**
+   * Set the headers describing this body on a request.
+   */
+  void setHeaders(HttpRequest request) {
+    checkNotNull(request);
+    HttpHeaders headers = request.headers();
+    headers.set(HttpHeaders.Names.CONTENT_TYPE, HttpHeaders.Values.MULTIPART_FORM_DATA + "; " + HttpHeaders.Values.BOUNDARY + "=" + boundary);
+    HttpHeaders.setContentLength(request, getContentLength());
+  }
+
+  /**
+   * Get the length of the body in bytes.
+   */
+  long getContentLength() {
+    long length = 0;
+    for (Object part : parts) {
+      if (part instanceof ByteBuf) {
+        length += ((ByteBuf) part).readableBytes();
+      } else if (part instanceof FileRegion) {
+        length += ((FileRegion) part).count();
+      } else {
+        ChunkedNioFile file = (ChunkedNioFile) part;
+        length += file.endOffset() - file.currentOffset();
+      }
+    }
+    return length;
+  }
+
+  /**
+   * Write the body to a channel following its request, ending the request.
+   *
+   * @return the future of the last write
+   */
+  ChannelFuture write(Channel channel) {
+    checkNotNull(channel);
+    for (Object part : parts) {
+      channel.write(part);
+    }
+    return channel.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+  }
+
+  /**
+   * Release a body that won't be written.
+   */
+  void release() {
+    for (Object part : parts) {
+      if (part instanceof ChunkedInput) {
+        try {
+          ((ChunkedInput) part).close();
+        } catch (Exception e) {
+          // The upload was never read, so there's nothing to recover
+        }
+      } else {
+        ReferenceCountUtil.release(part);
+      }
+    }
+  }
+}
@@ -42,27 +42,22 @@ public final class NonPersistentUserAgent implements UserAgent {
   }
 
   @Override
-  public void tryBlock(long timeout) {
-    throw unsupportedOperation();
-  }
-
-  @Override
-  public void releaseBlock() {
+  public void setCookies(Collection<Cookie> cookies) {
     throw unsupportedOperation();
   }
 
   @Override
-  public void setCookies(Collection<Cookie> cookies) {
+  public void setOverridePostValues(Collection<HttpArchive.Param> params) {
     throw unsupportedOperation();
   }
 
   @Override
-  public void setOverridePostValues(Collection<HttpArchive.Param> params) {
+  public Set<Cookie> getCookiesForUri(String uri) {
     throw unsupportedOperation();
   }
 
   @Override
-  public Set<Cookie> getCookiesForUri(String uri) {
+  public String getCookieHeader(String uri) {
     throw unsupportedOperation();
   }
 
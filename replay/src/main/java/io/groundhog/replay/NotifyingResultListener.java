@@ -0,0 +1,131 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.groundhog.replay;
+
+import com.google.common.base.Optional;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A {@link ReplayResultListener} that passes results on to the configured listener, then signals that their requests
+ * have completed, to the requests that depend on them, to a {@link ClosedLoopScheduler} and to the current
+ * {@link CapacityStep}. Every result is reported through this listener, so completion is signalled however requests
+ * fail. Only the first result reported for a request is passed on, so a request that fails in several ways, such as a
+ * failed write followed by its connection closing, is counted once.
+ * <p/>
+ * Completion is signalled on the calling thread, as requests are waiting on it, but the configured listener is called
+ * from an {@link AsyncResultListener}, so reporting doesn't hold up the event loops.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+@Singleton
+final class NotifyingResultListener implements ReplayResultListener, Closeable {
+  private final AsyncResultListener delegate;
+
+  private volatile Optional<ClosedLoopScheduler> scheduler = Optional.absent();
+  private volatile Optional<CapacityStep> step = Optional.absent();
+
+  @Inject
+  NotifyingResultListener(ReplayResultListener delegate) {
+    this.delegate = new AsyncResultListener(delegate);
+  }
+
+  void setScheduler(Optional<ClosedLoopScheduler> scheduler) {
+    this.scheduler = checkNotNull(scheduler);
+  }
+
+  void setStep(Optional<CapacityStep> step) {
+    this.step = checkNotNull(step);
+  }
+
+  @Override
+  public void success(HttpRequest request, HttpResponse response, UserAgent userAgent, ResponseSize size,
+                      RequestTiming timing, Optional<ResponsePage> page) {
+    if (isFirstResult(request)) {
+      delegate.success(request, response, userAgent, size, timing, page);
+      complete(request, Optional.of(timing), false);
+    }
+  }
+
+  @Override
+  public void failure(String failureReason, HttpRequest request, HttpResponse response, UserAgent userAgent,
+                      ResponseSize size, RequestTiming timing, Optional<ResponsePage> page) {
+    if (isFirstResult(request)) {
+      delegate.failure(failureReason, request, response, userAgent, size, timing, page);
+      complete(request, Optional.of(timing), true);
+    }
+  }
+
+  @Override
+  public void failure(HttpRequest request, Optional<UserAgent> userAgent, Optional<Throwable> cause) {
+    if (isFirstResult(request)) {
+      delegate.failure(request, userAgent, cause);
+      complete(request, Optional.<RequestTiming>absent(), true);
+    }
+  }
+
+  @Override
+  public boolean isDocumentRequired() {
+    return delegate.isDocumentRequired();
+  }
+
+  /**
+   * Report the results that are still queued, then close the configured listener, if it is {@link Closeable}.
+   */
+  @Override
+  public void close() throws IOException {
+    delegate.close();
+  }
+
+  /**
+   * Signal that a request has completed to the requests that depend on it, if this is its first result. Requests that
+   * fail before they're written are the request read from the capture, and are only reported once.
+   */
+  private static boolean isFirstResult(HttpRequest request) {
+    checkNotNull(request);
+    return !(request instanceof ReplayHttpRequest) || ((ReplayHttpRequest) request).complete();
+  }
+
+  private void complete(HttpRequest request, Optional<RequestTiming> timing, boolean failed) {
+    // Only requests replayed by the current step count towards it. Requests that fail before they're written have no
+    // copy, so count as not having completed
+    Optional<CapacityStep> currentStep = step;
+    if (currentStep.isPresent() && request instanceof ReplayHttpRequest &&
+        currentStep.get().isReplaying(((ReplayHttpRequest) request).getCopy())) {
+      currentStep.get().record(timing, failed);
+    }
+    Optional<ClosedLoopScheduler> currentScheduler = scheduler;
+    if (!currentScheduler.isPresent()) {
+      return;
+    }
+    // Requests fail before they're written with the request read from the capture
+    if (request instanceof ReplayHttpRequest) {
+      currentScheduler.get().complete(((ReplayHttpRequest) request).getUserAgentRequest(), timing);
+    } else if (request instanceof UserAgentRequest) {
+      currentScheduler.get().complete((UserAgentRequest) request, timing);
+    }
+  }
+}
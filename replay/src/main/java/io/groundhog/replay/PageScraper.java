@@ -0,0 +1,302 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay;
+
+import io.groundhog.har.HttpArchive;
+
+import com.google.common.base.Ascii;
+import com.google.common.base.CharMatcher;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufProcessor;
+import org.jsoup.parser.Parser;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Scrapes the title and the hidden fields of forms from an HTML page as its content is read, without buffering the
+ * page or building a DOM. Only the tag being read and the title are held at once.
+ * <p/>
+ * Markup is tokenized from the encoded content, so pages must use a charset that encodes markup as ASCII, such as
+ * ISO-8859-1 or UTF-8. Comments, and the content of elements that can't contain markup, such as scripts, are skipped.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+final class PageScraper {
+  private static final int MAX_TAG_LENGTH = 8192;
+  private static final int MAX_TITLE_LENGTH = 1024;
+  private static final Set<String> RAW_TEXT_ELEMENTS = ImmutableSet.of("script", "style", "textarea", "title");
+  private static final CharMatcher WHITESPACE = CharMatcher.anyOf(" \t\n\r\f");
+  private static final CharMatcher TAG_NAME_END = WHITESPACE.or(CharMatcher.is('/'));
+  private static final CharMatcher ATTRIBUTE_START = WHITESPACE.or(CharMatcher.is('/')).negate();
+  private static final CharMatcher ATTRIBUTE_NAME_END = WHITESPACE.or(CharMatcher.anyOf("/="));
+
+  private enum State {
+    TEXT, TAG, COMMENT, RAW_TEXT
+  }
+
+  private final Charset charset;
+  private final ByteArrayOutputStream tag;
+  private final ByteArrayOutputStream title;
+  private final List<HttpArchive.Param> hiddenFields;
+  private final ByteBufProcessor processor;
+
+  private State state = State.TEXT;
+  private byte quote;
+  private byte lastTagByte;
+  private int commentDashes;
+  private byte[] rawTextEnd;
+  private int rawTextMatched;
+  private boolean inTitle;
+  private boolean titleRead;
+  private boolean inForm;
+
+  /**
+   * @param charset the charset of the page
+   */
+  PageScraper(Charset charset) {
+    this.charset = checkNotNull(charset);
+    tag = new ByteArrayOutputStream();
+    title = new ByteArrayOutputStream();
+    hiddenFields = Lists.newArrayList();
+    processor = new ByteBufProcessor() {
+      @Override
+      public boolean process(byte value) throws Exception {
+        scrape(value);
+        return true;
+      }
+    };
+  }
+
+  /**
+   * Scrape the next chunk of the page. The chunk is not retained.
+   */
+  void scrape(ByteBuf content) {
+    checkNotNull(content);
+    content.forEachByte(processor);
+  }
+
+  /**
+   * Get the text of the first title of the page, with whitespace collapsed, or an empty string if it has no title.
+   */
+  String getTitle() {
+    String text = Parser.unescapeEntities(new String(title.toByteArray(), charset), false);
+    return WHITESPACE.trimAndCollapseFrom(text, ' ');
+  }
+
+  /**
+   * Get the hidden inputs of the forms of the page, in page order.
+   */
+  List<HttpArchive.Param> getHiddenFields() {
+    return ImmutableList.copyOf(hiddenFields);
+  }
+
+  private void scrape(byte value) {
+    switch (state) {
+      case TEXT: {
+        if ('<' == value) {
+          startTag();
+        }
+        break;
+      }
+      case TAG: {
+        readTag(value);
+        break;
+      }
+      case COMMENT: {
+        if ('>' == value && commentDashes >= 2) {
+          state = State.TEXT;
+        }
+        commentDashes = '-' == value ? commentDashes + 1 : 0;
+        break;
+      }
+      case RAW_TEXT: {
+        readRawText(value);
+        break;
+      }
+    }
+  }
+
+  private void startTag() {
+    state = State.TAG;
+    tag.reset();
+    quote = 0;
+    lastTagByte = 0;
+  }
+
+  private void readTag(byte value) {
+    if (0 != quote) {
+      if (quote == value) {
+        quote = 0;
+      }
+    } else if ('>' == value) {
+      endTag();
+      return;
+    } else if (('"' == value || '\'' == value) && '=' == lastTagByte) {
+      quote = value;
+    }
+    if (tag.size() >= MAX_TAG_LENGTH) {
+      // Not a tag, or not one worth reading
+      state = State.TEXT;
+      return;
+    }
+    tag.write(value);
+    if (!WHITESPACE.matches((char) value)) {
+      lastTagByte = value;
+    }
+    if (3 == tag.size() && "!--".equals(tag.toString())) {
+      state = State.COMMENT;
+      commentDashes = 0;
+    }
+  }
+
+  /**
+   * Read the content of an element that can't contain markup, until its end tag.
+   */
+  private void readRawText(byte value) {
+    if (Ascii.toLowerCase((char) value) == rawTextEnd[rawTextMatched]) {
+      rawTextMatched++;
+      if (rawTextMatched == rawTextEnd.length) {
+        // Read the rest of the end tag
+        startTag();
+        tag.write(rawTextEnd, 1, rawTextEnd.length - 1);
+        inTitle = false;
+      }
+      return;
+    }
+    if (inTitle) {
+      // Bytes that looked like the start of the end tag belong to the title
+      appendTitle(rawTextEnd, rawTextMatched);
+    }
+    rawTextMatched = 0;
+    if ('<' == value) {
+      rawTextMatched = 1;
+    } else if (inTitle && title.size() < MAX_TITLE_LENGTH) {
+      title.write(value);
+    }
+  }
+
+  private void appendTitle(byte[] bytes, int length) {
+    title.write(bytes, 0, Math.min(length, MAX_TITLE_LENGTH - title.size()));
+  }
+
+  private void endTag() {
+    state = State.TEXT;
+    String text = new String(tag.toByteArray(), charset);
+    if (text.isEmpty() || '!' == text.charAt(0) || '?' == text.charAt(0)) {
+      return;
+    }
+    boolean closing = '/' == text.charAt(0);
+    String name = getTagName(closing ? text.substring(1) : text);
+    if (closing) {
+      if ("form".equals(name)) {
+        inForm = false;
+      }
+      return;
+    }
+    switch (name) {
+      case "form": {
+        inForm = true;
+        break;
+      }
+      case "input": {
+        if (inForm) {
+          Map<String, String> attributes = getAttributes(text.substring(name.length()));
+          if ("hidden".equalsIgnoreCase(attributes.get("type"))) {
+            hiddenFields.add(new HttpArchive.Param(getAttribute(attributes, "name"), getAttribute(attributes, "value")));
+          }
+        }
+        break;
+      }
+    }
+    if (RAW_TEXT_ELEMENTS.contains(name) && !text.endsWith("/")) {
+      state = State.RAW_TEXT;
+      rawTextEnd = ("</" + name).getBytes(charset);
+      rawTextMatched = 0;
+      if ("title".equals(name) && !titleRead) {
+        titleRead = true;
+        inTitle = true;
+      }
+    }
+  }
+
+  private static String getTagName(String text) {
+    int end = TAG_NAME_END.indexIn(text);
+    return Ascii.toLowerCase(-1 == end ? text : text.substring(0, end));
+  }
+
+  private static String getAttribute(Map<String, String> attributes, String name) {
+    String value = attributes.get(name);
+    return null == value ? "" : Parser.unescapeEntities(value, true);
+  }
+
+  /**
+   * Parse the attributes of a tag, keeping the first of any duplicate attributes.
+   */
+  private static Map<String, String> getAttributes(String text) {
+    Map<String, String> attributes = Maps.newHashMap();
+    int i = 0;
+    int length = text.length();
+    while (i < length) {
+      i = ATTRIBUTE_START.indexIn(text, i);
+      if (-1 == i) {
+        break;
+      }
+      int nameEnd = ATTRIBUTE_NAME_END.indexIn(text, i);
+      nameEnd = -1 == nameEnd ? length : Math.max(nameEnd, i + 1);
+      String name = Ascii.toLowerCase(text.substring(i, nameEnd));
+      i = WHITESPACE.negate().indexIn(text, nameEnd);
+      String value = "";
+      if (-1 != i && '=' == text.charAt(i)) {
+        i = WHITESPACE.negate().indexIn(text, i + 1);
+        if (-1 == i) {
+          i = length;
+        } else {
+          char first = text.charAt(i);
+          int valueEnd;
+          if ('"' == first || '\'' == first) {
+            valueEnd = text.indexOf(first, i + 1);
+            valueEnd = -1 == valueEnd ? length : valueEnd;
+            value = text.substring(i + 1, valueEnd);
+            i = Math.min(length, valueEnd + 1);
+          } else {
+            valueEnd = WHITESPACE.indexIn(text, i);
+            valueEnd = -1 == valueEnd ? length : valueEnd;
+            value = text.substring(i, valueEnd);
+            i = valueEnd;
+          }
+        }
+      } else if (-1 == i) {
+        i = length;
+      }
+      if (!attributes.containsKey(name)) {
+        attributes.put(name, value);
+      }
+    }
+    return attributes;
+  }
+}
@@ -17,16 +17,16 @@
 
 package io.groundhog.replay;
 
-import com.google.common.base.Throwables;
+import com.google.common.base.Optional;
 import com.google.common.util.concurrent.AbstractExecutionThreadService;
 import com.google.inject.Inject;
+import com.google.inject.Provider;
 import com.google.inject.name.Named;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelConfig;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioSocketChannel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,6 +35,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.concurrent.TimeUnit;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
@@ -47,22 +48,80 @@ public final class ReplayClient extends AbstractExecutionThreadService {
    * in the dispatcher queue.
    */
   private static final int DELAY_LIMIT_MS = 5000;
+  private static final int REPORT_INTERVAL_SECONDS = 30;
+  /**
+   * The capture time read ahead to estimate the connections opened as the replay starts, when warming up.
+   */
+  private static final int WARM_UP_WINDOW_SECONDS = 5;
+  /**
+   * The time allowed for the requests of a capacity search step to complete, once the step's window has been replayed.
+   */
+  private static final int STEP_DRAIN_SECONDS = 30;
 
   private final EventLoopGroup group;
-  private final RequestReader requestReader;
+  private final File recordingFile;
+  private final File uploadLocation;
+  private final boolean keepAlive;
+  private final boolean warmUp;
   private final RequestDispatcher dispatcher;
+  private final TimeDilation timeDilation;
+  private final ArrivalRate arrivalRate;
+  private final int copies;
+  private final int copyOffset;
+  private final Provider<ReplayPartition> partitionProvider;
+  private final int saturationConcurrency;
+  private final CapacitySearch capacitySearch;
+  private final NotifyingResultListener resultListener;
+
+  private SessionEndIndex sessionEnds;
+  private RequestReader requestReader;
+  private ReplayPartition partition;
+  private SessionPartitioner partitioner;
+  private volatile Optional<ClosedLoopScheduler> closedLoopScheduler = Optional.absent();
 
   private Logger log = LoggerFactory.getLogger(ReplayClient.class);
 
   @Inject
-  ReplayClient(Bootstrap bootstrap, File recordingFile, RequestDispatcher dispatcher, final ReplayHandlerFactory replayHandlerFactory, @Named("connectionTimeout") final int connectionTimeout) {
-    checkNotNull(recordingFile);
-
+  ReplayClient(Bootstrap bootstrap,
+               EventLoopGroup group,
+               File recordingFile,
+               RequestDispatcher dispatcher,
+               final ReplayHandlerFactory replayHandlerFactory,
+               @Named("connectionTimeout") final int connectionTimeout,
+               @Named("keepAlive") boolean keepAlive,
+               @Named("warmUp") boolean warmUp,
+               TimeDilation timeDilation,
+               ArrivalRate arrivalRate,
+               @Named("copies") int copies,
+               @Named("copyOffset") int copyOffset,
+               Provider<ReplayPartition> partitionProvider,
+               @Named("saturationConcurrency") int saturationConcurrency,
+               CapacitySearch capacitySearch,
+               NotifyingResultListener resultListener) {
+    this.recordingFile = checkNotNull(recordingFile);
+    this.keepAlive = keepAlive;
+    this.warmUp = warmUp;
+    this.group = checkNotNull(group);
     this.dispatcher = checkNotNull(dispatcher);
+    this.timeDilation = checkNotNull(timeDilation);
+    this.arrivalRate = checkNotNull(arrivalRate);
+    checkArgument(copies > 0, "At least one copy of the capture must be replayed");
+    checkArgument(copyOffset >= 0, "The copy offset must not be negative");
+    this.copies = copies;
+    this.copyOffset = copyOffset;
+    this.partitionProvider = checkNotNull(partitionProvider);
+    checkArgument(saturationConcurrency >= 0, "The saturation concurrency must not be negative");
+    checkArgument(0 == saturationConcurrency || (1 == copies && arrivalRate.isCaptured()),
+        "Saturation replays sessions without think time, so can't be combined with copies or an arrival rate");
+    this.saturationConcurrency = saturationConcurrency;
+    this.capacitySearch = checkNotNull(capacitySearch);
+    checkArgument(!capacitySearch.isEnabled() || (0 == saturationConcurrency && arrivalRate.isCaptured()),
+        "A capacity search replays the capture at the captured arrival rate, so can't be combined with saturation or an arrival rate");
+    this.resultListener = checkNotNull(resultListener);
     checkNotNull(connectionTimeout);
 
-    group = new NioEventLoopGroup();
-    bootstrap.group(group).channel(NioSocketChannel.class).handler(new ChannelInitializer<Channel>() {
+    // The dispatcher assigns each connection an event loop from the group
+    bootstrap.channel(NioSocketChannel.class).handler(new ChannelInitializer<Channel>() {
       @Override
       protected void initChannel(Channel ch) throws Exception {
         ChannelConfig chConfig = ch.config();
@@ -71,41 +130,62 @@ public final class ReplayClient extends AbstractExecutionThreadService {
       }
     });
 
-    File uploadLocation = new File(recordingFile.getParentFile(), "uploads");
-    try {
-      requestReader = new DefaultRequestReader(recordingFile, uploadLocation);
-    } catch (IOException e) {
-      throw Throwables.propagate(e);
-    }
+    uploadLocation = new File(recordingFile.getParentFile(), "uploads");
   }
 
   @Override
   protected void run() throws Exception {
+    long lateNanos = partition.awaitStart();
+    if (0 < lateNanos) {
+      // Starting up, including warming up the dispatcher, took longer than the coordinator's start delay
+      log.warn("Replay of {} started {}ms after the shared start time, so partitions aren't aligned. Increase the start delay to allow for warm up",
+          partition, TimeUnit.NANOSECONDS.toMillis(lateNanos));
+    }
+    if (0 < saturationConcurrency) {
+      runClosedLoop();
+      return;
+    }
+    if (capacitySearch.isEnabled()) {
+      runCapacitySearch();
+      return;
+    }
+    // Every partition offsets requests from the first request of the capture, so partitions stay aligned
     UserAgentRequest firstRequest = requestReader.readRequest();
     long firstRequestTime = firstRequest.getStartedDateTime();
-    DelayedUserAgentRequest delayedFirstRequest = new DelayedUserAgentRequest(firstRequest, firstRequestTime, System.nanoTime(), firstRequestTime);
-    log.trace("Queuing first request {}", delayedFirstRequest);
-    dispatcher.queue(delayedFirstRequest);
+    SessionArrivalScheduler arrivalScheduler = new SessionArrivalScheduler(arrivalRate, firstRequestTime);
+    Optional<Long> firstStartedDateTime = schedule(firstRequest, arrivalScheduler);
+    if (firstStartedDateTime.isPresent()) {
+      log.trace("Queuing first request {}", firstRequest);
+      queue(firstRequest, firstStartedDateTime.get(), System.nanoTime(), firstRequestTime, timeDilation, 0);
+    } else {
+      firstRequest.releasePrelude();
+    }
 
     /*
      * The overhead of getting initial connections can cause initial requests to bunch up, and cause out of order
-     * requests which affects session cookie management. We use the first request to warm up the dispatcher, and delay
-     * further requests by the skew tolerance limit for the dispatcher, to prevent warnings being logged.
+     * requests which affects session cookie management. Unless the dispatcher was warmed up with the connections the
+     * replay starts with, we use the first request to warm up the dispatcher, and delay further requests by the skew
+     * tolerance limit for the dispatcher, to prevent warnings being logged.
      *
-     * If in future we support multiple hosts, we might need handle warm up differently. That said, this should only
-     * affect requests captured from load generation tools with very low latency, and no wait times. I'd never expect
-     * to see problems with this with normal wait times.
+     * Warming up opens connections to every backend of the target, spread across the dispatcher's lanes.
+     * Without it, bunching should only affect requests captured from load generation tools with very low latency, and
+     * no wait times. I'd never expect to see problems with this with normal wait times.
      */
     long timeStartedNanos = System.nanoTime();
-    firstRequestTime = firstRequestTime - RequestDispatcher.SKEW_THRESHOLD_MILLIS;
+    if (!warmUp) {
+      firstRequestTime = firstRequestTime - RequestDispatcher.SKEW_THRESHOLD_MILLIS;
+    }
 
     while (isRunning()) {
       if (dispatcher.isRunning()) {
         UserAgentRequest request = requestReader.readRequest();
-        long startedDateTime = request.getStartedDateTime();
-        DelayedUserAgentRequest delayedRequest = new DelayedUserAgentRequest(request, startedDateTime, timeStartedNanos, firstRequestTime);
-        log.trace("Queuing {}", delayedRequest);
-        dispatcher.queue(delayedRequest);
+        long delayMillis = 0;
+        Optional<Long> startedDateTime = schedule(request, arrivalScheduler);
+        if (startedDateTime.isPresent()) {
+          delayMillis = queue(request, startedDateTime.get(), timeStartedNanos, firstRequestTime, timeDilation, 0).getDelay(TimeUnit.MILLISECONDS);
+        } else {
+          request.releasePrelude();
+        }
 
         if (requestReader.isLastRequest(request)) {
           log.info("Last request read, performing graceful shutdown of dispatcher");
@@ -114,7 +194,6 @@ public final class ReplayClient extends AbstractExecutionThreadService {
           break;
         }
 
-        long delayMillis = delayedRequest.getDelay(TimeUnit.MILLISECONDS);
         if (DELAY_LIMIT_MS < delayMillis) {
           log.info("Reached read-ahead limit of {}ms (current request delay {}ms). Sleeping for {}ms", DELAY_LIMIT_MS, delayMillis, DELAY_LIMIT_MS);
           Thread.sleep(DELAY_LIMIT_MS);
@@ -123,16 +202,193 @@ public final class ReplayClient extends AbstractExecutionThreadService {
     }
   }
 
+  /**
+   * Replay every session as a closed loop, without think time, to saturate the target.
+   */
+  private void runClosedLoop() throws Exception {
+    ClosedLoopScheduler scheduler = new ClosedLoopScheduler(dispatcher, saturationConcurrency);
+    resultListener.setScheduler(Optional.of(scheduler));
+    closedLoopScheduler = Optional.of(scheduler);
+    while (isRunning() && dispatcher.isRunning()) {
+      UserAgentRequest request = requestReader.readRequest();
+      if (partitioner.apply(request)) {
+        scheduler.offer(request);
+      } else {
+        request.releasePrelude();
+      }
+
+      if (requestReader.isLastRequest(request)) {
+        log.info("Last request read, waiting for sessions to complete");
+        scheduler.awaitCompletion(REPORT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        scheduler.reportSummary();
+        log.info("Performing graceful shutdown of dispatcher");
+        dispatcher.stopAsync();
+        dispatcher.awaitTerminated();
+        break;
+      }
+    }
+  }
+
+  /**
+   * Replay a window of the capture in steps of increasing speed, until a step breaks the service level objective, to
+   * find the maximum multiplier of the captured load that the target sustains.
+   */
+  private void runCapacitySearch() throws Exception {
+    ServiceLevelObjective objective = capacitySearch.getObjective();
+    Optional<CapacityStep> sustained = Optional.absent();
+    boolean broken = false;
+    for (int step = 0; step < capacitySearch.getSteps() && isRunning() && dispatcher.isRunning(); step++) {
+      CapacityStep capacityStep = new CapacityStep(capacitySearch.getMultiplier(step), step, copies);
+      resultListener.setStep(Optional.of(capacityStep));
+      long startedNanos = System.nanoTime();
+      long queued = replayWindow(capacityStep, step);
+      long windowNanos = (long) (capacitySearch.getWindow(TimeUnit.NANOSECONDS) / capacityStep.getMultiplier());
+      long timeoutNanos = startedNanos + windowNanos + TimeUnit.SECONDS.toNanos(STEP_DRAIN_SECONDS) - System.nanoTime();
+      capacityStep.awaitCompletion(queued, timeoutNanos, TimeUnit.NANOSECONDS);
+      capacityStep.finish();
+      resultListener.setStep(Optional.<CapacityStep>absent());
+      Histogram latency = capacityStep.getLatency();
+      log.info("Capacity step {} at {}x: {} of {} requests completed, error rate {}%, latency {} {}ms, max {}ms",
+          step + 1, capacityStep.getMultiplier(), capacityStep.getCompleted(), queued,
+          String.format("%.2f", capacityStep.getErrorRate() * 100), objective.getPercentileLabel(),
+          TimeUnit.MICROSECONDS.toMillis(latency.getValueAtPercentile(objective.getPercentile())),
+          TimeUnit.MICROSECONDS.toMillis(latency.getMax()));
+      Optional<String> breach = objective.getBreach(capacityStep);
+      if (breach.isPresent()) {
+        log.info("Capacity step {} at {}x broke the objective: {}", step + 1, capacityStep.getMultiplier(), breach.get());
+        broken = true;
+        break;
+      }
+      sustained = Optional.of(capacityStep);
+    }
+    if (!sustained.isPresent()) {
+      log.info("Capacity search complete. No multiplier sustained {}", objective);
+    } else if (broken) {
+      log.info("Capacity search complete. Maximum sustainable multiplier is {}x for {}", sustained.get().getMultiplier(), objective);
+    } else {
+      log.info("Capacity search complete. Every step sustained {}, up to {}x", objective, sustained.get().getMultiplier());
+    }
+    log.info("Performing graceful shutdown of dispatcher");
+    dispatcher.stopAsync();
+    dispatcher.awaitTerminated();
+  }
+
+  /**
+   * Replay the window of the capture searched for capacity, at the speed of a step. Each step replays its own copies of
+   * the capture, so its sessions have their own user agents.
+   *
+   * @return the number of requests queued
+   */
+  private long replayWindow(CapacityStep capacityStep, int step) throws Exception {
+    RequestReader reader = new DefaultRequestReader(recordingFile, uploadLocation, keepAlive, Optional.of(sessionEnds));
+    TimeDilation stepDilation = TimeDilation.constant(capacityStep.getMultiplier());
+    UserAgentRequest request = reader.readRequest();
+    long windowStart = request.getStartedDateTime();
+    long windowEnd = windowStart + capacitySearch.getWindow(TimeUnit.MILLISECONDS);
+    // As for a single replay, requests are delayed by the skew threshold unless the dispatcher was warmed up
+    long firstRequestTime = warmUp ? windowStart : windowStart - RequestDispatcher.SKEW_THRESHOLD_MILLIS;
+    long timeStartedNanos = System.nanoTime();
+    long queued = 0;
+    while (request.getStartedDateTime() < windowEnd && isRunning() && dispatcher.isRunning()) {
+      long delayMillis = 0;
+      if (partitioner.apply(request)) {
+        delayMillis = queue(request, request.getStartedDateTime(), timeStartedNanos, firstRequestTime, stepDilation,
+            step * copies).getDelay(TimeUnit.MILLISECONDS);
+        queued += copies;
+      } else {
+        request.releasePrelude();
+      }
+      if (reader.isLastRequest(request)) {
+        return queued;
+      }
+      if (DELAY_LIMIT_MS < delayMillis) {
+        Thread.sleep(DELAY_LIMIT_MS);
+      }
+      request = reader.readRequest();
+    }
+    // The first request after the window isn't replayed
+    request.releasePrelude();
+    return queued;
+  }
+
+  /**
+   * Get the time a request should be replayed as if it had been sent in the capture, or absent if it is not replayed
+   * by this client. Requests for other partitions are replayed by other workers, and sessions may be skipped to
+   * replay at the arrival rate.
+   */
+  private Optional<Long> schedule(UserAgentRequest request, SessionArrivalScheduler arrivalScheduler) {
+    return partitioner.apply(request) ? arrivalScheduler.schedule(request) : Optional.<Long>absent();
+  }
+
+  /**
+   * Queue a request once for each copy of the capture being replayed, each copy offset from the last by the copy
+   * offset.
+   *
+   * @param copyBase the number of the first copy, so copies queued for different runs of the capture are distinct
+   * @return the request queued for the first copy
+   */
+  private DelayedUserAgentRequest queue(UserAgentRequest request, long requestStartedDateTime, long timeStartedNanos, long firstRequestTime,
+                                        TimeDilation timeDilation, int copyBase) throws InterruptedException {
+    if (copies > 1) {
+      // Every copy releases the prelude once written
+      request.getPrelude().retain(copies - 1);
+    }
+    DelayedUserAgentRequest firstCopy = null;
+    for (int copy = 0; copy < copies; copy++) {
+      long startedDateTime = requestStartedDateTime + copy * (long) copyOffset;
+      DelayedUserAgentRequest delayedRequest = new DelayedUserAgentRequest(request, startedDateTime, timeStartedNanos, firstRequestTime, timeDilation, copyBase + copy);
+      log.trace("Queuing {}", delayedRequest);
+      dispatcher.queue(delayedRequest);
+      if (null == firstCopy) {
+        firstCopy = delayedRequest;
+      }
+    }
+    return firstCopy;
+  }
+
   @Override
   protected void startUp() throws Exception {
-    log.info("Starting request dispatcher");
+    // Read the capture ahead of the replay, so user agents can be evicted as soon as their session ends
+    sessionEnds = SessionEndIndex.build(new DefaultRequestReader(recordingFile, uploadLocation, keepAlive));
+    log.info("Indexed {} sessions across {} requests", sessionEnds.getSessions(), sessionEnds.getRequests());
+    requestReader = new DefaultRequestReader(recordingFile, uploadLocation, keepAlive, Optional.of(sessionEnds));
+    partition = partitionProvider.get();
+    partitioner = new SessionPartitioner(partition);
+    if (0 < saturationConcurrency) {
+      log.info("Starting request dispatcher, replaying {} as closed loops with a concurrency of {}", partition, saturationConcurrency);
+    } else if (capacitySearch.isEnabled()) {
+      log.info("Starting request dispatcher, replaying {} of {} copies of the capture {}ms apart, with {}", partition, copies, copyOffset, capacitySearch);
+    } else {
+      log.info("Starting request dispatcher, replaying {} of {} copies of the capture {}ms apart, with {} and {}", partition, copies, copyOffset, timeDilation, arrivalRate);
+    }
     dispatcher.startAsync();
     dispatcher.awaitRunning();
+    if (warmUp) {
+      int connections = 0 < saturationConcurrency ? saturationConcurrency : estimateInitialConcurrency();
+      log.info("Warming up dispatcher with {} connections", connections);
+      dispatcher.warmUp(connections);
+    }
+  }
+
+  /**
+   * Estimate the connections opened as the replay starts, from the first seconds of the capture, for every copy
+   * starting within them.
+   */
+  private int estimateInitialConcurrency() throws IOException {
+    long windowMillis = TimeUnit.SECONDS.toMillis(WARM_UP_WINDOW_SECONDS);
+    RequestReader reader = new DefaultRequestReader(recordingFile, uploadLocation, keepAlive);
+    int connections = InitialConcurrency.estimate(reader, new SessionPartitioner(partition), windowMillis);
+    int copiesStarted = 0 == copyOffset ? copies : (int) Math.min(copies, (windowMillis + copyOffset - 1) / copyOffset);
+    return connections * copiesStarted;
   }
 
   @Override
   protected void triggerShutdown() {
     log.info("Forced shutdown requested, clearing dispatcher queue and shutting down dispatcher");
+    Optional<ClosedLoopScheduler> scheduler = closedLoopScheduler;
+    if (scheduler.isPresent()) {
+      scheduler.get().clear();
+    }
     dispatcher.clearQueue();
     dispatcher.stopAsync();
     dispatcher.awaitTerminated();
@@ -140,6 +396,7 @@ public final class ReplayClient extends AbstractExecutionThreadService {
 
   @Override
   protected void shutDown() throws Exception {
+    resultListener.close();
     group.shutdownGracefully();
   }
 }
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.AbstractExecutionThreadService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Coordinates replay of a capture across several workers, each replaying a {@link ReplayPartition} of the capture.
+ * <p/>
+ * The coordinator waits for the expected number of workers to connect, then assigns each worker a partition and the
+ * delay until replay starts. The assignments are sent together, so workers start at the same time without relying on
+ * synchronized clocks.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+public final class ReplayCoordinator extends AbstractExecutionThreadService {
+  public static final int DEFAULT_PORT = 7450;
+
+  private final int port;
+  private final int workers;
+  private final long startDelayMillis;
+
+  private ServerSocket serverSocket;
+
+  private Logger log = LoggerFactory.getLogger(ReplayCoordinator.class);
+
+  /**
+   * Create a coordinator.
+   *
+   * @param port       the port workers connect to, or 0 for an ephemeral port
+   * @param workers    the number of workers to wait for
+   * @param startDelay the time between the last worker connecting and replay starting, allowing workers to start
+   *                   their dispatchers
+   * @param unit       the unit of the start delay
+   */
+  public ReplayCoordinator(int port, int workers, long startDelay, TimeUnit unit) {
+    checkArgument(port >= 0, "The port must not be negative");
+    checkArgument(workers > 0, "There must be at least one worker");
+    checkArgument(startDelay >= 0, "The start delay must not be negative");
+    checkNotNull(unit);
+    this.port = port;
+    this.workers = workers;
+    this.startDelayMillis = unit.toMillis(startDelay);
+  }
+
+  /**
+   * Get the port workers connect to, once the coordinator is running.
+   */
+  public int getPort() {
+    checkState(null != serverSocket, "The coordinator has not started");
+    return serverSocket.getLocalPort();
+  }
+
+  @Override
+  protected void startUp() throws Exception {
+    serverSocket = new ServerSocket(port);
+    log.info("Waiting for {} workers on port {}", workers, serverSocket.getLocalPort());
+  }
+
+  @Override
+  protected void run() throws Exception {
+    List<Socket> sockets = Lists.newArrayList();
+    try {
+      while (isRunning() && sockets.size() < workers) {
+        Socket socket = serverSocket.accept();
+        log.info("Worker {} of {} connected from {}", sockets.size() + 1, workers, socket.getRemoteSocketAddress());
+        sockets.add(socket);
+      }
+      for (int partition = 0; partition < sockets.size(); partition++) {
+        DataOutputStream out = new DataOutputStream(sockets.get(partition).getOutputStream());
+        out.writeInt(partition);
+        out.writeInt(workers);
+        out.writeLong(startDelayMillis);
+        out.flush();
+      }
+      log.info("Partitions assigned, replay starts in {}ms", startDelayMillis);
+    } catch (SocketException e) {
+      if (isRunning()) {
+        throw e;
+      }
+    } finally {
+      for (Socket socket : sockets) {
+        socket.close();
+      }
+    }
+  }
+
+  @Override
+  protected void triggerShutdown() {
+    try {
+      serverSocket.close();
+    } catch (IOException e) {
+      log.warn("Failed to close coordinator socket", e);
+    }
+  }
+
+  @Override
+  protected void shutDown() throws Exception {
+    serverSocket.close();
+  }
+}
@@ -17,6 +17,9 @@
 
 package io.groundhog.replay;
 
+import com.google.common.base.Optional;
+import com.google.common.net.HostAndPort;
+import com.google.common.util.concurrent.SettableFuture;
 import io.netty.buffer.ByteBuf;
 import io.netty.handler.codec.http.*;
 
@@ -25,8 +28,9 @@ import io.netty.handler.codec.http.*;
  * @since 1.0
  */
 public final class ReplayFullHttpRequest extends ReplayHttpRequest implements FullHttpRequest {
-  public ReplayFullHttpRequest(FullHttpRequest request, HttpResponse expectedResponse, UserAgent userAgent, boolean blocking) {
-    super(request, expectedResponse, userAgent, blocking);
+  public ReplayFullHttpRequest(FullHttpRequest request, UserAgentRequest uaRequest, UserAgent userAgent, Optional<HostAndPort> backend,
+                               int copy, Optional<SettableFuture<Void>> completion, long intendedStartNanos) {
+    super(request, uaRequest, userAgent, backend, copy, completion, intendedStartNanos);
   }
 
   @Override
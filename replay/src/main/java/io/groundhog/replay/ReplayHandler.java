@@ -22,15 +22,13 @@ import com.google.inject.assistedinject.Assisted;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.*;
 import io.netty.handler.codec.http.*;
-import io.netty.handler.ssl.SslHandler;
 import io.netty.handler.stream.ChunkedWriteHandler;
 import io.netty.handler.timeout.ReadTimeoutHandler;
-import org.jsoup.nodes.Document;
+import io.netty.util.ReferenceCountUtil;
 
 import javax.inject.Inject;
 import javax.inject.Named;
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLEngine;
+import java.nio.channels.ClosedChannelException;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -46,30 +44,34 @@ public final class ReplayHandler extends ChannelDuplexHandler {
   private ReplayHttpRequest request;
   private HttpResponse response;
   private HttpResponse expectedResponse;
-  private long started;
+  private long sentNanos;
+  private boolean inFlight;
+  private Optional<Backend> backend = Optional.absent();
   private final AtomicInteger bytesRead = new AtomicInteger();
+  private int contentBytes;
+  private InspectedContentDecompressor inflater;
   private final int socketTimeout;
 
   @Inject
-  ReplayHandler(@Assisted ChannelPipeline pipeline, UserAgentHandler userAgentHandler, ReplayResultListener resultListener, @Named("usessl") boolean useSSL, @Named("socketReadTimeout") int socketTimeout) throws Exception {
+  ReplayHandler(@Assisted ChannelPipeline pipeline, UserAgentHandler userAgentHandler, @Named("notifying") ReplayResultListener resultListener, @Named("usessl") boolean useSSL, ReplaySslContext sslContext, @Named("socketReadTimeout") int socketTimeout) throws Exception {
     checkNotNull(pipeline);
+    checkNotNull(sslContext);
     this.userAgentHandler = checkNotNull(userAgentHandler);
     this.resultListener = checkNotNull(resultListener);
     this.socketTimeout = socketTimeout;
-    initPipeline(pipeline, useSSL);
+    initPipeline(pipeline, useSSL, sslContext);
   }
 
-  private void initPipeline(ChannelPipeline p, boolean useSSL) throws Exception {
+  private void initPipeline(ChannelPipeline p, boolean useSSL, ReplaySslContext sslContext) throws Exception {
     p.addLast("bytesRead", new BytesReadHandler());
     if (useSSL) {
-      SSLContext context = SSLContext.getInstance("TLS");
-      context.init(null, null, null);
-      SSLEngine engine = context.createSSLEngine();
-      engine.setUseClientMode(true);
-      p.addLast("ssl", new SslHandler(engine));
+      // Sessions are resumed per peer, so engines are created for the backend the connection is opened to
+      Optional<Backend> backend = Backend.get(p.channel());
+      p.addLast("ssl", backend.isPresent() ? sslContext.newHandler(backend.get().getHostAndPort()) : sslContext.newHandler());
     }
-    p.addLast("codec", new HttpClientCodec());
-    p.addLast("inflater", new HttpContentDecompressor());
+    p.addLast("codec", new ReplayHttpClientCodec());
+    inflater = new InspectedContentDecompressor(userAgentHandler);
+    p.addLast("inflater", inflater);
     p.addLast("chunkedWriter", new ChunkedWriteHandler());
     p.addLast("readTimeoutHandler", new ReadTimeoutHandler(this.socketTimeout));
     p.addLast("ua", userAgentHandler);
@@ -82,9 +84,23 @@ public final class ReplayHandler extends ChannelDuplexHandler {
     checkNotNull(msg);
     checkNotNull(promise);
     if (msg instanceof ReplayHttpRequest) {
-      started = System.currentTimeMillis();
+      sentNanos = System.nanoTime();
       request = (ReplayHttpRequest) msg;
       expectedResponse = request.getExpectedResponse();
+      response = null;
+      bytesRead.set(0);
+      contentBytes = 0;
+      final Channel channel = ctx.channel();
+      promise.addListener(new ChannelFutureListener() {
+        @Override
+        public void operationComplete(ChannelFuture future) throws Exception {
+          // Requests that fail to be written are reported by their writer, so are never in flight, and don't count
+          // towards their backend
+          if (future.isSuccess()) {
+            started(channel);
+          }
+        }
+      });
     } else if (msg instanceof HttpRequest) {
       throw new IllegalStateException("A request was handled that did not extend ReplayHttpRequest: " + msg.getClass());
     }
@@ -95,17 +111,68 @@ public final class ReplayHandler extends ChannelDuplexHandler {
   public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
     checkNotNull(ctx);
     checkNotNull(msg);
+    try {
+      read(ctx, msg);
+    } finally {
+      ReferenceCountUtil.release(msg);
+    }
+  }
+
+  private void read(ChannelHandlerContext ctx, Object msg) {
     if (msg instanceof HttpResponse) {
       response = (HttpResponse) msg;
-    } else if (msg instanceof LastHttpContent) {
-      long ended = System.currentTimeMillis();
-      Optional<Document> document = ((ReplayLastHttpContent) msg).getDocument();
+    }
+    if (msg instanceof HttpContent) {
+      // Content that isn't inspected is released here without being decompressed
+      contentBytes += ((HttpContent) msg).content().readableBytes();
+    }
+    if (msg instanceof LastHttpContent) {
+      RequestTiming timing = new RequestTiming(request.getIntendedStartNanos(), sentNanos, System.nanoTime(), System.currentTimeMillis());
+      ResponseSize size = new ResponseSize(bytesRead.get(), contentBytes, inflater.isDecompressing());
+      Optional<ResponsePage> page = ((ReplayLastHttpContent) msg).getPage();
       Optional<String> failure = getFailure(response, expectedResponse);
       UserAgent userAgent = request.getUserAgent();
       if (failure.isPresent()) {
-        resultListener.failure(failure.get(), request, response, userAgent, bytesRead.get(), started, ended, document);
+        resultListener.failure(failure.get(), request, response, userAgent, size, timing, page);
       } else {
-        resultListener.success(request, response, userAgent, bytesRead.get(), started, ended, document);
+        resultListener.success(request, response, userAgent, size, timing, page);
+      }
+      completed();
+      releaseChannel(ctx);
+    }
+  }
+
+  /**
+   * Count the request as outstanding on the backend the connection was opened to, once it has been written, until it
+   * completes.
+   */
+  private void started(Channel channel) {
+    inFlight = true;
+    backend = Backend.get(channel);
+    if (backend.isPresent()) {
+      backend.get().requestStarted();
+    }
+  }
+
+  private void completed() {
+    inFlight = false;
+    if (backend.isPresent()) {
+      backend.get().requestCompleted();
+    }
+  }
+
+  /**
+   * Return a persistent connection to its pool once the response has been read, or close it if it can't be reused.
+   * Connections that aren't persistent are left for the target to close.
+   */
+  private void releaseChannel(ChannelHandlerContext ctx) {
+    if (request.isKeepAlive()) {
+      Channel channel = ctx.channel();
+      Optional<UserAgentChannelPool> channelPool = UserAgentChannelPool.getPool(channel);
+      if (channelPool.isPresent() && HttpHeaders.isKeepAlive(response)) {
+        channelPool.get().release(channel);
+      } else {
+        ctx.close();
       }
     }
   }
@@ -134,11 +201,27 @@ public final class ReplayHandler extends ChannelDuplexHandler {
     checkNotNull(ctx);
     //noinspection ThrowableResultOfMethodCallIgnored
     checkNotNull(cause);
-    HttpRequest failedRequest = null == request ? new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "No HTTP request written") : request;
-    resultListener.failure(failedRequest, Optional.of(request.getUserAgent()), Optional.of(cause));
+    if (!inFlight) {
+      // An idle persistent or warm connection has failed or timed out, which doesn't affect any request
+      ctx.close();
+      return;
+    }
+    resultListener.failure(request, Optional.of(request.getUserAgent()), Optional.of(cause));
+    completed();
     ctx.close();
   }
 
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+    checkNotNull(ctx);
+    if (inFlight) {
+      // The target may close a persistent connection at any time, including after a request has been written to it
+      completed();
+      resultListener.failure(request, Optional.of(request.getUserAgent()), Optional.<Throwable>of(new ClosedChannelException()));
+    }
+    super.channelInactive(ctx);
+  }
+
   private class BytesReadHandler extends ChannelInboundHandlerAdapter {
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
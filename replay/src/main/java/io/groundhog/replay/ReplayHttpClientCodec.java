@@ -0,0 +1,79 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.groundhog.replay;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.CombinedChannelDuplexHandler;
+import io.netty.handler.codec.http.*;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * A client codec that writes the pre-encoded prelude of a {@link ReplayHttpRequest} in place of the request line and
+ * the static headers, leaving only the headers set at send time to be encoded.
+ * <p/>
+ * Like {@link HttpClientCodec}, the methods of written requests are tracked so responses to {@code HEAD} requests are
+ * decoded without content.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+public final class ReplayHttpClientCodec extends CombinedChannelDuplexHandler<HttpResponseDecoder, HttpRequestEncoder> {
+  private final Queue<HttpMethod> methods = new ArrayDeque<>();
+
+  public ReplayHttpClientCodec() {
+    init(new Decoder(), new Encoder());
+  }
+
+  private final class Encoder extends HttpRequestEncoder {
+    @Override
+    protected void encode(ChannelHandlerContext ctx, Object msg, List<Object> out) throws Exception {
+      if (msg instanceof HttpRequest) {
+        methods.offer(((HttpRequest) msg).getMethod());
+      }
+      super.encode(ctx, msg, out);
+    }
+
+    @Override
+    protected void encodeInitialLine(ByteBuf buf, HttpRequest request) throws Exception {
+      if (request instanceof ReplayHttpRequest) {
+        ByteBuf prelude = ((ReplayHttpRequest) request).getPrelude();
+        if (prelude.isReadable()) {
+          buf.writeBytes(prelude, prelude.readerIndex(), prelude.readableBytes());
+          return;
+        }
+      }
+      super.encodeInitialLine(buf, request);
+    }
+  }
+
+  private final class Decoder extends HttpResponseDecoder {
+    @Override
+    protected boolean isContentAlwaysEmpty(HttpMessage msg) {
+      int statusCode = ((HttpResponse) msg).getStatus().code();
+      if (HttpResponseStatus.CONTINUE.code() == statusCode) {
+        return true;
+      }
+      HttpMethod method = methods.poll();
+      return HttpMethod.HEAD.equals(method) || super.isContentAlwaysEmpty(msg);
+    }
+  }
+}
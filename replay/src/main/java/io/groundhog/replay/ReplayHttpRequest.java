@@ -17,26 +17,46 @@
 
 package io.groundhog.replay;
 
+import com.google.common.base.Optional;
+import com.google.common.net.HostAndPort;
+import com.google.common.util.concurrent.SettableFuture;
+import io.netty.buffer.ByteBuf;
 import io.netty.handler.codec.DecoderResult;
 import io.netty.handler.codec.http.*;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
+ * A request being replayed for a {@link UserAgent}. The request line and static headers of the {@link UserAgentRequest}
+ * it was created from are written from the request prelude, so {@link #headers()} contains only the headers set at
+ * send time.
+ *
  * @author Danny Thomas
  * @since 1.0
  */
 public class ReplayHttpRequest implements HttpRequest {
   protected final HttpRequest request;
+  private final UserAgentRequest uaRequest;
   private final HttpResponse expectedResponse;
   private final UserAgent userAgent;
-  private final boolean blocking;
-
-  public ReplayHttpRequest(HttpRequest request, HttpResponse expectedResponse, UserAgent userAgent, boolean blocking) {
+  private final Optional<HostAndPort> backend;
+  private final int copy;
+  private final Optional<SettableFuture<Void>> completion;
+  private final long intendedStartNanos;
+  private final AtomicBoolean completed = new AtomicBoolean();
+
+  public ReplayHttpRequest(HttpRequest request, UserAgentRequest uaRequest, UserAgent userAgent, Optional<HostAndPort> backend,
+                           int copy, Optional<SettableFuture<Void>> completion, long intendedStartNanos) {
     this.request = checkNotNull(request);
-    this.expectedResponse = checkNotNull(expectedResponse);
+    this.uaRequest = checkNotNull(uaRequest);
+    this.expectedResponse = uaRequest.getExpectedResponse().get();
     this.userAgent = checkNotNull(userAgent);
-    this.blocking = blocking;
+    this.backend = checkNotNull(backend);
+    this.copy = copy;
+    this.completion = checkNotNull(completion);
+    this.intendedStartNanos = intendedStartNanos;
   }
 
   @Override
@@ -92,6 +112,18 @@ public class ReplayHttpRequest implements HttpRequest {
     request.setDecoderResult(result);
   }
 
+  public UserAgentRequest getUserAgentRequest() {
+    return uaRequest;
+  }
+
+  public boolean isKeepAlive() {
+    return uaRequest.isKeepAlive();
+  }
+
+  public ByteBuf getPrelude() {
+    return uaRequest.getPrelude();
+  }
+
   public HttpResponse getExpectedResponse() {
     return expectedResponse;
   }
@@ -100,7 +132,39 @@ public class ReplayHttpRequest implements HttpRequest {
     return userAgent;
   }
 
-  public boolean isBlocking() {
-    return blocking;
+  /**
+   * Get the backend of the target this request was sent to, or absent if it wasn't sent to a {@link Backend}.
+   */
+  public Optional<HostAndPort> getBackend() {
+    return backend;
+  }
+
+  /**
+   * Get the copy of the capture this request was replayed for.
+   */
+  public int getCopy() {
+    return copy;
+  }
+
+  /**
+   * Signal that this request has completed, to the requests that depend on it.
+   *
+   * @return true if this is the first time the request was completed
+   */
+  public boolean complete() {
+    if (!completed.compareAndSet(false, true)) {
+      return false;
+    }
+    if (completion.isPresent()) {
+      completion.get().set(null);
+    }
+    return true;
+  }
+
+  /**
+   * Get the {@link System#nanoTime()} this request was intended to be sent.
+   */
+  public long getIntendedStartNanos() {
+    return intendedStartNanos;
   }
 }
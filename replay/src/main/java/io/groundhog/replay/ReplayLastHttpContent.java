@@ -19,12 +19,11 @@ package io.groundhog.replay;
 
 import com.google.common.base.Optional;
 import io.netty.handler.codec.http.LastHttpContent;
-import org.jsoup.nodes.Document;
 
 /**
  * @author Danny Thomas
  * @since 1.0
  */
 public interface ReplayLastHttpContent extends LastHttpContent {
-  Optional<Document> getDocument();
+  Optional<ResponsePage> getPage();
 }
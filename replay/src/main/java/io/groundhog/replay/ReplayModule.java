@@ -1,9 +1,13 @@
 package io.groundhog.replay;
 
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
 import com.google.common.net.HostAndPort;
+import com.google.inject.TypeLiteral;
 import com.google.inject.name.Names;
 
 import java.io.File;
+import java.util.List;
 
 /**
  * @author Michael Olague
@@ -16,13 +20,38 @@ public final class ReplayModule extends AbstractReplayModule {
     File captureFile = new File("/tmp/Dannys-MacBook-Pro.local-1400874087859/capture.har.gz");
     String hostname = "localhost";
     int port = 8080;
+    List<HostAndPort> backends = ImmutableList.of();
     int socketTimeout = 0;
     int connectionTimeout = 0;
+    boolean keepAlive = false;
+    boolean warmUp = false;
+    TimeDilation timeDilation = TimeDilation.NONE;
+    ArrivalRate arrivalRate = ArrivalRate.CAPTURED;
+    int copies = 1;
+    int copyOffset = 0;
+    int saturationConcurrency = 0;
+    CapacitySearch capacitySearch = CapacitySearch.NONE;
+    Optional<HostAndPort> coordinator = Optional.absent();
     bind(File.class).toInstance(captureFile);
     bind(HostAndPort.class).annotatedWith(Names.named("target")).toInstance(HostAndPort.fromParts(hostname, port));
+    bind(new TypeLiteral<List<HostAndPort>>() {}).annotatedWith(Names.named("backends")).toInstance(backends);
     bind(boolean.class).annotatedWith(Names.named("usessl")).toInstance(false);
     bind(Integer.class).annotatedWith(Names.named("connectionTimeout")).toInstance(connectionTimeout) ;
     bind(Integer.class).annotatedWith(Names.named("socketReadTimeout")).toInstance(socketTimeout);
-    bind(ReplayResultListener.class).to(LoggingResultListener.class);
+    bind(boolean.class).annotatedWith(Names.named("keepAlive")).toInstance(keepAlive);
+    bind(boolean.class).annotatedWith(Names.named("warmUp")).toInstance(warmUp);
+    bind(TimeDilation.class).toInstance(timeDilation);
+    bind(ArrivalRate.class).toInstance(arrivalRate);
+    bind(Integer.class).annotatedWith(Names.named("copies")).toInstance(copies);
+    bind(Integer.class).annotatedWith(Names.named("copyOffset")).toInstance(copyOffset);
+    bind(Integer.class).annotatedWith(Names.named("saturationConcurrency")).toInstance(saturationConcurrency);
+    bind(CapacitySearch.class).toInstance(capacitySearch);
+    if (coordinator.isPresent()) {
+      bind(ReplayPartition.class).toProvider(new CoordinatedPartitionProvider(coordinator.get()));
+    } else {
+      bind(ReplayPartition.class).toInstance(ReplayPartition.ALL);
+    }
+    bind(File.class).annotatedWith(Names.named("statisticsReport")).toInstance(new File(captureFile.getParentFile(), "statistics.tsv"));
+    bind(ReplayResultListener.class).to(StatisticsResultListener.class);
   }
 }
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay;
+
+import com.google.common.base.Objects;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The partition of a capture replayed by a worker, when replay is distributed across several workers by a
+ * {@link ReplayCoordinator}.
+ * <p/>
+ * Every worker reads the whole capture, and replays only the sessions in its partition, as assigned by a
+ * {@link SessionPartitioner}. Workers share a start time, so the aggregate load matches the capture.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+public final class ReplayPartition {
+  /**
+   * The whole capture, replayed by a single worker, starting immediately.
+   */
+  public static final ReplayPartition ALL = new ReplayPartition(0, 1, false, 0);
+
+  private final int partition;
+  private final int partitions;
+  private final boolean synchronizedStart;
+  private final long startNanos;
+
+  private ReplayPartition(int partition, int partitions, boolean synchronizedStart, long startNanos) {
+    checkArgument(partitions > 0, "There must be at least one partition");
+    checkArgument(partition >= 0 && partition < partitions, "The partition must be between 0 and %s", partitions - 1);
+    this.partition = partition;
+    this.partitions = partitions;
+    this.synchronizedStart = synchronizedStart;
+    this.startNanos = startNanos;
+  }
+
+  /**
+   * A partition of the capture, starting after a delay.
+   *
+   * @param partition  the index of this partition
+   * @param partitions the number of partitions the capture is split into
+   * @param startDelay the time until replay should start
+   * @param unit       the unit of the start delay
+   */
+  public static ReplayPartition of(int partition, int partitions, long startDelay, TimeUnit unit) {
+    checkNotNull(unit);
+    return new ReplayPartition(partition, partitions, true, System.nanoTime() + unit.toNanos(startDelay));
+  }
+
+  @Override
+  public String toString() {
+    Objects.ToStringHelper helper = Objects.toStringHelper(this);
+    helper.add("partition", partition);
+    helper.add("partitions", partitions);
+    return helper.toString();
+  }
+
+  public int getPartition() {
+    return partition;
+  }
+
+  public int getPartitions() {
+    return partitions;
+  }
+
+  /**
+   * Block until the shared start time of all partitions.
+   *
+   * @return the time by which the start time had already passed, in nanoseconds, or zero if it hadn't
+   */
+  public long awaitStart() throws InterruptedException {
+    if (!synchronizedStart) {
+      return 0;
+    }
+    long remainingNanos = startNanos - System.nanoTime();
+    if (remainingNanos < 0) {
+      return -remainingNanos;
+    }
+    TimeUnit.NANOSECONDS.sleep(remainingNanos);
+    return 0;
+  }
+}
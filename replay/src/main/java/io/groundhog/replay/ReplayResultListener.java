@@ -3,18 +3,23 @@ package io.groundhog.replay;
 import com.google.common.base.Optional;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponse;
-import org.jsoup.nodes.Document;
 
 /**
  * @author Danny Thomas
  * @since 1.0
  */
 public interface ReplayResultListener {
-  void success(HttpRequest request, HttpResponse response, UserAgent userAgent, int bytesRead, long start, long end,
-               Optional<Document> document);
+  void success(HttpRequest request, HttpResponse response, UserAgent userAgent, ResponseSize size, RequestTiming timing,
+               Optional<ResponsePage> page);
 
-  void failure(String failureReason, HttpRequest request, HttpResponse response, UserAgent userAgent, int bytesRead,
-               long start, long end, Optional<Document> document);
+  void failure(String failureReason, HttpRequest request, HttpResponse response, UserAgent userAgent, ResponseSize size,
+               RequestTiming timing, Optional<ResponsePage> page);
 
   void failure(HttpRequest request, Optional<UserAgent> userAgent, Optional<Throwable> cause);
+
+  /**
+   * If the pages reported to this listener must include their {@link org.jsoup.nodes.Document}. Building documents
+   * requires each page to be buffered and parsed in full, so listeners should only require them when they use them.
+   */
+  boolean isDocumentRequired();
 }
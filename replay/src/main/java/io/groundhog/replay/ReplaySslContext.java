@@ -0,0 +1,148 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.net.HostAndPort;
+import com.google.inject.Singleton;
+import io.netty.channel.Channel;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSessionContext;
+import java.security.GeneralSecurityException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The client TLS context shared by every replay connection to the target.
+ * <p/>
+ * Initialising a context for each connection discards its session cache, so every connection pays for a full
+ * handshake. Sharing a context lets connections resume the sessions of earlier connections, which is what browsers
+ * do, and keeps the client's handshake cost from limiting the rate connections can be opened. Engines are created for
+ * the host and port of the backend being connected to, as sessions are only resumed for engines with a peer, and a
+ * session established with one backend can't be resumed by another.
+ * <p/>
+ * Handshakes are counted as full or resumed, so the rate of each can be reported.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+@Singleton
+final class ReplaySslContext {
+  static final int SESSION_CACHE_SIZE = 10000;
+  static final int SESSION_TIMEOUT_SECONDS = 3600;
+  private static final String TLS_1_3 = "TLSv1.3";
+
+  private final HostAndPort hostAndPort;
+  private final Supplier<SSLContext> context;
+  private final AtomicLong fullHandshakes = new AtomicLong();
+  private final AtomicLong resumedHandshakes = new AtomicLong();
+  private final AtomicLong failedHandshakes = new AtomicLong();
+
+  @Inject
+  ReplaySslContext(@Named("target") HostAndPort hostAndPort) {
+    this.hostAndPort = checkNotNull(hostAndPort);
+    // Only initialised once a TLS connection is opened
+    context = Suppliers.memoize(new Supplier<SSLContext>() {
+      @Override
+      public SSLContext get() {
+        try {
+          SSLContext context = SSLContext.getInstance("TLS");
+          context.init(null, null, null);
+          SSLSessionContext sessionContext = context.getClientSessionContext();
+          sessionContext.setSessionCacheSize(SESSION_CACHE_SIZE);
+          sessionContext.setSessionTimeout(SESSION_TIMEOUT_SECONDS);
+          return context;
+        } catch (GeneralSecurityException e) {
+          throw Throwables.propagate(e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Create a handler for a new connection to the target, which counts its handshake once it completes.
+   */
+  SslHandler newHandler() {
+    return newHandler(hostAndPort);
+  }
+
+  /**
+   * Create a handler for a new connection to a backend of the target, which counts its handshake once it completes.
+   */
+  SslHandler newHandler(HostAndPort peer) {
+    checkNotNull(peer);
+    final SSLEngine engine = context.get().createSSLEngine(peer.getHostText(), peer.getPortOrDefault(443));
+    engine.setUseClientMode(true);
+    engine.setEnabledProtocols(getSupportedProtocols(engine));
+    SslHandler handler = new SslHandler(engine);
+    final long startedMillis = System.currentTimeMillis();
+    handler.handshakeFuture().addListener(new GenericFutureListener<Future<Channel>>() {
+      @Override
+      public void operationComplete(Future<Channel> future) throws Exception {
+        if (!future.isSuccess()) {
+          failedHandshakes.incrementAndGet();
+        } else {
+          if (engine.getSession().getCreationTime() < startedMillis) {
+            // A resumed session keeps the creation time of the handshake that established it
+            resumedHandshakes.incrementAndGet();
+          } else {
+            fullHandshakes.incrementAndGet();
+          }
+          // The handler doesn't flush writes made during an abbreviated handshake once it completes
+          future.getNow().flush();
+        }
+      }
+    });
+    return handler;
+  }
+
+  /**
+   * Get the protocols enabled for an engine. {@link SslHandler} predates TLS 1.3, and can stall on resumed TLS 1.3
+   * handshakes, so it is disabled unless it is the only protocol enabled.
+   */
+  private static String[] getSupportedProtocols(SSLEngine engine) {
+    List<String> protocols = Lists.newArrayList(engine.getEnabledProtocols());
+    if (protocols.size() > 1) {
+      protocols.remove(TLS_1_3);
+    }
+    return protocols.toArray(new String[protocols.size()]);
+  }
+
+  long getFullHandshakes() {
+    return fullHandshakes.get();
+  }
+
+  long getResumedHandshakes() {
+    return resumedHandshakes.get();
+  }
+
+  long getFailedHandshakes() {
+    return failedHandshakes.get();
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.net.HostAndPort;
+import io.netty.handler.codec.DecoderResult;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpVersion;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An immutable copy of a replayed request, holding only what results are reported with: the request line, the headers
+ * sent, the transaction label it was captured with and the backend it was sent to. Results hold a copy rather than the
+ * request, so the request, its user agent and its dependents aren't kept while results wait to be reported.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+final class ReportedRequest implements HttpRequest {
+  private final HttpVersion protocolVersion;
+  private final HttpMethod method;
+  private final String uri;
+  private final CapturedHeaders headers;
+  private final Optional<String> transactionLabel;
+  private final Optional<HostAndPort> backend;
+
+  ReportedRequest(HttpVersion protocolVersion, HttpMethod method, String uri, HttpHeaders headers,
+                  Optional<String> transactionLabel, Optional<HostAndPort> backend) {
+    this.protocolVersion = checkNotNull(protocolVersion);
+    this.method = checkNotNull(method);
+    this.uri = checkNotNull(uri);
+    this.headers = CapturedHeaders.of(headers);
+    this.transactionLabel = checkNotNull(transactionLabel);
+    this.backend = checkNotNull(backend);
+  }
+
+  /**
+   * Get a copy of a request for reporting.
+   */
+  static ReportedRequest of(HttpRequest request) {
+    checkNotNull(request);
+    if (request instanceof ReportedRequest) {
+      return (ReportedRequest) request;
+    }
+    return new ReportedRequest(request.getProtocolVersion(), request.getMethod(), request.getUri(),
+        AbstractReplayResultListener.getRequestHeaders(request),
+        Optional.fromNullable(AbstractReplayResultListener.getTransactionLabel(request)),
+        AbstractReplayResultListener.getBackend(request));
+  }
+
+  @Override
+  public String toString() {
+    Objects.ToStringHelper helper = Objects.toStringHelper(this);
+    helper.add("uri", uri);
+    return helper.toString();
+  }
+
+  /**
+   * Get the transaction label of the captured request, if it had one.
+   */
+  Optional<String> getTransactionLabel() {
+    return transactionLabel;
+  }
+
+  /**
+   * Get the backend the request was sent to, or absent if it failed before it was written.
+   */
+  Optional<HostAndPort> getBackend() {
+    return backend;
+  }
+
+  @Override
+  public HttpMethod getMethod() {
+    return method;
+  }
+
+  @Override
+  public HttpRequest setMethod(HttpMethod method) {
+    throw new UnsupportedOperationException("Reported requests are immutable");
+  }
+
+  @Override
+  public String getUri() {
+    return uri;
+  }
+
+  @Override
+  public HttpRequest setUri(String uri) {
+    throw new UnsupportedOperationException("Reported requests are immutable");
+  }
+
+  @Override
+  public HttpVersion getProtocolVersion() {
+    return protocolVersion;
+  }
+
+  @Override
+  public HttpRequest setProtocolVersion(HttpVersion version) {
+    throw new UnsupportedOperationException("Reported requests are immutable");
+  }
+
+  @Override
+  public HttpHeaders headers() {
+    return headers;
+  }
+
+  @Override
+  public DecoderResult getDecoderResult() {
+    return DecoderResult.SUCCESS;
+  }
+
+  @Override
+  public void setDecoderResult(DecoderResult result) {
+    throw new UnsupportedOperationException("Reported requests are immutable");
+  }
+}
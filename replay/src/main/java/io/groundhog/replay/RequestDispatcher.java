@@ -8,11 +8,19 @@ import com.google.common.util.concurrent.Service;
  */
 public interface RequestDispatcher extends Service {
   /**
-   * The number of milliseconds that the dispatcher can skew from real-time, before warnings are logged.
+   * The number of milliseconds that the dispatcher can skew from real-time, before a run is reported as lagging.
    */
   public static final int SKEW_THRESHOLD_MILLIS = 250;
 
   void queue(DelayedUserAgentRequest request) throws InterruptedException;
 
   void clearQueue();
+
+  /**
+   * Open connections to the target ahead of the replay, waiting until they are ready, so requests due as the replay
+   * starts don't all connect at once.
+   *
+   * @param connections the number of connections to open
+   */
+  void warmUp(int connections) throws InterruptedException;
 }
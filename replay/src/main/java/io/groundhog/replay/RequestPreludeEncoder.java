@@ -0,0 +1,129 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.groundhog.replay;
+
+import com.google.common.collect.ImmutableSortedSet;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpRequest;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Encodes the request line and static headers of a request ahead of dispatch, so the event loop only has to encode the
+ * headers that depend on the {@link UserAgent} at send time.
+ * <p/>
+ * Cookies are always left to be set at send time. For requests with a body, the entity headers are also left out, as
+ * the body may be rewritten with values scraped during replay.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+public final class RequestPreludeEncoder {
+  private static final String HOST;
+  private static final String GZIP_OR_DEFLATE = HttpHeaders.Values.GZIP + "," + HttpHeaders.Values.DEFLATE;
+  private static final byte SP = ' ';
+  private static final byte[] CRLF = {'\r', '\n'};
+  private static final byte[] HEADER_SEPARATOR = {':', ' '};
+
+  private static final Set<String> REPLACED_HEADERS = ImmutableSortedSet.orderedBy(String.CASE_INSENSITIVE_ORDER).add(
+      HttpHeaders.Names.HOST, HttpHeaders.Names.CONNECTION, HttpHeaders.Names.ACCEPT_ENCODING, HttpHeaders.Names.COOKIE,
+      HttpHeaders.Names.VIA).build();
+  private static final Set<String> ENTITY_HEADERS = ImmutableSortedSet.orderedBy(String.CASE_INSENSITIVE_ORDER).add(
+      HttpHeaders.Names.CONTENT_LENGTH, HttpHeaders.Names.CONTENT_TYPE, HttpHeaders.Names.TRANSFER_ENCODING).build();
+
+  static {
+    String localHostName;
+    try {
+      localHostName = InetAddress.getLocalHost().getHostName();
+    } catch (UnknownHostException e) {
+      localHostName = "localhost";
+    }
+    HOST = localHostName;
+  }
+
+  private final ByteBufAllocator allocator;
+  private final boolean keepAlive;
+
+  /**
+   * Create an encoder.
+   *
+   * @param allocator the allocator preludes are encoded to
+   * @param keepAlive if requests are sent on persistent connections
+   */
+  public RequestPreludeEncoder(ByteBufAllocator allocator, boolean keepAlive) {
+    this.allocator = checkNotNull(allocator);
+    this.keepAlive = keepAlive;
+  }
+
+  /**
+   * Encode the request line and static headers for a request.
+   *
+   * @param request the captured request
+   * @param hasBody if the body, and the headers that describe it, are to be provided at send time
+   * @return a buffer from this encoder's allocator, which the caller is responsible for releasing
+   */
+  public ByteBuf encode(HttpRequest request, boolean hasBody) {
+    checkNotNull(request);
+    ByteBuf buf = allocator.buffer();
+    HttpHeaders.encodeAscii(request.getMethod().toString(), buf);
+    buf.writeByte(SP);
+    String uri = request.getUri();
+    HttpHeaders.encodeAscii(uri.isEmpty() ? "/" : uri, buf);
+    buf.writeByte(SP);
+    HttpHeaders.encodeAscii(request.getProtocolVersion().toString(), buf);
+    buf.writeBytes(CRLF);
+    for (Map.Entry<String, String> header : getStaticHeaders(request.headers(), hasBody, keepAlive)) {
+      HttpHeaders.encodeAscii(header.getKey(), buf);
+      buf.writeBytes(HEADER_SEPARATOR);
+      HttpHeaders.encodeAscii(header.getValue(), buf);
+      buf.writeBytes(CRLF);
+    }
+    return buf;
+  }
+
+  /**
+   * Get the headers that are sent for every replay of a request, regardless of the {@link UserAgent} replaying it.
+   *
+   * @param capturedHeaders the headers of the captured request
+   * @param hasBody if the headers describing the body should be excluded
+   * @param keepAlive if the request is sent on a persistent connection
+   * @return the static headers
+   */
+  public static HttpHeaders getStaticHeaders(HttpHeaders capturedHeaders, boolean hasBody, boolean keepAlive) {
+    checkNotNull(capturedHeaders);
+    HttpHeaders headers = new DefaultHttpHeaders(false);
+    for (Map.Entry<String, String> header : capturedHeaders) {
+      String name = header.getKey();
+      if (!REPLACED_HEADERS.contains(name) && !(hasBody && ENTITY_HEADERS.contains(name))) {
+        headers.add(name, header.getValue());
+      }
+    }
+    headers.add(HttpHeaders.Names.HOST, HOST);
+    headers.add(HttpHeaders.Names.CONNECTION, keepAlive ? HttpHeaders.Values.KEEP_ALIVE : HttpHeaders.Values.CLOSE);
+    headers.add(HttpHeaders.Names.ACCEPT_ENCODING, GZIP_OR_DEFLATE);
+    return headers;
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay;
+
+import com.google.common.base.Objects;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The timing of a replayed request.
+ * <p/>
+ * Service time is measured from when the request was sent. Latency is measured from when the request was intended to
+ * be sent according to the capture, so time spent waiting on a lagging dispatcher, a connection or prerequisite
+ * requests is included, as it would have been for the user that made the request. Measuring only service time under
+ * load understates latency, as requests delayed by a slow target are not counted until they are sent.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+public final class RequestTiming {
+  private final long intendedStartNanos;
+  private final long sentNanos;
+  private final long endedNanos;
+  private final long endedMillis;
+
+  /**
+   * Create the timing of a request.
+   *
+   * @param intendedStartNanos the {@link System#nanoTime()} the request was intended to be sent
+   * @param sentNanos          the {@link System#nanoTime()} the request was sent
+   * @param endedNanos         the {@link System#nanoTime()} the response was read in full
+   * @param endedMillis        the {@link System#currentTimeMillis()} the response was read in full
+   */
+  public RequestTiming(long intendedStartNanos, long sentNanos, long endedNanos, long endedMillis) {
+    this.intendedStartNanos = intendedStartNanos;
+    this.sentNanos = sentNanos;
+    this.endedNanos = endedNanos;
+    this.endedMillis = endedMillis;
+  }
+
+  @Override
+  public String toString() {
+    Objects.ToStringHelper helper = Objects.toStringHelper(this);
+    helper.add("latencyMillis", getLatency(TimeUnit.MILLISECONDS));
+    helper.add("serviceTimeMillis", getServiceTime(TimeUnit.MILLISECONDS));
+    return helper.toString();
+  }
+
+  /**
+   * Get the time from when the request was intended to be sent, until the response was read.
+   */
+  public long getLatency(TimeUnit unit) {
+    return unit.convert(endedNanos - intendedStartNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Get the time from when the request was sent, until the response was read.
+   */
+  public long getServiceTime(TimeUnit unit) {
+    return unit.convert(endedNanos - sentNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Get the time the request was sent after it was intended to be sent.
+   */
+  public long getSendDelay(TimeUnit unit) {
+    return unit.convert(sentNanos - intendedStartNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Get the wall clock time the request was intended to be sent, in milliseconds.
+   */
+  public long getIntendedStartMillis() {
+    return endedMillis - getLatency(TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Get the wall clock time the request was sent, in milliseconds.
+   */
+  public long getSentMillis() {
+    return endedMillis - getServiceTime(TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Get the wall clock time the response was read in full, in milliseconds.
+   */
+  public long getEndedMillis() {
+    return endedMillis;
+  }
+}
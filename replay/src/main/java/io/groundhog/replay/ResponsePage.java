@@ -0,0 +1,76 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay;
+
+import io.groundhog.har.HttpArchive;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import org.jsoup.nodes.Document;
+
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An HTML page read in response to a request, described by the title and hidden form fields scraped from it as it
+ * was read. The page is only parsed to a {@link Document} if the result listener requires documents.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+public final class ResponsePage {
+  private final String title;
+  private final List<HttpArchive.Param> hiddenFields;
+  private final Optional<Document> document;
+
+  public ResponsePage(String title, List<HttpArchive.Param> hiddenFields, Optional<Document> document) {
+    this.title = checkNotNull(title);
+    this.hiddenFields = ImmutableList.copyOf(hiddenFields);
+    this.document = checkNotNull(document);
+  }
+
+  @Override
+  public String toString() {
+    Objects.ToStringHelper helper = Objects.toStringHelper(this);
+    helper.add("title", title);
+    helper.add("hiddenFields", hiddenFields.size());
+    return helper.toString();
+  }
+
+  /**
+   * Get the title of the page, or an empty string if it has no title.
+   */
+  public String getTitle() {
+    return title;
+  }
+
+  /**
+   * Get the hidden inputs of the forms of the page.
+   */
+  public List<HttpArchive.Param> getHiddenFields() {
+    return hiddenFields;
+  }
+
+  /**
+   * Get the page parsed as a document, present only if {@link ReplayResultListener#isDocumentRequired()}.
+   */
+  public Optional<Document> getDocument() {
+    return document;
+  }
+}
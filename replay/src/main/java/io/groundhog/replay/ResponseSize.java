@@ -0,0 +1,79 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay;
+
+import com.google.common.base.Objects;
+
+/**
+ * The size of a replayed response.
+ * <p/>
+ * Wire bytes are the bytes read from the connection, including the status line and headers, and are what the target
+ * actually sent. Content bytes are the bytes of the response body after the connection's codecs. Bodies are only
+ * decompressed when they will be inspected, so content bytes are the decompressed size of inspected responses, and
+ * the size as sent of all others.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+public final class ResponseSize {
+  private final int wireBytes;
+  private final int contentBytes;
+  private final boolean decompressed;
+
+  /**
+   * Create the size of a response.
+   *
+   * @param wireBytes    the bytes read from the connection for the response
+   * @param contentBytes the bytes of the response body
+   * @param decompressed if the response body was decompressed
+   */
+  public ResponseSize(int wireBytes, int contentBytes, boolean decompressed) {
+    this.wireBytes = wireBytes;
+    this.contentBytes = contentBytes;
+    this.decompressed = decompressed;
+  }
+
+  @Override
+  public String toString() {
+    Objects.ToStringHelper helper = Objects.toStringHelper(this);
+    helper.add("wireBytes", wireBytes);
+    helper.add("contentBytes", contentBytes);
+    helper.add("decompressed", decompressed);
+    return helper.toString();
+  }
+
+  /**
+   * Get the bytes read from the connection for the response.
+   */
+  public int getWireBytes() {
+    return wireBytes;
+  }
+
+  /**
+   * Get the bytes of the response body, after decompression if the body was decompressed.
+   */
+  public int getContentBytes() {
+    return contentBytes;
+  }
+
+  /**
+   * Returns true if the response body was compressed by the target, and decompressed to be inspected.
+   */
+  public boolean isDecompressed() {
+    return decompressed;
+  }
+}
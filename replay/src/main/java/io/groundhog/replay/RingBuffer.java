@@ -0,0 +1,109 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A bounded, lock-free ring buffer, for many producers and a single consumer.
+ * <p/>
+ * Each slot has a sequence number, which tells producers when the slot is free and the consumer when it has been
+ * published. Producers claim a position with a single compare and set, so offering never blocks or allocates.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+final class RingBuffer<E> {
+  private final int mask;
+  private final AtomicReferenceArray<E> elements;
+  private final AtomicLongArray sequences;
+  private final AtomicLong tail;
+
+  /**
+   * The position of the next element to be consumed, only accessed by the consumer.
+   */
+  private long head;
+
+  /**
+   * @param capacity the capacity of the buffer, which must be a power of two
+   */
+  RingBuffer(int capacity) {
+    checkArgument(capacity > 0 && Integer.bitCount(capacity) == 1, "The capacity must be a power of two");
+    mask = capacity - 1;
+    elements = new AtomicReferenceArray<>(capacity);
+    sequences = new AtomicLongArray(capacity);
+    for (int i = 0; i < capacity; i++) {
+      sequences.set(i, i);
+    }
+    tail = new AtomicLong();
+  }
+
+  /**
+   * Add an element to the buffer, if it isn't full.
+   *
+   * @return if the element was added
+   */
+  boolean offer(E element) {
+    checkNotNull(element);
+    long position = tail.get();
+    while (true) {
+      int index = (int) position & mask;
+      long difference = sequences.get(index) - position;
+      if (0 == difference) {
+        if (tail.compareAndSet(position, position + 1)) {
+          elements.lazySet(index, element);
+          sequences.lazySet(index, position + 1);
+          return true;
+        }
+      } else if (difference < 0) {
+        // The slot hasn't been consumed since the previous lap
+        return false;
+      }
+      position = tail.get();
+    }
+  }
+
+  /**
+   * Remove the published elements from the buffer, in the order they were offered. Must only be called by the consumer.
+   *
+   * @param batch       the collection the elements are added to
+   * @param maxElements the most elements to remove
+   * @return the number of elements removed
+   */
+  int drainTo(Collection<? super E> batch, int maxElements) {
+    checkNotNull(batch);
+    int drained = 0;
+    while (drained < maxElements) {
+      int index = (int) head & mask;
+      if (sequences.get(index) != head + 1) {
+        break;
+      }
+      batch.add(elements.get(index));
+      elements.lazySet(index, null);
+      sequences.lazySet(index, head + mask + 1);
+      head++;
+      drained++;
+    }
+    return drained;
+  }
+}
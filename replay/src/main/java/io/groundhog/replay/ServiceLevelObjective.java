@@ -0,0 +1,96 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The latency and error rate the target must sustain for a step of a {@link CapacitySearch} to pass.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+public final class ServiceLevelObjective {
+  private final double percentile;
+  private final long latencyMicros;
+  private final double errorRate;
+
+  private ServiceLevelObjective(double percentile, long latencyMicros, double errorRate) {
+    this.percentile = percentile;
+    this.latencyMicros = latencyMicros;
+    this.errorRate = errorRate;
+  }
+
+  /**
+   * Create an objective.
+   *
+   * @param percentile the percentile of latency that must be within the limit, from 0 to 100
+   * @param latency    the latency limit
+   * @param unit       the unit of the latency limit
+   * @param errorRate  the maximum fraction of requests that may fail, from 0 to 1
+   */
+  public static ServiceLevelObjective of(double percentile, long latency, TimeUnit unit, double errorRate) {
+    checkArgument(percentile > 0 && percentile <= 100, "The percentile must be greater than 0, and at most 100");
+    checkArgument(latency > 0, "The latency limit must be positive");
+    checkNotNull(unit);
+    checkArgument(errorRate >= 0 && errorRate <= 1, "The error rate must be between 0 and 1");
+    return new ServiceLevelObjective(percentile, unit.toMicros(latency), errorRate);
+  }
+
+  @Override
+  public String toString() {
+    Objects.ToStringHelper helper = Objects.toStringHelper(this);
+    helper.add("percentile", percentile);
+    helper.add("latencyMillis", TimeUnit.MICROSECONDS.toMillis(latencyMicros));
+    helper.add("errorRate", errorRate);
+    return helper.toString();
+  }
+
+  public double getPercentile() {
+    return percentile;
+  }
+
+  /**
+   * Get the label of the percentile, such as p99 or p99.9.
+   */
+  String getPercentileLabel() {
+    return "p" + (percentile == Math.rint(percentile) ? String.valueOf((long) percentile) : String.valueOf(percentile));
+  }
+
+  /**
+   * Get how a step broke this objective, or absent if the step met it.
+   */
+  Optional<String> getBreach(CapacityStep step) {
+    checkNotNull(step);
+    double stepErrorRate = step.getErrorRate();
+    if (stepErrorRate > errorRate) {
+      return Optional.of(String.format("error rate of %.2f%% exceeded %.2f%%", stepErrorRate * 100, errorRate * 100));
+    }
+    long stepLatency = step.getLatency().getValueAtPercentile(percentile);
+    if (stepLatency > latencyMicros) {
+      return Optional.of(String.format("%s latency of %dms exceeded %dms", getPercentileLabel(),
+          TimeUnit.MICROSECONDS.toMillis(stepLatency), TimeUnit.MICROSECONDS.toMillis(latencyMicros)));
+    }
+    return Optional.absent();
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Reschedules the sessions of a capture to start at an {@link ArrivalRate}, using the captured sessions as the
+ * workload mix. Each request of a session is shifted by the same amount as the first, so the order of the requests of
+ * a session and the think time between them is preserved. Requests without a session are treated as sessions of their
+ * own.
+ * <p/>
+ * A session is started in the next arrival slot, unless that slot is later than the session started in the capture.
+ * When the rate is lower than the rate sessions were captured, surplus sessions are skipped, so reading the capture
+ * keeps pace with replay, and the requests of started sessions are read in time. When the rate is higher, sessions are
+ * started earlier than they were captured, and the capture is read faster to keep up.
+ * <p/>
+ * Requests must be scheduled in capture order, from a single thread.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+final class SessionArrivalScheduler {
+  private final ArrivalRate arrivalRate;
+  private final long firstRequestTime;
+  private final SessionRouter router;
+  private final Map<String, Optional<Long>> sessionShifts;
+
+  private long arrivals;
+
+  /**
+   * @param arrivalRate      the rate sessions are started
+   * @param firstRequestTime the time of the first request of the capture, which the arrival schedule starts from
+   */
+  SessionArrivalScheduler(ArrivalRate arrivalRate, long firstRequestTime) {
+    this.arrivalRate = checkNotNull(arrivalRate);
+    this.firstRequestTime = firstRequestTime;
+    router = new SessionRouter();
+    sessionShifts = Maps.newHashMap();
+  }
+
+  /**
+   * Get the time a request should be replayed as if it had been sent in the capture, or absent if its session was
+   * skipped.
+   */
+  Optional<Long> schedule(UserAgentRequest request) {
+    checkNotNull(request);
+    long startedDateTime = request.getStartedDateTime();
+    if (arrivalRate.isCaptured()) {
+      return Optional.of(startedDateTime);
+    }
+    Optional<String> session = router.getSession(request);
+    Optional<Long> shift = session.isPresent() ? sessionShifts.get(session.get()) : null;
+    if (null == shift) {
+      shift = arrive(startedDateTime);
+      if (session.isPresent()) {
+        sessionShifts.put(session.get(), shift);
+      }
+    }
+    return shift.isPresent() ? Optional.of(startedDateTime + shift.get()) : Optional.<Long>absent();
+  }
+
+  private Optional<Long> arrive(long startedDateTime) {
+    long captureOffset = startedDateTime - firstRequestTime;
+    long arrivalOffset = arrivalRate.getArrivalOffset(arrivals, TimeUnit.MILLISECONDS);
+    if (arrivalOffset > captureOffset) {
+      return Optional.absent();
+    }
+    arrivals++;
+    return Optional.of(arrivalOffset - captureOffset);
+  }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.groundhog.replay;
+
+import io.groundhog.base.HttpMessages;
+import io.groundhog.har.HttpArchive;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.net.MediaType;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponse;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Builds the causal dependencies between the requests of each session, so a request is only sent once the requests
+ * it depends on have completed, and independent requests are sent without waiting:
+ * <ul>
+ * <li>Requests expected to set the session cookie must complete before any later request of the session, which
+ * carry the cookie they set.</li>
+ * <li>Pages that may contain forms must complete before later form posts of the session, which are sent with the
+ * hidden fields scraped from them. Every pending page is waited for, as later pages may complete before earlier ones.
+ * Recordings that omit the content type of responses are assumed to be pages.</li>
+ * </ul>
+ * Each copy of the capture has its own sessions, so its own dependencies. Requests without a session are
+ * independent. The last request of a session waits for everything earlier requests of the session may be waiting for,
+ * so they are sent before the session's user agent is evicted, and the state of the session is then discarded.
+ * Sessions that never reach their last request, as they were cut off by a window, a partition or the end of the
+ * capture, are discarded once idle for as long as their user agents, in capture time.
+ * <p/>
+ * Dependencies depend on the order requests are seen in, so the requests of a session must be added in capture order.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+final class SessionDependencies {
+  private static final MediaType TEXT_HTML = MediaType.create("text", "html");
+
+  private final SessionRouter router;
+  private final Map<String, SessionState> sessions;
+
+  /**
+   * The capture time reached by the requests added, which sessions expire relative to.
+   */
+  private long captureNanos;
+
+  /**
+   * @param router      the router sessions are followed with, when their cookie is changed
+   * @param idleTimeout the capture time after which the state of an idle session is discarded
+   * @param unit        the unit of the idle timeout
+   */
+  SessionDependencies(SessionRouter router, long idleTimeout, TimeUnit unit) {
+    this.router = checkNotNull(router);
+    checkArgument(idleTimeout >= 0, "The idle timeout must not be negative");
+    checkNotNull(unit);
+    // Only accessed while synchronized, so the ticker reads the capture time without further synchronization
+    sessions = CacheBuilder.newBuilder().concurrencyLevel(1)
+        .expireAfterAccess(idleTimeout, unit)
+        .ticker(new Ticker() {
+          @Override
+          public long read() {
+            return captureNanos;
+          }
+        })
+        .<String, SessionState>build()
+        .asMap();
+  }
+
+  /**
+   * Add a request to the dependencies of its session.
+   *
+   * @param request the request
+   * @param copy    the copy of the capture the request is replayed for
+   */
+  synchronized Dependency add(UserAgentRequest request, int copy) {
+    checkNotNull(request);
+    captureNanos = Math.max(captureNanos, TimeUnit.MILLISECONDS.toNanos(request.getStartedDateTime()));
+    Optional<String> session = router.getSession(request);
+    if (!session.isPresent()) {
+      return Dependency.INDEPENDENT;
+    }
+    String key = session.get() + '#' + copy;
+    SessionState state = sessions.get(key);
+    if (null == state) {
+      state = new SessionState();
+      sessions.put(key, state);
+    }
+
+    ImmutableList.Builder<ListenableFuture<Void>> prerequisites = ImmutableList.builder();
+    addIfPending(prerequisites, state.cookieSetter);
+    if (isFormPost(request) || request.isSessionEnd()) {
+      for (SettableFuture<Void> formPage : state.formPages) {
+        addIfPending(prerequisites, Optional.of(formPage));
+      }
+    }
+    if (request.isSessionEnd()) {
+      sessions.remove(key);
+    }
+
+    Optional<SettableFuture<Void>> completion = Optional.absent();
+    HttpResponse expectedResponse = request.getExpectedResponse().get();
+    boolean setsSession = UserAgentChannelWriter.getSetSessionCookie(expectedResponse).isPresent();
+    boolean formPage = isFormPage(request, expectedResponse);
+    // The user agent of a session is evicted once its last request completes
+    if (setsSession || formPage || request.isSessionEnd()) {
+      completion = Optional.of(SettableFuture.<Void>create());
+      if (setsSession) {
+        state.cookieSetter = completion;
+      }
+      if (formPage) {
+        state.addFormPage(completion.get());
+      }
+    }
+    return new Dependency(prerequisites.build(), completion);
+  }
+
+  private static void addIfPending(ImmutableList.Builder<ListenableFuture<Void>> prerequisites, Optional<SettableFuture<Void>> future) {
+    if (future.isPresent() && !future.get().isDone()) {
+      prerequisites.add(future.get());
+    }
+  }
+
+  private static boolean isFormPost(UserAgentRequest request) {
+    Optional<HttpArchive.PostData> postData = request.getPostData();
+    return HttpMethod.POST.equals(request.getMethod()) && postData.isPresent() && !postData.get().getParams().isEmpty();
+  }
+
+  private static boolean isFormPage(UserAgentRequest request, HttpResponse expectedResponse) {
+    return HttpMethod.GET.equals(request.getMethod()) && (!expectedResponse.headers().contains(HttpHeaders.Names.CONTENT_TYPE) ||
+        HttpMessages.getMediaType(expectedResponse).is(TEXT_HTML));
+  }
+
+  private static final class SessionState {
+    private Optional<SettableFuture<Void>> cookieSetter = Optional.absent();
+    private final List<SettableFuture<Void>> formPages = Lists.newArrayList();
+
+    private void addFormPage(SettableFuture<Void> formPage) {
+      Iterator<SettableFuture<Void>> iterator = formPages.iterator();
+      while (iterator.hasNext()) {
+        if (iterator.next().isDone()) {
+          iterator.remove();
+        }
+      }
+      formPages.add(formPage);
+    }
+  }
+
+  /**
+   * A request's place in the dependencies of its session: the requests it must wait for, and the completion later
+   * requests wait for, if any depend on it.
+   */
+  static final class Dependency {
+    static final Dependency INDEPENDENT = new Dependency(ImmutableList.<ListenableFuture<Void>>of(), Optional.<SettableFuture<Void>>absent());
+
+    private final List<ListenableFuture<Void>> prerequisites;
+    private final Optional<SettableFuture<Void>> completion;
+
+    private Dependency(List<ListenableFuture<Void>> prerequisites, Optional<SettableFuture<Void>> completion) {
+      this.prerequisites = prerequisites;
+      this.completion = completion;
+    }
+
+    /**
+     * Get a future that is done once every prerequisite has completed, successfully or not.
+     */
+    ListenableFuture<List<Void>> getPrerequisites() {
+      return Futures.successfulAsList(prerequisites);
+    }
+
+    Optional<SettableFuture<Void>> getCompletion() {
+      return completion;
+    }
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Maps;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An index of the last request of each session in a capture, built by reading the capture ahead of the replay, so user
+ * agents can be evicted as soon as their session has ended, rather than being held until they expire.
+ * <p/>
+ * Requests are indexed by their position in the capture, and sessions are followed across cookie changes the same way
+ * a {@link SessionRouter} follows them.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+final class SessionEndIndex {
+  private final BitSet sessionEnds;
+  private final int requests;
+  private final int sessions;
+
+  private SessionEndIndex(BitSet sessionEnds, int requests) {
+    this.sessionEnds = sessionEnds;
+    this.requests = requests;
+    sessions = sessionEnds.cardinality();
+  }
+
+  /**
+   * Build an index by reading every request of a capture.
+   *
+   * @param reader a reader positioned at the start of the capture, which is read to the last request
+   */
+  static SessionEndIndex build(RequestReader reader) throws IOException {
+    checkNotNull(reader);
+    SessionRouter router = new SessionRouter();
+    Map<String, Integer> lastRequests = Maps.newHashMap();
+    int position = 0;
+    UserAgentRequest request;
+    do {
+      request = reader.readRequest();
+      request.releasePrelude();
+      Optional<String> session = router.getSession(request);
+      if (session.isPresent()) {
+        lastRequests.put(session.get(), position);
+      }
+      position++;
+    } while (!reader.isLastRequest(request));
+
+    BitSet sessionEnds = new BitSet(position);
+    for (int lastRequest : lastRequests.values()) {
+      sessionEnds.set(lastRequest);
+    }
+    return new SessionEndIndex(sessionEnds, position);
+  }
+
+  /**
+   * If the request at a position in the capture is the last request of its session.
+   */
+  boolean isSessionEnd(int position) {
+    checkArgument(position >= 0, "The position must not be negative");
+    return sessionEnds.get(position);
+  }
+
+  int getRequests() {
+    return requests;
+  }
+
+  int getSessions() {
+    return sessions;
+  }
+}
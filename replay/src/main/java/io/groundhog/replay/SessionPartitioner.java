@@ -0,0 +1,50 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay;
+
+import com.google.common.base.Predicate;
+
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A {@link Predicate} matching the requests of a capture that belong to a {@link ReplayPartition}.
+ * <p/>
+ * Requests are partitioned by session using a {@link SessionRouter}, so every request for a session is replayed by the
+ * same worker. Every worker reads the same capture in the same order, so each request is matched by exactly one
+ * partition.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+public final class SessionPartitioner implements Predicate<UserAgentRequest> {
+  private final ReplayPartition partition;
+  private final SessionRouter router;
+
+  public SessionPartitioner(ReplayPartition partition) {
+    this.partition = checkNotNull(partition);
+    router = new SessionRouter();
+  }
+
+  @Override
+  public boolean apply(@Nullable UserAgentRequest request) {
+    checkNotNull(request);
+    int partitions = partition.getPartitions();
+    return 1 == partitions || partition.getPartition() == router.route(request, 0, partitions);
+  }
+}
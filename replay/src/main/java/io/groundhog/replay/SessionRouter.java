@@ -0,0 +1,102 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import io.netty.handler.codec.http.Cookie;
+import io.netty.handler.codec.http.HttpResponse;
+
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Routes requests to one of several routes by their session cookie, the same cookie that
+ * {@link UserAgentChannelWriter} identifies user agents by, so every request for a user agent takes the same route.
+ * Sessions are followed when their cookie is changed by the application. Requests without a session are routed
+ * round-robin.
+ * <p/>
+ * Routes depend on the order requests are seen in, so requests must be routed in capture order.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+final class SessionRouter {
+  // Must be stable across JVMs, unlike Hashing.goodFastHash, so workers route requests alike
+  private static final HashFunction SESSION_HASH = Hashing.murmur3_32();
+
+  private final Map<String, String> changedSessions;
+
+  private long sequence;
+
+  SessionRouter() {
+    changedSessions = Maps.newHashMap();
+  }
+
+  /**
+   * Route a request.
+   *
+   * @param request the request
+   * @param copy    the copy of the capture the request is replayed for, each copy having its own user agents
+   * @param routes  the number of routes
+   * @return the route, from 0 to routes - 1
+   */
+  synchronized int route(UserAgentRequest request, int copy, int routes) {
+    checkNotNull(request);
+    checkArgument(routes > 0, "There must be at least one route");
+    Optional<String> session = getSession(request);
+    int route;
+    if (session.isPresent()) {
+      route = Hashing.consistentHash(SESSION_HASH.newHasher().putString(session.get(), Charsets.UTF_8).putInt(copy).hash(), routes);
+    } else {
+      route = (int) (sequence % routes);
+    }
+    sequence++;
+    return route;
+  }
+
+  /**
+   * Get the session a request belongs to, or absent if it has no session.
+   */
+  synchronized Optional<String> getSession(UserAgentRequest request) {
+    Optional<String> session = Optional.absent();
+    for (Cookie cookie : request.getCookies()) {
+      if (UserAgentChannelWriter.APPLICATION_SESSION_COOKIE_NAME.equals(cookie.getName())) {
+        String value = cookie.getValue();
+        session = Optional.of(changedSessions.containsKey(value) ? changedSessions.get(value) : value);
+      }
+    }
+    Optional<HttpResponse> expectedResponse = request.getExpectedResponse();
+    if (expectedResponse.isPresent()) {
+      Optional<Cookie> setSessionCookie = UserAgentChannelWriter.getSetSessionCookie(expectedResponse.get());
+      if (setSessionCookie.isPresent()) {
+        String value = setSessionCookie.get().getValue();
+        if (!session.isPresent()) {
+          session = Optional.of(value);
+        } else if (!session.get().equals(value)) {
+          changedSessions.put(value, session.get());
+        }
+      }
+    }
+    return session;
+  }
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.collect.Ordering;
+import com.google.common.io.Files;
+import com.google.common.net.MediaType;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A {@link ReplayResultListener} that aggregates results rather than reporting each one, so it keeps up with thousands
+ * of requests per second.
+ * <p/>
+ * The latency of each result is recorded in a {@link Histogram} for its label, status class and media type. A summary
+ * of the throughput, latency and errors since the last summary is logged at a fixed interval, and once the listener is
+ * closed the statistics for each label are logged and written to a tab separated report.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+@Singleton
+public final class StatisticsResultListener extends AbstractReplayResultListener implements Closeable {
+  private static final int REPORT_INTERVAL_SECONDS = 30;
+  /**
+   * The most labels tracked separately. Results for labels beyond the limit, such as those for URIs with unique query
+   * strings, are combined under {@link #OTHER_LABELS}.
+   */
+  private static final int MAX_LABELS = 1000;
+  private static final int MAX_MEDIA_TYPES = 100;
+  private static final String OTHER_LABELS = "Other labels";
+  private static final String NONE = "-";
+  private static final String[] STATUS_CLASSES = {"1xx", "2xx", "3xx", "4xx", "5xx"};
+  private static final long HIGHEST_TRACKABLE_LATENCY = TimeUnit.MINUTES.toMicros(10);
+
+  private final File reportFile;
+  private final ConcurrentMap<String, LabelStatistics> labels;
+  private final ConcurrentMap<String, String> mediaTypeLabels;
+  private final LabelStatistics total;
+  private final AtomicReference<LabelStatistics> interval;
+  private final ScheduledFuture<?> reportFuture;
+  private final long startedNanos;
+
+  private long lastReportNanos;
+
+  private Logger log = LoggerFactory.getLogger(StatisticsResultListener.class);
+
+  /**
+   * Create a listener, which starts logging interval summaries immediately.
+   *
+   * @param reportFile the file the statistics for each label are written to once the listener is closed
+   */
+  @Inject
+  public StatisticsResultListener(@Named("statisticsReport") File reportFile) {
+    this.reportFile = checkNotNull(reportFile);
+    labels = new ConcurrentHashMap<>();
+    mediaTypeLabels = new ConcurrentHashMap<>();
+    total = new LabelStatistics(NONE, NONE, NONE, Long.MAX_VALUE);
+    interval = new AtomicReference<>(new LabelStatistics(NONE, NONE, NONE, HIGHEST_TRACKABLE_LATENCY));
+    startedNanos = System.nanoTime();
+    lastReportNanos = startedNanos;
+    reportFuture = GlobalEventExecutor.INSTANCE.scheduleAtFixedRate(new Runnable() {
+      @Override
+      public void run() {
+        report();
+      }
+    }, REPORT_INTERVAL_SECONDS, REPORT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+  }
+
+  @Override
+  public void success(HttpRequest request, HttpResponse response, UserAgent userAgent, ResponseSize size,
+                      RequestTiming timing, Optional<ResponsePage> page) {
+    checkNotNull(userAgent);
+    checkNotNull(size);
+    checkNotNull(page);
+    record(request, Optional.of(response), Optional.of(timing), false);
+  }
+
+  @Override
+  public void failure(String failureReason, HttpRequest request, HttpResponse response, UserAgent userAgent,
+                      ResponseSize size, RequestTiming timing, Optional<ResponsePage> page) {
+    checkNotNull(failureReason);
+    checkNotNull(userAgent);
+    checkNotNull(size);
+    checkNotNull(page);
+    record(request, Optional.of(response), Optional.of(timing), true);
+  }
+
+  @Override
+  public void failure(HttpRequest request, Optional<UserAgent> userAgent, Optional<Throwable> cause) {
+    checkNotNull(userAgent);
+    checkNotNull(cause);
+    record(request, Optional.<HttpResponse>absent(), Optional.<RequestTiming>absent(), true);
+  }
+
+  /**
+   * Stop logging interval summaries, then log and write the statistics for each label.
+   */
+  @Override
+  public void close() {
+    reportFuture.cancel(false);
+    report();
+    double runSeconds = Math.max(1, System.nanoTime() - startedNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+    log.info("Result summary: {} requests, {} requests/s mean. Latency mean {}ms, p50 {}ms, p90 {}ms, p99 {}ms, p99.9 {}ms, max {}ms. {} errors ({}%)",
+        total.requests.get(), String.format("%.1f", total.requests.get() / runSeconds), String.format("%.1f", total.latency.getMean() / 1000),
+        toMillis(total.latency.getValueAtPercentile(50)), toMillis(total.latency.getValueAtPercentile(90)),
+        toMillis(total.latency.getValueAtPercentile(99)), toMillis(total.latency.getValueAtPercentile(99.9)),
+        toMillis(total.latency.getMax()), total.errors.get(), getErrorPercentage(total));
+    List<LabelStatistics> sorted = Ordering.natural().onResultOf(LabelStatistics.TO_KEY).sortedCopy(labels.values());
+    for (LabelStatistics statistics : sorted) {
+      log.info("{} ({}, {}): {} requests, latency p50 {}ms, p99 {}ms, max {}ms. {} errors",
+          statistics.label, statistics.statusClass, statistics.mediaType, statistics.requests.get(),
+          toMillis(statistics.latency.getValueAtPercentile(50)), toMillis(statistics.latency.getValueAtPercentile(99)),
+          toMillis(statistics.latency.getMax()), statistics.errors.get());
+    }
+    try {
+      writeReport(sorted);
+      log.info("Wrote statistics for {} labels to {}", sorted.size(), reportFile);
+    } catch (IOException e) {
+      log.error("Could not write statistics to {}", reportFile, e);
+    }
+  }
+
+  /**
+   * Log the throughput, latency and errors since the last report.
+   */
+  synchronized void report() {
+    long now = System.nanoTime();
+    LabelStatistics last = interval.getAndSet(new LabelStatistics(NONE, NONE, NONE, HIGHEST_TRACKABLE_LATENCY));
+    double intervalSeconds = Math.max(1, now - lastReportNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+    lastReportNanos = now;
+    log.info("Completed {} requests, {} requests/s. Latency p50 {}ms, p90 {}ms, p99 {}ms, max {}ms. {} errors ({}%)",
+        last.requests.get(), String.format("%.1f", last.requests.get() / intervalSeconds),
+        toMillis(last.latency.getValueAtPercentile(50)), toMillis(last.latency.getValueAtPercentile(90)),
+        toMillis(last.latency.getValueAtPercentile(99)), toMillis(last.latency.getMax()), last.errors.get(),
+        getErrorPercentage(last));
+  }
+
+  private void record(HttpRequest request, Optional<HttpResponse> response, Optional<RequestTiming> timing, boolean failed) {
+    checkNotNull(request);
+    String statusClass = NONE;
+    String mediaType = NONE;
+    if (response.isPresent()) {
+      int code = response.get().getStatus().code();
+      statusClass = code >= 100 && code / 100 <= STATUS_CLASSES.length ? STATUS_CLASSES[code / 100 - 1] : String.valueOf(code);
+      mediaType = getMediaTypeLabel(response.get().headers().get(HttpHeaders.Names.CONTENT_TYPE));
+    }
+    long latency = timing.isPresent() ? timing.get().getLatency(TimeUnit.MICROSECONDS) : -1;
+    getStatistics(getLabel(request), statusClass, mediaType).record(latency, failed);
+    interval.get().record(latency, failed);
+    total.record(latency, failed);
+  }
+
+  private LabelStatistics getStatistics(String label, String statusClass, String mediaType) {
+    String key = LabelStatistics.getKey(label, statusClass, mediaType);
+    LabelStatistics statistics = labels.get(key);
+    if (null == statistics) {
+      if (labels.size() >= MAX_LABELS) {
+        label = OTHER_LABELS;
+        key = LabelStatistics.getKey(label, statusClass, mediaType);
+        statistics = labels.get(key);
+        if (null != statistics) {
+          return statistics;
+        }
+      }
+      statistics = new LabelStatistics(label, statusClass, mediaType, HIGHEST_TRACKABLE_LATENCY);
+      LabelStatistics existing = labels.putIfAbsent(key, statistics);
+      if (null != existing) {
+        statistics = existing;
+      }
+    }
+    return statistics;
+  }
+
+  /**
+   * Get the label for a content type, caching the label for the first content types seen, as parsing media types for
+   * every result is relatively expensive.
+   */
+  private String getMediaTypeLabel(String contentType) {
+    if (null == contentType || contentType.isEmpty()) {
+      return NONE;
+    }
+    String label = mediaTypeLabels.get(contentType);
+    if (null == label) {
+      try {
+        label = getMediaTypeLabel(MediaType.parse(contentType));
+      } catch (IllegalArgumentException e) {
+        label = "Other";
+      }
+      if (mediaTypeLabels.size() < MAX_MEDIA_TYPES) {
+        mediaTypeLabels.put(contentType, label);
+      }
+    }
+    return label;
+  }
+
+  private void writeReport(List<LabelStatistics> sorted) throws IOException {
+    try (Writer writer = Files.newWriter(reportFile, Charsets.UTF_8)) {
+      writer.write("label\tstatus\ttype\trequests\terrors\tmean ms\tp50 ms\tp90 ms\tp99 ms\tmax ms\n");
+      for (LabelStatistics statistics : sorted) {
+        Histogram latency = statistics.latency;
+        writer.write(String.format("%s\t%s\t%s\t%d\t%d\t%.1f\t%d\t%d\t%d\t%d\n", statistics.label.replace('\t', ' '),
+            statistics.statusClass, statistics.mediaType, statistics.requests.get(), statistics.errors.get(),
+            latency.getMean() / 1000, toMillis(latency.getValueAtPercentile(50)), toMillis(latency.getValueAtPercentile(90)),
+            toMillis(latency.getValueAtPercentile(99)), toMillis(latency.getMax())));
+      }
+    }
+  }
+
+  private static String getErrorPercentage(LabelStatistics statistics) {
+    return String.format("%.2f", statistics.errors.get() * 100d / Math.max(1, statistics.requests.get()));
+  }
+
+  private static long toMillis(long micros) {
+    return TimeUnit.MICROSECONDS.toMillis(micros);
+  }
+
+  /**
+   * The results recorded for a label, status class and media type.
+   */
+  private static final class LabelStatistics {
+    private static final Function<LabelStatistics, String> TO_KEY = new Function<LabelStatistics, String>() {
+      @Override
+      public String apply(LabelStatistics statistics) {
+        return getKey(statistics.label, statistics.statusClass, statistics.mediaType);
+      }
+    };
+
+    private final String label;
+    private final String statusClass;
+    private final String mediaType;
+    private final Histogram latency;
+    private final AtomicLong requests;
+    private final AtomicLong errors;
+
+    private LabelStatistics(String label, String statusClass, String mediaType, long highestTrackableLatency) {
+      this.label = label;
+      this.statusClass = statusClass;
+      this.mediaType = mediaType;
+      latency = new Histogram(highestTrackableLatency);
+      requests = new AtomicLong();
+      errors = new AtomicLong();
+    }
+
+    private static String getKey(String label, String statusClass, String mediaType) {
+      return label + '\u0000' + statusClass + '\u0000' + mediaType;
+    }
+
+    /**
+     * Record a result. Results that failed without a response have no latency, and only count as an error.
+     */
+    private void record(long latencyMicros, boolean failed) {
+      requests.incrementAndGet();
+      if (failed) {
+        errors.incrementAndGet();
+      }
+      if (latencyMicros >= 0) {
+        latency.record(latencyMicros);
+      }
+    }
+  }
+}
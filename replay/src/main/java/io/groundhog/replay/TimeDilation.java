@@ -0,0 +1,108 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.groundhog.replay;
+
+import com.google.common.base.Objects;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Maps the time elapsed in a capture to the time elapsed during replay, speeding up or slowing down replay.
+ * <p/>
+ * The speed may be ramped linearly over a period of replay time, after which the final speed is held. Every request
+ * is shifted by the same mapping, so the order of requests, and the requests of each user agent, is preserved.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+public final class TimeDilation {
+  /**
+   * Replay in real time.
+   */
+  public static final TimeDilation NONE = constant(1);
+
+  private final double initialSpeed;
+  private final double finalSpeed;
+  private final double rampNanos;
+  private final double rampCaptureNanos;
+
+  private TimeDilation(double initialSpeed, double finalSpeed, long rampNanos) {
+    checkArgument(initialSpeed > 0 && finalSpeed > 0, "Speeds must be positive");
+    checkArgument(rampNanos >= 0, "The ramp duration must not be negative");
+    this.initialSpeed = initialSpeed;
+    this.finalSpeed = finalSpeed;
+    this.rampNanos = rampNanos;
+    rampCaptureNanos = (initialSpeed + finalSpeed) / 2 * rampNanos;
+  }
+
+  /**
+   * Replay at a constant speed.
+   *
+   * @param speed the speed, relative to the capture. For instance, 2 replays twice as fast as the capture
+   */
+  public static TimeDilation constant(double speed) {
+    return new TimeDilation(speed, speed, 0);
+  }
+
+  /**
+   * Replay at a speed ramped linearly from the initial to the final speed, over a period of replay time.
+   *
+   * @param initialSpeed the speed at the start of replay
+   * @param finalSpeed   the speed at the end of the ramp, and for the remainder of replay
+   * @param duration     the duration of the ramp
+   * @param unit         the unit of the duration
+   */
+  public static TimeDilation ramp(double initialSpeed, double finalSpeed, long duration, TimeUnit unit) {
+    checkNotNull(unit);
+    return new TimeDilation(initialSpeed, finalSpeed, unit.toNanos(duration));
+  }
+
+  @Override
+  public String toString() {
+    Objects.ToStringHelper helper = Objects.toStringHelper(this);
+    helper.add("initialSpeed", initialSpeed);
+    helper.add("finalSpeed", finalSpeed);
+    helper.add("rampMillis", TimeUnit.NANOSECONDS.toMillis((long) rampNanos));
+    return helper.toString();
+  }
+
+  /**
+   * Get the time from the start of replay that a request should be sent.
+   *
+   * @param captureOffset the time from the start of the capture that the request was sent
+   * @param unit          the unit of the capture offset
+   * @return the replay offset, in nanoseconds
+   */
+  public long getReplayOffsetNanos(long captureOffset, TimeUnit unit) {
+    checkNotNull(unit);
+    double captureNanos = unit.toNanos(captureOffset);
+    if (captureNanos > rampCaptureNanos) {
+      return (long) (rampNanos + (captureNanos - rampCaptureNanos) / finalSpeed);
+    }
+    if (captureNanos <= 0 || initialSpeed == finalSpeed) {
+      return (long) (captureNanos / initialSpeed);
+    }
+    // Within the ramp, capture time elapsed is the integral of the speed: initialSpeed * t + acceleration / 2 * t^2
+    double halfAcceleration = (finalSpeed - initialSpeed) / rampNanos / 2;
+    double discriminant = initialSpeed * initialSpeed + 4 * halfAcceleration * captureNanos;
+    return (long) ((Math.sqrt(Math.max(0, discriminant)) - initialSpeed) / (2 * halfAcceleration));
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.Weigher;
+import com.google.inject.Singleton;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.DefaultFileRegion;
+import io.netty.handler.stream.ChunkedNioFile;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutionException;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Provides the content of captured uploads to be written to a channel, without copying it through the heap.
+ * <p/>
+ * Small uploads are cached off-heap once read, as the same files tend to be uploaded by many sessions and copies of a
+ * capture. Larger uploads are written from their file, with a {@link io.netty.channel.FileRegion} where the channel
+ * allows the transport to send it directly from the file system cache, or in chunks otherwise.
+ * <p/>
+ * Cached buffers are not released on eviction, as they may be in the process of being written; their memory is freed
+ * once they are no longer reachable.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+@Singleton
+final class UploadStore {
+  static final int MAX_CACHED_FILE_BYTES = 64 * 1024;
+  static final long MAX_CACHED_BYTES = 64 * 1024 * 1024;
+
+  private final LoadingCache<File, ByteBuffer> cache;
+
+  @Inject
+  UploadStore() {
+    this(MAX_CACHED_BYTES);
+  }
+
+  UploadStore(long maxCachedBytes) {
+    cache = CacheBuilder.newBuilder().maximumWeight(maxCachedBytes).weigher(new Weigher<File, ByteBuffer>() {
+      @Override
+      public int weigh(File file, ByteBuffer buffer) {
+        return buffer.capacity();
+      }
+    }).build(new CacheLoader<File, ByteBuffer>() {
+      @Override
+      public ByteBuffer load(File file) throws IOException {
+        return read(file);
+      }
+    });
+  }
+
+  /**
+   * Get the content of an upload.
+   *
+   * @param file     the upload file
+   * @param zeroCopy if the channel the content will be written to supports {@link io.netty.channel.FileRegion}s
+   * @return a {@link io.netty.buffer.ByteBuf}, {@link io.netty.channel.FileRegion} or
+   * {@link io.netty.handler.stream.ChunkedInput} to be written to the channel
+   * @throws IOException if the upload could not be read
+   */
+  Object getContent(File file, boolean zeroCopy) throws IOException {
+    checkNotNull(file);
+    if (file.isFile() && file.length() <= MAX_CACHED_FILE_BYTES) {
+      try {
+        return Unpooled.wrappedBuffer(cache.get(file).duplicate());
+      } catch (ExecutionException e) {
+        Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+        throw Throwables.propagate(e.getCause());
+      }
+    }
+    FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+    return zeroCopy ? new DefaultFileRegion(channel, 0, channel.size()) : new ChunkedNioFile(channel);
+  }
+
+  /**
+   * Get the number of uploads that are cached.
+   */
+  long getCachedCount() {
+    return cache.size();
+  }
+
+  private static ByteBuffer read(File file) throws IOException {
+    try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+      ByteBuffer buffer = ByteBuffer.allocateDirect((int) channel.size());
+      int read;
+      do {
+        read = channel.read(buffer);
+      } while (read >= 0 && buffer.hasRemaining());
+      buffer.flip();
+      return buffer.asReadOnlyBuffer();
+    }
+  }
+}
@@ -18,15 +18,16 @@ public interface UserAgent {
 
   boolean isPersistent();
 
-  void tryBlock(long timeout);
-
-  void releaseBlock();
-
   void setCookies(Collection<Cookie> cookies);
 
   void setOverridePostValues(Collection<HttpArchive.Param> params);
 
   Set<Cookie> getCookiesForUri(String uri);
 
+  /**
+   * Get the encoded {@code Cookie} header for a request, or an empty string if the request has no cookies.
+   */
+  String getCookieHeader(String uri);
+
   Optional<HttpArchive.Param> getOverrideParam(String name);
 }
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.groundhog.replay;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Queues;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.util.AttributeKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A pool of persistent connections owned by a single {@link UserAgent}, limiting the number of open connections to the
+ * target the same way a browser does.
+ * <p/>
+ * Requests are written to an idle connection if one is available, otherwise to a new connection while the pool is
+ * under its limit. Once the limit is reached, requests wait for a connection to be released or closed.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+public final class UserAgentChannelPool {
+  /**
+   * The number of persistent connections per host allowed by current browsers.
+   */
+  public static final int DEFAULT_MAX_CONNECTIONS = 6;
+
+  private static final AttributeKey<UserAgentChannelPool> POOL_KEY = AttributeKey.valueOf(UserAgentChannelPool.class.getName());
+
+  private final ChannelConnector connector;
+  private final int maxConnections;
+  private final Deque<Channel> idle;
+  private final Queue<UserAgentChannelWriter> waiting;
+  private final ChannelFutureListener closeListener;
+
+  private int open;
+  private boolean closed;
+
+  private Logger log = LoggerFactory.getLogger(UserAgentChannelPool.class);
+
+  /**
+   * Create a pool of connections.
+   *
+   * @param connector      the connector new connections are opened with
+   * @param maxConnections the maximum number of connections open at once
+   */
+  public UserAgentChannelPool(ChannelConnector connector, int maxConnections) {
+    checkArgument(maxConnections > 0, "The maximum number of connections must be positive");
+    this.connector = checkNotNull(connector);
+    this.maxConnections = maxConnections;
+    idle = Queues.newArrayDeque();
+    waiting = Queues.newArrayDeque();
+    closeListener = new ChannelFutureListener() {
+      @Override
+      public void operationComplete(ChannelFuture future) throws Exception {
+        closed(future.channel());
+      }
+    };
+  }
+
+  /**
+   * Get the pool a connection belongs to, if it was opened by a pool.
+   */
+  public static Optional<UserAgentChannelPool> getPool(Channel channel) {
+    checkNotNull(channel);
+    return Optional.fromNullable(channel.attr(POOL_KEY).get());
+  }
+
+  @Override
+  public String toString() {
+    Objects.ToStringHelper helper = Objects.toStringHelper(this);
+    synchronized (this) {
+      helper.add("open", open);
+      helper.add("idle", idle.size());
+      helper.add("waiting", waiting.size());
+    }
+    return helper.toString();
+  }
+
+  /**
+   * Write a request to a connection from this pool, once one is available.
+   */
+  public void acquire(UserAgentChannelWriter writer) {
+    checkNotNull(writer);
+    Channel channel;
+    synchronized (this) {
+      channel = pollIdle();
+      if (null == channel) {
+        if (open >= maxConnections) {
+          waiting.add(writer);
+          return;
+        }
+        open++;
+      }
+    }
+    if (null == channel) {
+      log.trace("Opening new connection, {}", this);
+      connect(writer);
+    } else {
+      log.trace("Reusing connection {}, {}", channel, this);
+      write(channel, writer);
+    }
+  }
+
+  /**
+   * Return a connection to this pool once its response has been read in full. The connection is handed to the next
+   * waiting request, otherwise kept idle until the pool is closed.
+   */
+  public void release(Channel channel) {
+    checkNotNull(channel);
+    log.trace("Connection {} released, {}", channel, this);
+    UserAgentChannelWriter writer;
+    synchronized (this) {
+      writer = waiting.poll();
+      if (null == writer && !closed) {
+        idle.push(channel);
+        return;
+      }
+    }
+    if (null == writer) {
+      channel.close();
+    } else {
+      write(channel, writer);
+    }
+  }
+
+  /**
+   * Close this pool. Idle connections are closed before returning, and connections released from here on are closed
+   * once there are no requests waiting for them.
+   */
+  public void close() {
+    for (ChannelFuture future : closeIdle()) {
+      future.awaitUninterruptibly();
+    }
+  }
+
+  /**
+   * Close this pool without waiting for idle connections to close, so it can be closed from an event loop, once its
+   * user agent is no longer needed. Connections released from here on are closed once there are no requests waiting
+   * for them.
+   */
+  public void retire() {
+    closeIdle();
+  }
+
+  /**
+   * Close this pool, dropping any requests waiting for a connection.
+   */
+  public void clear() {
+    List<UserAgentChannelWriter> writers;
+    synchronized (this) {
+      writers = Lists.newArrayList(waiting);
+      waiting.clear();
+    }
+    for (UserAgentChannelWriter writer : writers) {
+      writer.cancel();
+    }
+    close();
+  }
+
+  private List<ChannelFuture> closeIdle() {
+    List<Channel> channels;
+    synchronized (this) {
+      closed = true;
+      channels = Lists.newArrayList(idle);
+      idle.clear();
+    }
+    List<ChannelFuture> futures = Lists.newArrayListWithCapacity(channels.size());
+    for (Channel channel : channels) {
+      futures.add(channel.close());
+    }
+    return futures;
+  }
+
+  private Channel pollIdle() {
+    Channel channel = idle.poll();
+    // The target may have closed an idle connection, before the close listener has removed it
+    while (null != channel && !channel.isActive()) {
+      channel = idle.poll();
+    }
+    return channel;
+  }
+
+  private void closed(Channel channel) {
+    log.trace("Connection {} closed, {}", channel, this);
+    UserAgentChannelWriter writer;
+    synchronized (this) {
+      open--;
+      idle.remove(channel);
+      writer = waiting.poll();
+      if (null != writer) {
+        open++;
+      }
+    }
+    if (null != writer) {
+      connect(writer);
+    }
+  }
+
+  private void connect(UserAgentChannelWriter writer) {
+    ChannelFuture future = connector.connect();
+    Channel channel = future.channel();
+    channel.attr(POOL_KEY).set(this);
+    channel.closeFuture().addListener(closeListener);
+    future.addListener(writer);
+  }
+
+  private static void write(Channel channel, UserAgentChannelWriter writer) {
+    // Listeners of a completed future are notified on the channel's event loop, which the writer relies on
+    channel.newSucceededFuture().addListener(writer);
+  }
+}
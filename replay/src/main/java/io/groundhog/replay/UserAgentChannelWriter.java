@@ -28,7 +28,9 @@ import com.google.common.cache.LoadingCache;
 import com.google.common.collect.FluentIterable;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.Hashing;
+import com.google.common.net.HostAndPort;
 import com.google.common.net.MediaType;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.inject.assistedinject.Assisted;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
@@ -36,14 +38,15 @@ import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.handler.codec.http.*;
 import io.netty.handler.codec.http.multipart.HttpPostRequestEncoder;
+import io.netty.handler.ssl.SslHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
+import javax.inject.Named;
 import java.io.File;
-import java.net.InetAddress;
-import java.net.UnknownHostException;
+import java.io.IOException;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
@@ -53,7 +56,8 @@ import static com.google.common.base.Preconditions.*;
 
 /**
  * A {@link ChannelFutureListener} that writes a {@link UserAgentRequest} to the channel future, and notifies a
- * {@link ReplayResultListener} of failures.
+ * {@link ReplayResultListener} of failures. The completion of the request, awaited by the requests that depend on it, is
+ * signalled when its result is reported, or if it is never sent.
  *
  * @author Danny Thomas
  * @since 1.0
@@ -86,121 +90,170 @@ public final class UserAgentChannelWriter implements ChannelFutureListener {
     }
   };
 
-  private static final String GZIP_OR_DEFLATE = HttpHeaders.Values.GZIP + "," + HttpHeaders.Values.DEFLATE;
-  private static final UserAgent NON_PERSISTENT_UA;
-  private static final String HOST;
+  private static final UserAgent NON_PERSISTENT_UA = new NonPersistentUserAgent();
 
   private final LoadingCache<HashCode, UserAgent> userAgentCache;
 
   private Logger log = LoggerFactory.getLogger(UserAgentChannelWriter.class);
 
-  static {
-    NON_PERSISTENT_UA = new NonPersistentUserAgent();
-    String localHostName;
-    try {
-      localHostName = InetAddress.getLocalHost().getHostName();
-    } catch (UnknownHostException e) {
-      localHostName = "localhost";
-    }
-    HOST = localHostName;
-  }
-
   private final UserAgentRequest uaRequest;
+  private final int copy;
+  private final long intendedStartNanos;
   private final ReplayResultListener resultListener;
+  private final UploadStore uploadStore;
+  private final Optional<SettableFuture<Void>> completion;
   private Optional<UserAgent> userAgent = Optional.absent();
 
   @Inject
-  UserAgentChannelWriter(@Assisted UserAgentRequest uaRequest,
+  UserAgentChannelWriter(@Assisted DelayedUserAgentRequest delayedRequest,
                          @Assisted LoadingCache<HashCode, UserAgent> userAgentCache,
-                         ReplayResultListener resultListener) {
-    this.uaRequest = checkNotNull(uaRequest);
+                         @Assisted Optional<SettableFuture<Void>> completion,
+                         @Named("notifying") ReplayResultListener resultListener,
+                         UploadStore uploadStore) {
+    checkNotNull(delayedRequest);
+    this.uaRequest = delayedRequest.getRequest();
     this.userAgentCache = checkNotNull(userAgentCache);
+    this.copy = delayedRequest.getCopy();
+    this.intendedStartNanos = delayedRequest.getIntendedStartNanos();
+    this.completion = checkNotNull(completion);
     this.resultListener = checkNotNull(resultListener);
+    this.uploadStore = checkNotNull(uploadStore);
   }
 
   @Override
   public void operationComplete(ChannelFuture future) throws Exception {
     checkNotNull(future);
+    if (!future.isSuccess()) {
+      // The connection couldn't be opened, so the request is never written
+      uaRequest.releasePrelude();
+      resultListener.failure(uaRequest, userAgent, Optional.fromNullable(future.cause()));
+      complete();
+      return;
+    }
+    boolean written = false;
     try {
-      HttpRequest request = copyRequest(uaRequest);
+      HttpRequest request = createRequest(uaRequest);
       UserAgent userAgent = getUserAgent();
-      this.userAgent = Optional.of(userAgent);
+      Channel channel = future.channel();
       HttpPostRequestEncoder encoder = null;
+      MultipartBody multipartBody = null;
       Optional<HttpArchive.PostData> postData = uaRequest.getPostData();
       if (postData.isPresent()) {
         String mimeType = postData.get().getMimeType();
         if (MediaType.parse(mimeType).is(MediaType.ANY_TEXT_TYPE)) {
           request = createTextPlainRequest(request, userAgent);
+        } else if (mimeType.startsWith(HttpHeaders.Values.MULTIPART_FORM_DATA)) {
+          multipartBody = createMultipartBody(request, userAgent, channel);
         } else {
-          encoder = new HttpPostRequestEncoder(request, mimeType.startsWith(HttpHeaders.Values.MULTIPART_FORM_DATA));
+          encoder = new HttpPostRequestEncoder(request, false);
           request = preparePostRequest(request, userAgent, encoder);
         }
       }
 
-      HttpResponse expectedResponse = uaRequest.getExpectedResponse().get();
-      boolean blocking = shouldBlock(expectedResponse);
+      Optional<HostAndPort> backend = getBackend(channel);
       if (request instanceof FullHttpRequest) {
-        request = new ReplayFullHttpRequest((FullHttpRequest) request, expectedResponse, userAgent, blocking);
+        request = new ReplayFullHttpRequest((FullHttpRequest) request, uaRequest, userAgent, backend, copy, completion, intendedStartNanos);
       } else {
-        request = new ReplayHttpRequest(request, expectedResponse, userAgent, blocking);
+        request = new ReplayHttpRequest(request, uaRequest, userAgent, backend, copy, completion, intendedStartNanos);
       }
 
-      ChannelWriteFailureListener failureListener = new ChannelWriteFailureListener(request);
-      Channel channel = future.channel();
-      channel.write(request).addListener(failureListener);
-      if (null != encoder && encoder.isChunked()) {
-        channel.writeAndFlush(encoder).addListener(failureListener);
-      } else {
+      // Writes can be queued before they reach the encoder, so the prelude is released once the write completes
+      ChannelFuture requestFuture = channel.write(request).addListener(new PreludeReleaseListener());
+      written = true;
+      ChannelFuture lastFuture;
+      if (null != multipartBody) {
+        lastFuture = multipartBody.write(channel);
+      } else if (null != encoder && encoder.isChunked()) {
+        lastFuture = channel.writeAndFlush(encoder);
+      } else if (request instanceof FullHttpRequest) {
         channel.flush();
+        lastFuture = requestFuture;
+      } else {
+        // End the request, so the connection's encoder is ready for the next request if the connection is persistent
+        lastFuture = channel.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+      }
+      // A failed write fails the writes queued after it once the connection is closed, so the failure of the request is
+      // only reported by the last write
+      if (lastFuture != requestFuture) {
+        requestFuture.addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
       }
+      lastFuture.addListener(new ChannelWriteFailureListener(request));
     } catch (Exception e) {
+      if (!written) {
+        uaRequest.releasePrelude();
+      }
       resultListener.failure(uaRequest, userAgent, Optional.<Throwable>of(e));
+      complete();
     }
   }
 
+  private static Optional<HostAndPort> getBackend(Channel channel) {
+    Optional<Backend> backend = Backend.get(channel);
+    return backend.isPresent() ? Optional.of(backend.get().getHostAndPort()) : Optional.<HostAndPort>absent();
+  }
+
   private HttpRequest preparePostRequest(HttpRequest request, UserAgent userAgent, HttpPostRequestEncoder encoder) throws HttpPostRequestEncoder.ErrorDataEncoderException {
     Optional<HttpArchive.PostData> postData = uaRequest.getPostData();
     List<HttpArchive.Param> params = getPostParamsWithOverrides(postData.get().getParams(), userAgent);
     for (HttpArchive.Param param : params) {
-      if (param.getFileName().isEmpty()) {
-        encoder.addBodyAttribute(param.getName(), param.getValue());
-      } else {
-        File sourceFile = new File(uaRequest.getUploadLocation(), String.format("%s/%s", uaRequest.getStartedDateTime(),
-            param.getFileName()));
-        // isText is true to prevent Content-Transfer-Encoding from being included
-        encoder.addBodyFileUpload(param.getName(), sourceFile, param.getContentType(), true);
-      }
+      encoder.addBodyAttribute(param.getName(), param.getValue());
     }
     return params.isEmpty() ? request : encoder.finalizeRequest();
   }
 
+  /**
+   * Create the body of a multipart request, setting the headers that describe it on the request. Uploads are written
+   * from the {@link UploadStore}, and sent directly from their files when the channel isn't encrypted.
+   *
+   * @return the body, or null if the request has no parameters and is sent without a body
+   */
+  @Nullable
+  private MultipartBody createMultipartBody(HttpRequest request, UserAgent userAgent, Channel channel) throws IOException {
+    Optional<HttpArchive.PostData> postData = uaRequest.getPostData();
+    List<HttpArchive.Param> params = getPostParamsWithOverrides(postData.get().getParams(), userAgent);
+    if (params.isEmpty()) {
+      return null;
+    }
+    File uploadDirectory = new File(uaRequest.getUploadLocation(), String.valueOf(uaRequest.getStartedDateTime()));
+    boolean zeroCopy = null == channel.pipeline().get(SslHandler.class);
+    MultipartBody body = MultipartBody.encode(params, uploadDirectory, uploadStore, channel.alloc(), zeroCopy);
+    body.setHeaders(request);
+    return body;
+  }
+
   private HttpRequest createTextPlainRequest(HttpRequest request, UserAgent userAgent) {
     HttpArchive.PostData postData = uaRequest.getPostData().get();
     checkArgument(!postData.getText().isEmpty(), "Text data expected for text/plain");
     String text = updateDwrSession(request, postData.getText(), userAgent);
-    request = new DefaultFullHttpRequest(request.getProtocolVersion(), request.getMethod(), request.getUri(),
-        Unpooled.copiedBuffer(text, Charsets.UTF_8));
-    setHeaders(request);
-    return request;
+    FullHttpRequest textRequest = new DefaultFullHttpRequest(request.getProtocolVersion(), request.getMethod(),
+        request.getUri(), Unpooled.copiedBuffer(text, Charsets.UTF_8));
+    String contentType = uaRequest.headers().get(HttpHeaders.Names.CONTENT_TYPE);
+    textRequest.headers().set(HttpHeaders.Names.CONTENT_TYPE, null == contentType ? postData.getMimeType() : contentType);
+    HttpHeaders.setContentLength(textRequest, textRequest.content().readableBytes());
+    return textRequest;
   }
 
-  private boolean shouldBlock(HttpResponse expectedResponse) {
-    Optional<Cookie> setSessionCookie = getSetSessionCookie(expectedResponse);
-    if (setSessionCookie.isPresent()) {
-      Optional<Cookie> sessionCookie = getSessionCookie();
-      // Block only if the set cookie is expected to change the session, avoiding unnecessary blocking when an application is Set-Cookie happy
-      if (sessionCookie.isPresent()) {
-        HashCode sessionHash = getCookieValueHash(sessionCookie);
-        HashCode setSessionHash = getCookieValueHash(sessionCookie);
-        return !sessionHash.equals(setSessionHash);
-      } else {
-        return true;
-      }
+  /**
+   * Drop the request without writing it.
+   */
+  public void cancel() {
+    uaRequest.releasePrelude();
+    complete();
+  }
+
+  private void complete() {
+    if (completion.isPresent()) {
+      completion.get().set(null);
     }
-    return false;
   }
 
-  private UserAgent getUserAgent() {
+  /**
+   * Get the user agent the request is written for, resolving it from the session cookies on first use.
+   */
+  UserAgent getUserAgent() {
+    if (userAgent.isPresent()) {
+      return userAgent.get();
+    }
     Optional<Cookie> sessionCookie = getSessionCookie();
     Optional<Cookie> setSessionCookie = getSetSessionCookie(uaRequest.getExpectedResponse().get());
     Optional<UserAgent> requestUserAgent = Optional.absent();
@@ -231,6 +284,21 @@ public final class UserAgentChannelWriter implements ChannelFutureListener {
     return userAgent.get();
   }
 
+  /**
+   * Evict the user agent from the cache, once the last request of its session has completed. Requests that have
+   * already resolved their user agent keep it, and keys the session has stopped using expire once idle.
+   */
+  void evictUserAgent() {
+    Optional<Cookie> sessionCookie = getSessionCookie();
+    if (sessionCookie.isPresent()) {
+      userAgentCache.invalidate(getCookieValueHash(sessionCookie));
+    }
+    Optional<Cookie> setSessionCookie = getSetSessionCookie(uaRequest.getExpectedResponse().get());
+    if (setSessionCookie.isPresent()) {
+      userAgentCache.invalidate(getCookieValueHash(setSessionCookie));
+    }
+  }
+
   private Optional<Cookie> getSessionCookie() {
     return FluentIterable.from(uaRequest.getCookies()).filter(IS_APPLICATION_SESSION_COOKIE).first();
   }
@@ -241,19 +309,24 @@ public final class UserAgentChannelWriter implements ChannelFutureListener {
     return FluentIterable.from(headers).transform(HEADER_TO_COOKIE).filter(IS_APPLICATION_SESSION_COOKIE).last();
   }
 
-  private static HashCode getCookieValueHash(Optional<Cookie> cookie) {
+  private HashCode getCookieValueHash(Optional<Cookie> cookie) {
     return getCookieValueHash(cookie.get());
   }
 
-  private static HashCode getCookieValueHash(Cookie cookie) {
-    return Hashing.goodFastHash(64).hashString(cookie.getValue(), Charsets.UTF_8);
+  /**
+   * Hash a session cookie value, along with the copy of the capture being replayed, so each copy has its own user
+   * agents.
+   */
+  private HashCode getCookieValueHash(Cookie cookie) {
+    return Hashing.goodFastHash(64).newHasher().putString(cookie.getValue(), Charsets.UTF_8).putInt(copy).hash();
   }
 
-  @VisibleForTesting
-  HttpRequest copyRequest(HttpRequest request) {
-    DefaultHttpRequest copiedRequest = new DefaultHttpRequest(request.getProtocolVersion(), request.getMethod(), request.getUri(), false);
-    setHeaders(copiedRequest);
-    return copiedRequest;
+  /**
+   * Create the request to be written. The request line and static headers are written from the request prelude, so
+   * only headers set at send time are added to the request.
+   */
+  private static HttpRequest createRequest(HttpRequest request) {
+    return new DefaultHttpRequest(request.getProtocolVersion(), request.getMethod(), request.getUri(), false);
   }
 
   private List<HttpArchive.Param> getPostParamsWithOverrides(List<HttpArchive.Param> params, UserAgent userAgent) {
@@ -273,21 +346,6 @@ public final class UserAgentChannelWriter implements ChannelFutureListener {
     return params;
   }
 
-  private void setHeaders(HttpRequest request) {
-    HttpHeaders headers = request.headers();
-    headers.add(uaRequest.headers());
-
-    headers.remove(HttpHeaders.Names.HOST);
-    headers.remove(HttpHeaders.Names.CONNECTION);
-    headers.remove(HttpHeaders.Names.ACCEPT_ENCODING);
-    headers.remove(HttpHeaders.Names.COOKIE);
-    headers.remove(HttpHeaders.Names.VIA);
-
-    headers.add(HttpHeaders.Names.HOST, HOST);
-    headers.add(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.CLOSE);
-    headers.add(HttpHeaders.Names.ACCEPT_ENCODING, GZIP_OR_DEFLATE);
-  }
-
   /**
    * Quick and dirty handling of sessions for DWR. We use static sessions, so it's not a problem for Learn.
    * However, dynamic sessions would need to be handled in UserAgentHandler, scraping the js resources per-session for the
@@ -310,6 +368,19 @@ public final class UserAgentChannelWriter implements ChannelFutureListener {
     return text;
   }
 
+  /**
+   * Releases the prelude of the request once its write has completed, successfully or not.
+   */
+  private final class PreludeReleaseListener implements ChannelFutureListener {
+    @Override
+    public void operationComplete(ChannelFuture future) throws Exception {
+      uaRequest.releasePrelude();
+    }
+  }
+
+  /**
+   * Reports the failure of the last write of a request, closing its connection.
+   */
   private final class ChannelWriteFailureListener implements ChannelFutureListener {
     private final HttpRequest request;
 
@@ -321,6 +392,7 @@ public final class UserAgentChannelWriter implements ChannelFutureListener {
     public void operationComplete(ChannelFuture future) throws Exception {
       if (!future.isSuccess()) {
         resultListener.failure(request, userAgent, Optional.fromNullable(future.cause()));
+        future.channel().close();
       }
     }
   }
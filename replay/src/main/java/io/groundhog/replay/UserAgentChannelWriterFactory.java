@@ -17,14 +17,16 @@
 
 package io.groundhog.replay;
 
+import com.google.common.base.Optional;
 import com.google.common.cache.LoadingCache;
 import com.google.common.hash.HashCode;
-import io.netty.channel.ChannelFutureListener;
+import com.google.common.util.concurrent.SettableFuture;
 
 /**
  * @author Danny Thomas
  * @since 1.0
  */
 public interface UserAgentChannelWriterFactory {
-  ChannelFutureListener create(UserAgentRequest uaRequest, LoadingCache<HashCode, UserAgent> userAgentCache);
+  UserAgentChannelWriter create(DelayedUserAgentRequest delayedRequest, LoadingCache<HashCode, UserAgent> userAgentCache,
+                                Optional<SettableFuture<Void>> completion);
 }
@@ -18,11 +18,15 @@
 package io.groundhog.replay;
 
 import com.google.common.hash.HashCode;
+import io.netty.util.concurrent.EventExecutor;
 
 /**
  * @author Danny Thomas
  * @since 1.0
  */
 public interface UserAgentFactory {
-  UserAgent create(HashCode key);
+  /**
+   * Create a user agent, pinned to the loop it will be accessed from.
+   */
+  UserAgent create(HashCode key, EventExecutor loop);
 }
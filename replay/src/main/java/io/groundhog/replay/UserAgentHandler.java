@@ -18,13 +18,10 @@
 package io.groundhog.replay;
 
 import io.groundhog.base.HttpMessages;
-import io.groundhog.har.HttpArchive;
 
 import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
 import com.google.common.collect.FluentIterable;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
 import com.google.common.net.MediaType;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
@@ -33,39 +30,52 @@ import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPromise;
 import io.netty.handler.codec.http.*;
 import org.jsoup.Jsoup;
-import org.jsoup.nodes.Attributes;
 import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.List;
-import java.util.Set;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.nio.charset.Charset;
+
+import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
+ * Manages the state of a user agent as its responses are read: its cookies, and the hidden form fields of its pages,
+ * which are scraped as the page is read with a {@link PageScraper}. Pages are only buffered and parsed to a
+ * {@link Document} when the result listener requires documents.
+ *
  * @author Danny Thomas
  * @since 1.0
  */
 public class UserAgentHandler extends ChannelDuplexHandler {
   private static final MediaType TEXT_HTML = MediaType.create("text", "html");
 
+  private final boolean documentRequired;
+
   private Logger log = LoggerFactory.getLogger(UserAgentHandler.class);
   private ReplayHttpRequest request;
   private UserAgent userAgent;
   private HttpResponse response;
+  private Charset charset;
+  private PageScraper scraper;
+  private boolean pageRead;
   private ByteBuf content;
-  private Document document;
+
+  @Inject
+  UserAgentHandler(@Named("notifying") ReplayResultListener resultListener) {
+    documentRequired = checkNotNull(resultListener).isDocumentRequired();
+  }
 
   @Override
   public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
     if (msg instanceof ReplayHttpRequest) {
       request = (ReplayHttpRequest) msg;
       userAgent = request.getUserAgent();
-      if (userAgent.isPersistent() && request.isBlocking()) {
-        log.debug("Attempting to acquire block for {}, request {}", userAgent, request.getUri());
-        userAgent.tryBlock(250);
-      }
+      // Persistent connections are reused, so clear any state from the previous request
+      response = null;
+      scraper = null;
+      content = null;
       setRequestCookies();
     }
     log.trace("Writing request {} for user agent {}", request.getUri(), userAgent);
@@ -74,8 +84,7 @@ public class UserAgentHandler extends ChannelDuplexHandler {
 
   public void setRequestCookies() {
     if (userAgent.isPersistent()) {
-      Set<Cookie> cookies = userAgent.getCookiesForUri(request.getUri());
-      String encodedCookies = ClientCookieEncoder.encode(cookies);
+      String encodedCookies = userAgent.getCookieHeader(request.getUri());
       if (!encodedCookies.isEmpty()) {
         request.headers().add(HttpHeaders.Names.COOKIE, encodedCookies);
       }
@@ -88,68 +97,76 @@ public class UserAgentHandler extends ChannelDuplexHandler {
       response = (HttpResponse) msg;
       if (userAgent.isPersistent()) {
         parseCookies();
-        releaseIfBlocking();
       }
+      startPage();
     } else if (msg instanceof HttpContent) {
-      parseDocument((HttpContent) msg);
+      Optional<ResponsePage> page = Optional.absent();
+      if (null != scraper) {
+        page = readPage((HttpContent) msg);
+      }
       if (msg instanceof LastHttpContent) {
-        if (userAgent.isPersistent() && null != document) {
-          scrapeFormFields();
+        if (page.isPresent() && !page.get().getHiddenFields().isEmpty()) {
+          userAgent.setOverridePostValues(page.get().getHiddenFields());
         }
-        super.channelRead(ctx, new DefaultReplayLastHttpContent((LastHttpContent) msg, Optional.fromNullable(document)));
+        super.channelRead(ctx, new DefaultReplayLastHttpContent((LastHttpContent) msg, page));
         return;
       }
     }
     super.channelRead(ctx, msg);
   }
 
-  private void releaseIfBlocking() {
-    if (request.isBlocking()) {
-      userAgent.releaseBlock();
-    }
-  }
-
   private void parseCookies() {
     HttpHeaders headers = response.headers();
     FluentIterable<Cookie> cookies = FluentIterable.from(headers.getAll(HttpHeaders.Names.SET_COOKIE)).transform(UserAgentChannelWriter.HEADER_TO_COOKIE);
     userAgent.setCookies(cookies.toList());
   }
 
-  private void parseDocument(HttpContent httpContent) {
-    MediaType mediaType = HttpMessages.getMediaType(response);
-    if (userAgent.isPersistent() && HttpMethod.GET == request.getMethod() && mediaType.is(TEXT_HTML)) {
-      ByteBuf byteBuf = httpContent.content().duplicate();
-      if (null == content) {
-        content = Unpooled.buffer();
-      }
-      content.writeBytes(byteBuf);
+  /**
+   * Returns true if the content of a response will be inspected by this handler. Only the pages of persistent user
+   * agents are inspected, so the content of other responses does not need to be decompressed.
+   */
+  boolean isInspected(HttpResponse response) {
+    checkNotNull(response);
+    return null != request && userAgent.isPersistent() && HttpMethod.GET == request.getMethod()
+        && HttpMessages.getMediaType(response).is(TEXT_HTML);
+  }
 
-      if (httpContent instanceof LastHttpContent) {
-        String decodedContent = content.toString(mediaType.charset().or(Charsets.ISO_8859_1));
-        if (!decodedContent.isEmpty()) {
-          document = Jsoup.parse(decodedContent);
-        }
-        content.release();
-      }
+  private void startPage() {
+    if (isInspected(response)) {
+      MediaType mediaType = HttpMessages.getMediaType(response);
+      charset = mediaType.charset().or(Charsets.ISO_8859_1);
+      scraper = new PageScraper(charset);
+      pageRead = false;
     }
   }
 
-  private void scrapeFormFields() {
-    Elements elements = document.select("form input[type=hidden]");
-    if (!elements.isEmpty()) {
-      List<HttpArchive.Param> params = Lists.newArrayList();
-      for (Element element : elements) {
-        Attributes attributes = element.attributes();
-        HttpArchive.Param param = new HttpArchive.Param(attributes.get("name"), attributes.get("value"));
-        params.add(param);
+  /**
+   * Scrape the page as its content is read, returning the page once the last content is read.
+   */
+  private Optional<ResponsePage> readPage(HttpContent httpContent) {
+    ByteBuf byteBuf = httpContent.content();
+    scraper.scrape(byteBuf);
+    pageRead |= byteBuf.isReadable();
+    if (documentRequired && byteBuf.isReadable()) {
+      if (null == content) {
+        content = Unpooled.buffer();
       }
-      userAgent.setOverridePostValues(params);
+      content.writeBytes(byteBuf.duplicate());
     }
-  }
-
-  @Override
-  public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
-    releaseIfBlocking();
-    super.exceptionCaught(ctx, cause);
+    if (!(httpContent instanceof LastHttpContent)) {
+      return Optional.absent();
+    }
+    PageScraper pageScraper = scraper;
+    scraper = null;
+    if (!pageRead) {
+      return Optional.absent();
+    }
+    Optional<Document> document = Optional.absent();
+    if (null != content) {
+      document = Optional.of(Jsoup.parse(content.toString(charset)));
+      content.release();
+      content = null;
+    }
+    return Optional.of(new ResponsePage(pageScraper.getTitle(), pageScraper.getHiddenFields(), document));
   }
 }
@@ -21,43 +21,75 @@ import io.groundhog.har.HttpArchive;
 
 import com.google.common.base.Objects;
 import com.google.common.base.Optional;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.DecoderResult;
 import io.netty.handler.codec.http.*;
 
+import javax.annotation.Nullable;
 import java.io.File;
 import java.util.Set;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
+ * An immutable request read from a capture, along with the response that was recorded for it.
+ * <p/>
+ * Requests are buffered ahead of replay, so they are kept compact. Headers are held as {@link CapturedHeaders} and
+ * shared by every copy of the request, and only the status and inspected headers of the expected response are kept.
+ *
  * @author Danny Thomas
  * @since 1.0
  */
-public class UserAgentRequest extends DefaultHttpRequest {
+public class UserAgentRequest implements HttpRequest {
+  private final HttpVersion protocolVersion;
+  private final HttpMethod method;
+  private final String uri;
+  private final CapturedHeaders headers;
   private final Optional<HttpArchive.PostData> postData;
   private final Set<Cookie> cookies;
   private final File uploadLocation;
   private final long startedDateTime;
-  private final Optional<HttpResponse> expectedResponse;
+  @Nullable
+  private final CapturedResponse expectedResponse;
+  private final ByteBuf prelude;
+  private final boolean keepAlive;
+  private final boolean sessionEnd;
 
   public UserAgentRequest(HttpVersion httpVersion, HttpMethod method, String uri, Optional<HttpArchive.PostData> postData, HttpHeaders headers,
                           Set<Cookie> cookies, File uploadLocation, long startedDateTime) {
-    super(httpVersion, method, uri, false);
+    this.protocolVersion = checkNotNull(httpVersion);
+    this.method = checkNotNull(method);
+    this.uri = CapturedHeaders.intern(uri);
+    this.headers = CapturedHeaders.of(headers);
     this.postData = checkNotNull(postData);
-    headers().set(headers);
     this.cookies = checkNotNull(cookies);
     this.uploadLocation = checkNotNull(uploadLocation);
     this.startedDateTime = startedDateTime;
-    this.expectedResponse = Optional.absent();
+    this.expectedResponse = null;
+    this.prelude = Unpooled.EMPTY_BUFFER;
+    this.keepAlive = false;
+    this.sessionEnd = false;
+  }
+
+  public UserAgentRequest(UserAgentRequest request, HttpResponse expectedResponse, ByteBuf prelude, boolean keepAlive) {
+    this(request, expectedResponse, prelude, keepAlive, false);
   }
 
-  public UserAgentRequest(UserAgentRequest request, HttpResponse expectedResponse) {
-    super(request.getProtocolVersion(), request.getMethod(), request.getUri(), false);
+  public UserAgentRequest(UserAgentRequest request, HttpResponse expectedResponse, ByteBuf prelude, boolean keepAlive,
+                          boolean sessionEnd) {
+    this.protocolVersion = request.protocolVersion;
+    this.method = request.method;
+    this.uri = request.uri;
+    this.headers = request.headers;
     this.postData = request.postData;
-    headers().set(request.headers());
     this.cookies = request.cookies;
     this.uploadLocation = request.uploadLocation;
     this.startedDateTime = request.startedDateTime;
-    this.expectedResponse = Optional.of(expectedResponse);
+    this.expectedResponse = CapturedResponse.of(expectedResponse);
+    this.prelude = checkNotNull(prelude);
+    this.keepAlive = keepAlive;
+    this.sessionEnd = sessionEnd;
   }
 
   @Override
@@ -67,6 +99,51 @@ public class UserAgentRequest extends DefaultHttpRequest {
     return helper.toString();
   }
 
+  @Override
+  public HttpMethod getMethod() {
+    return method;
+  }
+
+  @Override
+  public HttpRequest setMethod(HttpMethod method) {
+    throw new UnsupportedOperationException("Captured requests are immutable");
+  }
+
+  @Override
+  public String getUri() {
+    return uri;
+  }
+
+  @Override
+  public HttpRequest setUri(String uri) {
+    throw new UnsupportedOperationException("Captured requests are immutable");
+  }
+
+  @Override
+  public HttpVersion getProtocolVersion() {
+    return protocolVersion;
+  }
+
+  @Override
+  public HttpRequest setProtocolVersion(HttpVersion version) {
+    throw new UnsupportedOperationException("Captured requests are immutable");
+  }
+
+  @Override
+  public HttpHeaders headers() {
+    return headers;
+  }
+
+  @Override
+  public DecoderResult getDecoderResult() {
+    return DecoderResult.SUCCESS;
+  }
+
+  @Override
+  public void setDecoderResult(DecoderResult result) {
+    throw new UnsupportedOperationException("Captured requests are immutable");
+  }
+
   public Optional<HttpArchive.PostData> getPostData() {
     return postData;
   }
@@ -84,6 +161,36 @@ public class UserAgentRequest extends DefaultHttpRequest {
   }
 
   public Optional<HttpResponse> getExpectedResponse() {
-    return expectedResponse;
+    return Optional.<HttpResponse>fromNullable(expectedResponse);
+  }
+
+  /**
+   * Get the request line and static headers, encoded by {@link RequestPreludeEncoder}.
+   */
+  public ByteBuf getPrelude() {
+    return prelude;
+  }
+
+  /**
+   * If this request is to be sent on a persistent connection.
+   */
+  public boolean isKeepAlive() {
+    return keepAlive;
+  }
+
+  /**
+   * If this is the last request of its session in the capture, so its user agent is no longer needed once it has been
+   * sent.
+   */
+  public boolean isSessionEnd() {
+    return sessionEnd;
+  }
+
+  /**
+   * Release the encoded prelude, once the request has been written or will no longer be written. The prelude is retained
+   * for each copy of the request that is queued, and each copy releases it exactly once.
+   */
+  public void releasePrelude() {
+    prelude.release();
   }
 }
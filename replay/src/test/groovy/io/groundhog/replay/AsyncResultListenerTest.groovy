@@ -0,0 +1,152 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay
+
+import com.google.common.base.Optional
+import com.google.common.hash.HashCode
+import io.netty.handler.codec.http.*
+import io.netty.util.concurrent.ImmediateEventExecutor
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+
+/**
+ * Tests for {@link AsyncResultListener}.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+class AsyncResultListenerTest extends Specification {
+  def 'results are reported on the listener thread, and every result is reported before the delegate is closed'() {
+    def delegate = new RecordingListener()
+    def listener = new AsyncResultListener(delegate)
+    def request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, '/')
+    def response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK)
+    def userAgent = new NonPersistentUserAgent()
+
+    when:
+    1000.times {
+      listener.success(request, response, userAgent, new ResponseSize(0, 0, false), new RequestTiming(0, 0, 0, 0), Optional.absent())
+    }
+    listener.failure('Expected status 200 OK', request, response, userAgent, new ResponseSize(0, 0, false),
+        new RequestTiming(0, 0, 0, 0), Optional.absent())
+    listener.failure(request, Optional.absent(), Optional.absent())
+    listener.close()
+
+    then:
+    delegate.reported == ['success'] * 1000 + ['failure', 'failure without response']
+    delegate.threads == ['ReplayResultListener'] as Set
+    delegate.closedAfter == 1002
+  }
+
+  def 'results are reported with a copy of the request, response and user agent'() {
+    def delegate = new RecordingListener()
+    def listener = new AsyncResultListener(delegate)
+    def request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, '/path')
+    request.headers().add(AbstractReplayResultListener.TRANSACTION_LABEL_HEADER, 'Login')
+    def response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK)
+    response.headers().add(HttpHeaders.Names.CONTENT_TYPE, 'text/html')
+    def userAgent = new DefaultUserAgent(HashCode.fromInt(1), ImmediateEventExecutor.INSTANCE)
+
+    when:
+    listener.success(request, response, userAgent, new ResponseSize(0, 0, false), new RequestTiming(0, 0, 0, 0), Optional.absent())
+    listener.close()
+
+    then:
+    def reported = delegate.results[0]
+    reported[0] instanceof ReportedRequest
+    reported[0].uri == '/path'
+    AbstractReplayResultListener.getTransactionLabel(reported[0]) == 'Login'
+    !reported[1].is(response)
+    reported[1].status == HttpResponseStatus.OK
+    reported[1].headers().get(HttpHeaders.Names.CONTENT_TYPE) == 'text/html'
+    !reported[2].is(userAgent)
+    reported[2].key == userAgent.key
+  }
+
+  def 'results are dropped rather than waited for once the buffer is full'() {
+    def reporting = new CountDownLatch(1)
+    def blocked = new CountDownLatch(1)
+    def delegate = new RecordingListener() {
+      @Override
+      void success(HttpRequest request, HttpResponse response, UserAgent userAgent, ResponseSize size, RequestTiming timing,
+                   Optional<ResponsePage> page) {
+        super.success(request, response, userAgent, size, timing, page)
+        reporting.countDown()
+        blocked.await()
+      }
+    }
+    def listener = new AsyncResultListener(delegate, 4)
+    def request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, '/')
+    def response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK)
+    def success = {
+      listener.success(request, response, new NonPersistentUserAgent(), new ResponseSize(0, 0, false), new RequestTiming(0, 0, 0, 0),
+          Optional.absent())
+    }
+
+    when:
+    success()
+    reporting.await()
+    10.times { success() }
+    blocked.countDown()
+    listener.close()
+
+    then:
+    listener.dropped == 6
+    delegate.reported.size() == 5
+  }
+
+  private static class RecordingListener implements ReplayResultListener, Closeable {
+    def reported = Collections.synchronizedList([])
+    def results = Collections.synchronizedList([])
+    def threads = Collections.synchronizedSet([] as Set)
+    def closedAfter = -1
+
+    @Override
+    void success(HttpRequest request, HttpResponse response, UserAgent userAgent, ResponseSize size, RequestTiming timing,
+                 Optional<ResponsePage> page) {
+      results << [request, response, userAgent]
+      record('success')
+    }
+
+    @Override
+    void failure(String failureReason, HttpRequest request, HttpResponse response, UserAgent userAgent, ResponseSize size,
+                 RequestTiming timing, Optional<ResponsePage> page) {
+      record('failure')
+    }
+
+    @Override
+    void failure(HttpRequest request, Optional<UserAgent> userAgent, Optional<Throwable> cause) {
+      record('failure without response')
+    }
+
+    @Override
+    boolean isDocumentRequired() {
+      false
+    }
+
+    @Override
+    void close() {
+      closedAfter = reported.size()
+    }
+
+    private void record(String result) {
+      reported << result
+      threads << Thread.currentThread().name
+    }
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay
+
+import com.google.common.hash.HashCode
+import com.google.common.net.HostAndPort
+import spock.lang.Specification
+
+/**
+ * Tests for {@link BackendBalancer}.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+class BackendBalancerTest extends Specification {
+  def backends = (0..3).collect { Backend.resolve(HostAndPort.fromParts('localhost', 8080 + it)) }
+  def balancer = new BackendBalancer(backends)
+
+  def 'the requests of a user agent stick to one backend, and user agents are spread across backends'() {
+    def userAgents = (1..100).collect { userAgent(it) }
+
+    when:
+    def selected = userAgents.collect { balancer.select(it, 0) }
+
+    then:
+    userAgents.collect { balancer.select(it, 0) } == selected
+    selected.unique(false).size() == backends.size()
+  }
+
+  def 'each copy of a user agent is balanced separately'() {
+    def userAgent = userAgent(1)
+
+    expect:
+    (0..99).collect { balancer.select(userAgent, it) }.unique().size() == backends.size()
+  }
+
+  def 'requests without a session go to the backend with the fewest outstanding requests'() {
+    given:
+    backends.eachWithIndex { backend, index -> (4 - index).times { backend.requestStarted() } }
+    backends[3].requestCompleted()
+
+    expect:
+    balancer.select(new NonPersistentUserAgent(), 0) == 3
+  }
+
+  def 'ties between backends are broken in turn'() {
+    expect:
+    (0..7).collect { balancer.select(new NonPersistentUserAgent(), 0) } == [0, 1, 2, 3, 0, 1, 2, 3]
+  }
+
+  def 'a single backend is always selected'() {
+    def balancer = new BackendBalancer([backends[0]])
+
+    expect:
+    balancer.select(userAgent(1), 0) == 0
+    balancer.select(new NonPersistentUserAgent(), 0) == 0
+  }
+
+  def 'there must be at least one backend'() {
+    when:
+    new BackendBalancer([])
+
+    then:
+    thrown(IllegalArgumentException)
+  }
+
+  private UserAgent userAgent(int key) {
+    def userAgent = Mock(UserAgent)
+    userAgent.persistent >> true
+    userAgent.key >> HashCode.fromInt(key)
+    userAgent
+  }
+}
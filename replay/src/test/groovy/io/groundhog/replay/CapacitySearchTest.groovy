@@ -0,0 +1,163 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay
+
+import com.google.common.base.Optional
+import io.netty.buffer.Unpooled
+import io.netty.handler.codec.http.*
+import spock.lang.Specification
+
+import java.nio.channels.ClosedChannelException
+import java.util.concurrent.TimeUnit
+
+/**
+ * Tests for {@link CapacitySearch}, {@link CapacityStep} and {@link ServiceLevelObjective}.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+class CapacitySearchTest extends Specification {
+  def objective = ServiceLevelObjective.of(99, 100, TimeUnit.MILLISECONDS, 0.01)
+
+  def 'multipliers increase by the increment each step'() {
+    def search = CapacitySearch.stepped(0.5, 0.25, 4, 30, TimeUnit.SECONDS, objective)
+
+    expect:
+    (0..3).collect { search.getMultiplier(it) } == [0.5d, 0.75d, 1.0d, 1.25d]
+    search.getWindow(TimeUnit.MILLISECONDS) == 30000
+  }
+
+  def 'no search is made by default'() {
+    expect:
+    !CapacitySearch.NONE.enabled
+  }
+
+  def 'a step within the objective has no breach'() {
+    def step = new CapacityStep(1, 0, 1)
+    100.times { step.record(timing(50), false) }
+
+    expect:
+    !objective.getBreach(step).isPresent()
+  }
+
+  def 'a step breaks the objective when the latency percentile exceeds the limit'() {
+    def step = new CapacityStep(1, 0, 1)
+    98.times { step.record(timing(50), false) }
+    2.times { step.record(timing(500), false) }
+
+    expect:
+    objective.getBreach(step).get() == 'p99 latency of 500ms exceeded 100ms'
+  }
+
+  def 'a step breaks the objective when too many requests fail'() {
+    def step = new CapacityStep(1, 0, 1)
+    98.times { step.record(timing(50), false) }
+    step.record(timing(50), true)
+    step.record(Optional.absent(), true)
+
+    expect:
+    step.errorRate == 0.02d
+    objective.getBreach(step).get() == 'error rate of 2.00% exceeded 1.00%'
+  }
+
+  def 'requests that did not complete count as errors'() {
+    def step = new CapacityStep(1, 0, 1)
+    98.times { step.record(timing(50), false) }
+
+    when:
+    def completed = step.awaitCompletion(100, 10, TimeUnit.MILLISECONDS)
+
+    then:
+    !completed
+    step.errorRate == 0.02d
+    objective.getBreach(step).isPresent()
+  }
+
+  def 'waiting for a step returns once every request has completed'() {
+    def step = new CapacityStep(1, 0, 1)
+    Thread.start {
+      10.times { step.record(timing(50), false) }
+    }
+
+    expect:
+    step.awaitCompletion(10, 10, TimeUnit.SECONDS)
+  }
+
+  def 'results from a step that timed out are not recorded by the next step'() {
+    def listener = new NotifyingResultListener(Mock(ReplayResultListener))
+    def first = new CapacityStep(1, 0, 2)
+    def second = new CapacityStep(2, 1, 2)
+
+    when:
+    listener.setStep(Optional.of(first))
+    listener.success(request(1), response(), new NonPersistentUserAgent(), new ResponseSize(0, 0, false), timing(50).get(),
+        Optional.absent())
+    def firstCompleted = first.awaitCompletion(2, 10, TimeUnit.MILLISECONDS)
+    first.finish()
+    listener.setStep(Optional.of(second))
+    listener.success(request(0), response(), new NonPersistentUserAgent(), new ResponseSize(0, 0, false), timing(5000).get(),
+        Optional.absent())
+    listener.success(request(3), response(), new NonPersistentUserAgent(), new ResponseSize(0, 0, false), timing(50).get(),
+        Optional.absent())
+    def secondCompleted = second.awaitCompletion(1, 10, TimeUnit.SECONDS)
+    listener.close()
+
+    then:
+    !firstCompleted
+    first.completed == 1
+    first.errorRate == 0.5d
+    secondCompleted
+    second.completed == 1
+    TimeUnit.MICROSECONDS.toMillis(second.latency.max) == 50
+  }
+
+  def 'a request reported more than once is only recorded once'() {
+    def delegate = Mock(ReplayResultListener)
+    def listener = new NotifyingResultListener(delegate)
+    def step = new CapacityStep(1, 0, 1)
+    def request = request(0)
+
+    when:
+    listener.setStep(Optional.of(step))
+    listener.failure(request, Optional.absent(), Optional.of(new IOException()))
+    listener.failure(request, Optional.absent(), Optional.of(new ClosedChannelException()))
+    def completed = step.awaitCompletion(2, 10, TimeUnit.MILLISECONDS)
+    listener.close()
+
+    then:
+    !completed
+    step.completed == 1
+    1 * delegate.failure(_, _, _)
+  }
+
+  private static ReplayHttpRequest request(int copy) {
+    def captured = new UserAgentRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/", Optional.absent(),
+        HttpHeaders.EMPTY_HEADERS, Collections.emptySet(), new File(""), 0l)
+    def uaRequest = new UserAgentRequest(captured, response(), Unpooled.EMPTY_BUFFER, false)
+    new ReplayHttpRequest(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/"), uaRequest,
+        new NonPersistentUserAgent(), Optional.absent(), copy, Optional.absent(), 0)
+  }
+
+  private static HttpResponse response() {
+    new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK)
+  }
+
+  private static Optional<RequestTiming> timing(long latencyMillis) {
+    def ended = TimeUnit.MILLISECONDS.toNanos(latencyMillis)
+    Optional.of(new RequestTiming(0, 0, ended, 0))
+  }
+}
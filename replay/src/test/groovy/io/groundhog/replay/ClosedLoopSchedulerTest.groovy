@@ -0,0 +1,109 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay
+
+import com.google.common.base.Optional
+import io.netty.buffer.Unpooled
+import io.netty.handler.codec.http.*
+import spock.lang.Specification
+import spock.lang.Timeout
+
+/**
+ * Tests for {@link ClosedLoopScheduler}.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+class ClosedLoopSchedulerTest extends Specification {
+  def dispatcher = Mock(RequestDispatcher)
+
+  def 'the next request of a session is sent once the previous request completes'() {
+    def scheduler = new ClosedLoopScheduler(dispatcher, 10)
+    def first = request(Optional.of("session"))
+    def second = request(Optional.of("session"))
+
+    when:
+    scheduler.offer(first)
+    scheduler.offer(second)
+
+    then:
+    1 * dispatcher.queue({ it.request.is(first) })
+    0 * dispatcher.queue(_)
+
+    when:
+    scheduler.complete(first, Optional.of(new RequestTiming(0, 0, 0, 0)))
+
+    then:
+    1 * dispatcher.queue({ it.request.is(second) })
+  }
+
+  def 'sessions wait for a free slot once the concurrency is reached'() {
+    def scheduler = new ClosedLoopScheduler(dispatcher, 1)
+    def first = request(Optional.of("first"))
+    def second = request(Optional.absent())
+
+    when:
+    scheduler.offer(first)
+    scheduler.offer(second)
+
+    then:
+    1 * dispatcher.queue({ it.request.is(first) })
+    0 * dispatcher.queue(_)
+
+    when:
+    scheduler.complete(first, Optional.absent())
+
+    then:
+    1 * dispatcher.queue({ it.request.is(second) })
+  }
+
+  def 'a request is only completed once'() {
+    def scheduler = new ClosedLoopScheduler(dispatcher, 1)
+    def first = request(Optional.of("session"))
+    def second = request(Optional.of("session"))
+    def third = request(Optional.of("session"))
+    [first, second, third].each { scheduler.offer(it) }
+
+    when:
+    scheduler.complete(first, Optional.absent())
+    scheduler.complete(first, Optional.absent())
+
+    then:
+    1 * dispatcher.queue({ it.request.is(second) })
+    0 * dispatcher.queue(_)
+  }
+
+  @Timeout(10)
+  def 'a long session reaching the read-ahead limit does not stop new sessions from starting'() {
+    def scheduler = new ClosedLoopScheduler(dispatcher, 2)
+    def other = request(Optional.of("other"))
+
+    when:
+    33.times { scheduler.offer(request(Optional.of("long"))) }
+    scheduler.offer(other)
+
+    then:
+    1 * dispatcher.queue({ it.request.is(other) })
+  }
+
+  private static UserAgentRequest request(Optional<String> session) {
+    def cookies = session.isPresent() ? [new DefaultCookie(UserAgentChannelWriter.APPLICATION_SESSION_COOKIE_NAME, session.get())] as Set : Collections.emptySet()
+    def request = new UserAgentRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/", Optional.absent(), HttpHeaders.EMPTY_HEADERS,
+        cookies, new File(""), 0l)
+    new UserAgentRequest(request, new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK), Unpooled.EMPTY_BUFFER, false)
+  }
+}
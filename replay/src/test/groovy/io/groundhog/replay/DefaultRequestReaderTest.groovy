@@ -17,6 +17,8 @@
 
 package io.groundhog.replay
 
+import io.netty.handler.codec.http.HttpHeaders
+import io.netty.handler.codec.http.HttpResponseStatus
 import spock.lang.Specification
 
 /**
@@ -54,6 +56,31 @@ class DefaultRequestReaderTest extends Specification {
     thrown(IOException)
   }
 
+  def 'requests share interned header values and are immutable'() {
+    def reader = getReader()
+
+    when:
+    def first = reader.readRequest()
+    def second = reader.readRequest()
+    second.headers().add('name', 'value')
+
+    then:
+    first.headers().get(HttpHeaders.Names.USER_AGENT).is(second.headers().get(HttpHeaders.Names.USER_AGENT))
+    thrown(UnsupportedOperationException)
+  }
+
+  def 'expected responses keep only the status and inspected headers'() {
+    def reader = getReader()
+
+    when:
+    def response = reader.readRequest().expectedResponse.get()
+
+    then:
+    response.status == HttpResponseStatus.OK
+    response.headers().contains(HttpHeaders.Names.CONTENT_TYPE)
+    response.headers().names().size() <= 2
+  }
+
   def getReader() {
     def url = getClass().getClassLoader().getResource('github.com.har')
     new DefaultRequestReader(new File(url.getFile()), new File('/tmp'))
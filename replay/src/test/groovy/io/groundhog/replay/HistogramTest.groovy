@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay
+
+import spock.lang.Specification
+
+/**
+ * Tests for {@link Histogram}.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+class HistogramTest extends Specification {
+  def 'percentiles are within one percent of the recorded values'() {
+    def histogram = new Histogram()
+    (1..100000).each { histogram.record(it) }
+
+    expect:
+    histogram.count == 100000
+    histogram.max == 100000
+    histogram.mean == 50000.5d
+    Math.abs(histogram.getValueAtPercentile(percentile) - expected) <= expected / 100
+
+    where:
+    percentile | expected
+    0          | 1
+    50         | 50000
+    90         | 90000
+    99         | 99000
+    99.9       | 99900
+    100        | 100000
+  }
+
+  def 'small values are recorded exactly, and large values are supported'() {
+    def histogram = new Histogram()
+    histogram.record(-5)
+    histogram.record(3)
+    histogram.record(Long.MAX_VALUE)
+
+    expect:
+    histogram.getValueAtPercentile(33) == 0
+    histogram.getValueAtPercentile(66) == 3
+    histogram.getValueAtPercentile(100) == Long.MAX_VALUE
+  }
+
+  def 'adding a histogram combines the recorded values'() {
+    def first = new Histogram()
+    def second = new Histogram()
+    (1..50).each { first.record(it) }
+    (51..100).each { second.record(it) }
+
+    when:
+    first.add(second)
+
+    then:
+    first.count == 100
+    first.max == 100
+    first.getValueAtPercentile(50) == 50
+  }
+
+  def 'values above the highest trackable value are counted in the highest bucket, and the max is exact'() {
+    def histogram = new Histogram(1000)
+    (1..99).each { histogram.record(it) }
+    histogram.record(1000000)
+
+    expect:
+    histogram.count == 100
+    histogram.max == 1000000
+    histogram.getValueAtPercentile(99) == 99
+    histogram.getValueAtPercentile(100) >= 1000
+    histogram.getValueAtPercentile(100) < 1100
+  }
+}
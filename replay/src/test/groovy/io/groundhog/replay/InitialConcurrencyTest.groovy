@@ -0,0 +1,102 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay
+
+import com.google.common.base.Optional
+import com.google.common.base.Predicates
+import io.netty.buffer.Unpooled
+import io.netty.handler.codec.http.*
+import spock.lang.Specification
+
+/**
+ * Tests for {@link InitialConcurrency}.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+class InitialConcurrencyTest extends Specification {
+  def 'sessions sent on persistent connections are counted once'() {
+    def reader = new ListRequestReader([
+        request(0, Optional.of("first"), true),
+        request(100, Optional.of("second"), true),
+        request(200, Optional.of("first"), true),
+        request(300, Optional.of("second"), true)])
+
+    expect:
+    InitialConcurrency.estimate(reader, Predicates.alwaysTrue(), 1000) == 2
+  }
+
+  def 'requests without persistent connections are counted individually'() {
+    def reader = new ListRequestReader([
+        request(0, Optional.of("first"), false),
+        request(100, Optional.of("first"), false),
+        request(200, Optional.absent(), true)])
+
+    expect:
+    InitialConcurrency.estimate(reader, Predicates.alwaysTrue(), 1000) == 3
+  }
+
+  def 'requests after the window are not read'() {
+    def reader = new ListRequestReader([
+        request(1000, Optional.absent(), false),
+        request(2000, Optional.absent(), false),
+        request(2001, Optional.absent(), false),
+        request(3000, Optional.absent(), false)])
+
+    when:
+    def connections = InitialConcurrency.estimate(reader, Predicates.alwaysTrue(), 1000)
+
+    then:
+    connections == 2
+    reader.position == 3
+  }
+
+  def 'requests that are not replayed are not counted'() {
+    def reader = new ListRequestReader([
+        request(0, Optional.of("first"), true),
+        request(100, Optional.of("second"), true)])
+
+    expect:
+    InitialConcurrency.estimate(reader, { it.cookies.first().value == "first" }, 1000) == 1
+  }
+
+  private static UserAgentRequest request(long startedDateTime, Optional<String> session, boolean keepAlive) {
+    def cookies = session.isPresent() ? [new DefaultCookie(UserAgentChannelWriter.APPLICATION_SESSION_COOKIE_NAME, session.get())] as Set : Collections.emptySet()
+    def request = new UserAgentRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/", Optional.absent(), HttpHeaders.EMPTY_HEADERS,
+        cookies, new File(""), startedDateTime)
+    new UserAgentRequest(request, new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK), Unpooled.EMPTY_BUFFER, keepAlive)
+  }
+
+  private static final class ListRequestReader implements RequestReader {
+    private final List<UserAgentRequest> requests
+    private int position
+
+    ListRequestReader(List<UserAgentRequest> requests) {
+      this.requests = requests
+    }
+
+    @Override
+    UserAgentRequest readRequest() throws IOException {
+      requests[position++]
+    }
+
+    @Override
+    boolean isLastRequest(UserAgentRequest request) {
+      request.is(requests.last())
+    }
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay
+
+import com.google.common.base.Charsets
+import io.netty.buffer.Unpooled
+import io.netty.channel.embedded.EmbeddedChannel
+import io.netty.handler.codec.compression.ZlibCodecFactory
+import io.netty.handler.codec.compression.ZlibWrapper
+import io.netty.handler.codec.http.*
+import spock.lang.Specification
+
+/**
+ * Tests for {@link InspectedContentDecompressor}.
+ */
+class InspectedContentDecompressorTest extends Specification {
+  def userAgentHandler = Mock(UserAgentHandler)
+  def decompressor = new InspectedContentDecompressor(userAgentHandler)
+  def channel = new EmbeddedChannel(decompressor)
+
+  def 'the content of an inspected response is decompressed'() {
+    given:
+    userAgentHandler.isInspected(_) >> true
+
+    when:
+    channel.writeInbound(gzipResponse(), new DefaultLastHttpContent(gzip('<html></html>')))
+
+    then:
+    decompressor.decompressing
+    readContent() == '<html></html>'
+  }
+
+  def 'the content of a response that is not inspected is passed through compressed'() {
+    given:
+    userAgentHandler.isInspected(_) >> false
+    def compressed = gzip('<html></html>')
+    def compressedBytes = compressed.readableBytes()
+
+    when:
+    channel.writeInbound(gzipResponse(), new DefaultLastHttpContent(compressed))
+
+    then:
+    !decompressor.decompressing
+    HttpResponse response = channel.readInbound()
+    response.headers().get(HttpHeaders.Names.CONTENT_ENCODING) == HttpHeaders.Values.GZIP
+    HttpContent content = channel.readInbound()
+    content.content().readableBytes() == compressedBytes
+  }
+
+  private static HttpResponse gzipResponse() {
+    def response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK)
+    response.headers().set(HttpHeaders.Names.CONTENT_TYPE, 'text/html')
+    response.headers().set(HttpHeaders.Names.CONTENT_ENCODING, HttpHeaders.Values.GZIP)
+    response
+  }
+
+  private static gzip(String content) {
+    def encoder = new EmbeddedChannel(ZlibCodecFactory.newZlibEncoder(ZlibWrapper.GZIP))
+    encoder.writeOutbound(Unpooled.copiedBuffer(content, Charsets.UTF_8))
+    encoder.finish()
+    def compressed = Unpooled.buffer()
+    def buf
+    while ((buf = encoder.readOutbound()) != null) {
+      compressed.writeBytes(buf)
+      buf.release()
+    }
+    compressed
+  }
+
+  private String readContent() {
+    def builder = new StringBuilder()
+    def msg
+    while ((msg = channel.readInbound()) != null) {
+      if (msg instanceof HttpContent) {
+        builder.append(msg.content().toString(Charsets.UTF_8))
+      }
+    }
+    builder.toString()
+  }
+}
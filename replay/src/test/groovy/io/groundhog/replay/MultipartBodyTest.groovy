@@ -0,0 +1,112 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay
+
+import io.groundhog.har.HttpArchive
+
+import com.google.common.base.Charsets
+import com.google.common.io.Files
+import io.netty.buffer.ByteBuf
+import io.netty.buffer.ByteBufAllocator
+import io.netty.channel.FileRegion
+import io.netty.handler.codec.http.DefaultHttpRequest
+import io.netty.handler.codec.http.HttpHeaders
+import io.netty.handler.codec.http.HttpMethod
+import io.netty.handler.codec.http.HttpVersion
+import io.netty.handler.stream.ChunkedInput
+import spock.lang.Shared
+import spock.lang.Specification
+
+/**
+ * Tests for {@link MultipartBody}.
+ */
+class MultipartBodyTest extends Specification {
+  @Shared File tempDir
+
+  def setupSpec() {
+    tempDir = Files.createTempDir()
+    Files.write('small upload', new File(tempDir, 'small.txt'), Charsets.UTF_8)
+    Files.write(new byte[UploadStore.MAX_CACHED_FILE_BYTES + 1], new File(tempDir, 'large.bin'))
+  }
+
+  def cleanupSpec() {
+    tempDir.deleteDir()
+  }
+
+  def 'a body is encoded with its attributes and uploads, and the length of its content'() {
+    given:
+    def params = [new HttpArchive.Param('name', 'value'), new HttpArchive.Param('file', 'small.txt', 'text/plain')]
+    def body = MultipartBody.encode(params, tempDir, new UploadStore(), ByteBufAllocator.DEFAULT, true)
+    def request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, '/')
+
+    when:
+    body.setHeaders(request)
+    def content = body.parts.collect { ByteBuf buf -> buf.toString(Charsets.UTF_8) }.join('')
+    def boundary = request.headers().get(HttpHeaders.Names.CONTENT_TYPE).split('boundary=')[1]
+
+    then:
+    content == "--$boundary\r\n" +
+        'Content-Disposition: form-data; name="name"\r\n\r\nvalue\r\n' +
+        "--$boundary\r\n" +
+        'Content-Disposition: form-data; name="file"; filename="small.txt"\r\nContent-Type: text/plain\r\n\r\nsmall upload\r\n' +
+        "--$boundary--\r\n"
+    HttpHeaders.getContentLength(request) == content.getBytes(Charsets.UTF_8).length
+
+    cleanup:
+    body.release()
+  }
+
+  def 'large uploads are written from their file'() {
+    given:
+    def params = [new HttpArchive.Param('file', 'large.bin', '')]
+
+    when:
+    def body = MultipartBody.encode(params, tempDir, new UploadStore(), ByteBufAllocator.DEFAULT, zeroCopy)
+
+    then:
+    type.isInstance(body.parts[1])
+    body.contentLength == body.parts[0].readableBytes() + UploadStore.MAX_CACHED_FILE_BYTES + 1 + body.parts[2].readableBytes()
+
+    cleanup:
+    body.release()
+
+    where:
+    zeroCopy | type
+    true     | FileRegion
+    false    | ChunkedInput
+  }
+
+  def 'small uploads are cached'() {
+    given:
+    def store = new UploadStore()
+    def params = [new HttpArchive.Param('file', 'small.txt', 'text/plain')]
+
+    when:
+    2.times { MultipartBody.encode(params, tempDir, store, ByteBufAllocator.DEFAULT, true).release() }
+
+    then:
+    store.cachedCount == 1
+  }
+
+  def 'a missing upload fails the encoding of the body'() {
+    when:
+    MultipartBody.encode([new HttpArchive.Param('file', 'missing.txt', '')], tempDir, new UploadStore(), ByteBufAllocator.DEFAULT, true)
+
+    then:
+    thrown(FileNotFoundException)
+  }
+}
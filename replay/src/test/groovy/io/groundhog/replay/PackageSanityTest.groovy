@@ -25,7 +25,15 @@ import com.google.common.net.HostAndPort
 import com.google.common.testing.AbstractPackageSanityTests
 import io.groundhog.har.HttpArchive
 import io.netty.bootstrap.Bootstrap
+import io.netty.buffer.ByteBuf
+import io.netty.buffer.Unpooled
+import io.netty.channel.group.DefaultChannelGroup
+import io.netty.channel.nio.NioEventLoopGroup
 import io.netty.handler.codec.http.*
+import io.netty.util.concurrent.GlobalEventExecutor
+
+import java.util.concurrent.TimeUnit
+
 /**
  * Package sanity tests for {@link io.groundhog.replay}.
  *
@@ -37,24 +45,45 @@ class PackageSanityTest extends AbstractPackageSanityTests {
     ignoreClasses(new Predicate<Class<?>>() {
       @Override
       boolean apply(Class<?> input) {
-        Replay.class == input || ReplayClient.class == input || DefaultRequestReader.class == input
+        Replay.class == input || Coordinator.class == input || ReplayClient.class == input || DefaultRequestReader.class == input ||
+            BackendBalancer.class == input
       }
     })
 
     def postData = new HttpArchive.PostData("name", "value")
-    setDefault(UserAgentRequest.class, new UserAgentRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/",
-        Optional.of(postData), HttpHeaders.EMPTY_HEADERS, Collections.<Cookie> emptySet(), new File(""), 0l))
+    def request = new UserAgentRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/",
+        Optional.of(postData), HttpHeaders.EMPTY_HEADERS, Collections.<Cookie> emptySet(), new File(""), 0l)
     def channelWriterFactory =  { null } as UserAgentChannelWriterFactory
     def userAgentFactory = { null } as UserAgentFactory
-    setDefault(RequestDispatcher, new DefaultRequestDispatcher(new Bootstrap(), HostAndPort.fromHost("localhost"), channelWriterFactory, userAgentFactory))
+    setDefault(RequestDispatcher, new DefaultRequestDispatcher(new Bootstrap(), new NioEventLoopGroup(1), HostAndPort.fromHost("localhost"),
+        Collections.<HostAndPort> emptyList(), channelWriterFactory, userAgentFactory, new ReplaySslContext(HostAndPort.fromHost("localhost"))))
     setDefault(HttpMethod, HttpMethod.GET)
     setDefault(HttpHeaders, HttpHeaders.EMPTY_HEADERS)
     setDefault(HttpVersion, HttpVersion.HTTP_1_1)
     setDefault(HttpArchive.PostData, postData)
+    def uaRequest = new UserAgentRequest(request, new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK),
+        Unpooled.EMPTY_BUFFER, false)
+    setDefault(UserAgentRequest.class, uaRequest)
+    setDefault(DelayedUserAgentRequest, new DelayedUserAgentRequest(uaRequest, 0, 0, 0, TimeDilation.NONE, 0))
     setDefault(ReplayHttpRequest, new ReplayHttpRequest(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/"),
-        new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK), new NonPersistentUserAgent(), false))
+        uaRequest, new NonPersistentUserAgent(), Optional.absent(), 0, Optional.absent(), 0))
     setDefault(DefaultReplayLastHttpContent, new DefaultReplayLastHttpContent(new DefaultLastHttpContent(), Optional.absent()))
     setDefault(HostAndPort, HostAndPort.fromParts("localhost", 80))
+    def backend = Backend.resolve(HostAndPort.fromParts("localhost", 80))
+    setDefault(Backend, backend)
+    setDefault(ChannelConnector, new ChannelConnector(new Bootstrap(), backend, new DefaultChannelGroup(GlobalEventExecutor.INSTANCE)))
     setDefault(HashCode, Hashing.goodFastHash(64).hashInt(12345))
+    setDefault(ByteBuf, Unpooled.EMPTY_BUFFER)
+    setDefault(TimeDilation, TimeDilation.NONE)
+    setDefault(ReplayPartition, ReplayPartition.ALL)
+    setDefault(ArrivalRate, ArrivalRate.CAPTURED)
+    setDefault(ServiceLevelObjective, ServiceLevelObjective.of(99, 1, TimeUnit.SECONDS, 0))
+    setDefault(CapacitySearch, CapacitySearch.NONE)
+    setDefault(SessionRouter, new SessionRouter())
+    setDefault(RequestTiming, new RequestTiming(0, 0, 0, 0))
+    setDefault(ResponseSize, new ResponseSize(0, 0, false))
+    setDefault(UploadStore, new UploadStore())
+    setDefault(ReplaySslContext, new ReplaySslContext(HostAndPort.fromHost("localhost")))
+    setDefault(UserAgentHandler, new UserAgentHandler(new LoggingResultListener()))
   }
 }
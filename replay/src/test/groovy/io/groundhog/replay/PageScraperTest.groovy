@@ -0,0 +1,89 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay
+
+import com.google.common.base.Charsets
+import io.netty.buffer.Unpooled
+import spock.lang.Specification
+
+/**
+ * Tests for {@link PageScraper}.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+class PageScraperTest extends Specification {
+  static final String PAGE = '''<!DOCTYPE html>
+<html><head><TITLE>  Course &amp;
+ Content </TITLE>
+<script>if (a < b && "<form>") { document.write('<input type="hidden" name="script" value="1">') }</script>
+<!-- <form><input type="hidden" name="comment" value="1"></form> -->
+</head><body>
+<input type="hidden" name="outside" value="1">
+<form action="/post" method='POST'>
+<INPUT TYPE=hidden NAME=nonce VALUE=abc123 />
+<input type="text" name="visible" value="1">
+<input name='course_id' value="_1_1&amp;2" type="HIDDEN">
+<input type="hidden" name="empty">
+<textarea><input type="hidden" name="textarea" value="1"></textarea>
+</form>
+<title>Second title</title>
+</body></html>'''
+
+  def 'title and hidden fields of forms are scraped'() {
+    def scraper = scrape(PAGE, PAGE.length())
+
+    expect:
+    scraper.title == 'Course & Content'
+    scraper.hiddenFields.collect { [it.name, it.value] } == [['nonce', 'abc123'], ['course_id', '_1_1&2'], ['empty', '']]
+  }
+
+  def 'pages are scraped the same however they are chunked'() {
+    expect:
+    for (int chunkSize = 1; chunkSize < 64; chunkSize++) {
+      def scraper = scrape(PAGE, chunkSize)
+      assert scraper.title == 'Course & Content'
+      assert scraper.hiddenFields.collect { it.name } == ['nonce', 'course_id', 'empty']
+    }
+  }
+
+  def 'pages without a title have an empty title'() {
+    expect:
+    scrape('<html><body><title></title></body></html>', 8).title == ''
+    scrape('<html><body>No title</body></html>', 8).title == ''
+  }
+
+  def 'multi-byte characters are decoded with the charset of the page'() {
+    def page = '<title>Café</title><form><input type="hidden" name="n" value="über"></form>'
+    def scraper = new PageScraper(Charsets.UTF_8)
+    def bytes = page.getBytes(Charsets.UTF_8)
+    bytes.each { scraper.scrape(Unpooled.wrappedBuffer([it] as byte[])) }
+
+    expect:
+    scraper.title == 'Café'
+    scraper.hiddenFields*.value == ['über']
+  }
+
+  private static PageScraper scrape(String page, int chunkSize) {
+    def scraper = new PageScraper(Charsets.ISO_8859_1)
+    def bytes = page.getBytes(Charsets.ISO_8859_1)
+    for (int i = 0; i < bytes.length; i += chunkSize) {
+      scraper.scrape(Unpooled.wrappedBuffer(bytes, i, Math.min(chunkSize, bytes.length - i)))
+    }
+    scraper
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay
+
+import com.google.common.net.HostAndPort
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * Tests for {@link ReplayCoordinator}.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+class ReplayCoordinatorTest extends Specification {
+  def 'each worker is assigned its own partition once every worker has connected'() {
+    def coordinator = new ReplayCoordinator(0, 3, 0, TimeUnit.SECONDS)
+    coordinator.startAsync().awaitRunning()
+    def provider = new CoordinatedPartitionProvider(HostAndPort.fromParts("localhost", coordinator.getPort()))
+    def executor = Executors.newFixedThreadPool(3)
+
+    when:
+    def futures = (1..3).collect { executor.submit({ provider.get() } as Callable<ReplayPartition>) }
+    def partitions = futures.collect { it.get(5, TimeUnit.SECONDS) }
+
+    then:
+    partitions*.partition.sort() == [0, 1, 2]
+    partitions*.partitions == [3, 3, 3]
+
+    cleanup:
+    executor.shutdown()
+    coordinator.stopAsync().awaitTerminated()
+  }
+
+  def 'a partition reports how late it started once the shared start time has passed'() {
+    def partition = ReplayPartition.of(0, 2, 0, TimeUnit.MILLISECONDS)
+    Thread.sleep(10)
+
+    expect:
+    TimeUnit.NANOSECONDS.toMillis(partition.awaitStart()) >= 10
+    ReplayPartition.of(0, 2, 10, TimeUnit.MILLISECONDS).awaitStart() == 0
+    ReplayPartition.ALL.awaitStart() == 0
+  }
+}
@@ -17,12 +17,17 @@
 
 package io.groundhog.replay
 
+import com.google.common.base.Optional
+import com.google.common.net.HostAndPort
 import io.netty.channel.ChannelHandlerContext
+import io.netty.channel.ChannelInboundHandlerAdapter
 import io.netty.channel.ChannelPipeline
 import io.netty.channel.ChannelPromise
+import io.netty.channel.embedded.EmbeddedChannel
 import io.netty.handler.codec.http.DefaultHttpResponse
 import io.netty.handler.codec.http.HttpResponseStatus
 import io.netty.handler.codec.http.HttpVersion
+import io.netty.handler.codec.http.LastHttpContent
 import spock.lang.Specification
 
 /**
@@ -30,7 +35,8 @@ import spock.lang.Specification
  */
 class ReplayHandlerTest extends Specification {
   def listener = Mock(ReplayResultListener)
-  def handler = new ReplayHandler(Mock(ChannelPipeline), Mock(UserAgentHandler), listener, false, 5000)
+  def handler = new ReplayHandler(Mock(ChannelPipeline), Mock(UserAgentHandler), listener, false,
+      new ReplaySslContext(HostAndPort.fromHost('localhost')), 5000)
 
   def 'a response with a new instance of an equal response status is successful'() {
     given:
@@ -41,13 +47,14 @@ class ReplayHandlerTest extends Specification {
 
     when:
     def context = Mock(ChannelHandlerContext)
+    context.channel() >> new EmbeddedChannel(new ChannelInboundHandlerAdapter())
     handler.write(context, request, Mock(ChannelPromise))
     handler.channelRead(context, response)
-    handler.channelRead(context, Mock(ReplayLastHttpContent))
+    handler.channelRead(context, lastContent())
 
     then:
     //noinspection GroovyAssignabilityCheck
-    1 * listener.success( _, _, _, _, _, _, _)
+    1 * listener.success(_, _, _, _, _, _)
   }
 
   def 'a response with a different status to expected causes a failure notification'() {
@@ -59,13 +66,14 @@ class ReplayHandlerTest extends Specification {
 
     when:
     def context = Mock(ChannelHandlerContext)
+    context.channel() >> new EmbeddedChannel(new ChannelInboundHandlerAdapter())
     handler.write(context, request, Mock(ChannelPromise))
     handler.channelRead(context, response)
-    handler.channelRead(context, Mock(ReplayLastHttpContent))
+    handler.channelRead(context, lastContent())
 
     then:
     //noinspection GroovyAssignabilityCheck
-    1 * listener.failure(_, _, _, _, _, _, _, _)
+    1 * listener.failure(_, _, _, _, _, _, _)
   }
 
   def 'a response with a Blackboard Learn error header causes a failure notification'() {
@@ -78,12 +86,107 @@ class ReplayHandlerTest extends Specification {
 
     when:
     def context = Mock(ChannelHandlerContext)
+    context.channel() >> new EmbeddedChannel(new ChannelInboundHandlerAdapter())
     handler.write(context, request, Mock(ChannelPromise))
     handler.channelRead(context, response)
-    handler.channelRead(context, Mock(ReplayLastHttpContent))
+    handler.channelRead(context, lastContent())
 
     then:
     //noinspection GroovyAssignabilityCheck
-    1 * listener.failure(_, _, _, _, _, _, _, _)
+    1 * listener.failure(_, _, _, _, _, _, _)
+  }
+
+  def 'a persistent connection not opened by a pool is closed once the response is read'() {
+    given:
+    def request = Mock(ReplayHttpRequest)
+    request.expectedResponse >> new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK)
+    request.keepAlive >> true
+    def response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK)
+    def context = Mock(ChannelHandlerContext)
+    context.channel() >> new EmbeddedChannel(new ChannelInboundHandlerAdapter())
+
+    when:
+    handler.write(context, request, Mock(ChannelPromise))
+    handler.channelRead(context, response)
+    handler.channelRead(context, lastContent())
+
+    then:
+    1 * context.close()
+  }
+
+  def 'a connection that is not persistent is left open once the response is read'() {
+    given:
+    def request = Mock(ReplayHttpRequest)
+    request.expectedResponse >> new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK)
+    def response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK)
+    def context = Mock(ChannelHandlerContext)
+    context.channel() >> new EmbeddedChannel(new ChannelInboundHandlerAdapter())
+
+    when:
+    handler.write(context, request, Mock(ChannelPromise))
+    handler.channelRead(context, response)
+    handler.channelRead(context, lastContent())
+
+    then:
+    0 * context.close()
+  }
+
+  def 'a request is outstanding on the backend of its connection until its response is read'() {
+    given:
+    def request = Mock(ReplayHttpRequest)
+    request.expectedResponse >> new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK)
+    def backend = Backend.resolve(HostAndPort.fromParts('localhost', 8080))
+    def channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter())
+    channel.attr(Backend.BACKEND_KEY).set(backend)
+    def context = Mock(ChannelHandlerContext)
+    context.channel() >> channel
+
+    def promise = channel.newPromise()
+
+    when:
+    handler.write(context, request, promise)
+
+    then:
+    backend.outstanding == 0
+
+    when:
+    promise.setSuccess()
+
+    then:
+    backend.outstanding == 1
+
+    when:
+    handler.channelRead(context, new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK))
+    handler.channelRead(context, lastContent())
+
+    then:
+    backend.outstanding == 0
+    backend.requests == 1
+  }
+
+  def 'a request that fails to be written is not outstanding, and is not reported when its connection closes'() {
+    given:
+    def request = Mock(ReplayHttpRequest)
+    request.expectedResponse >> new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK)
+    def backend = Backend.resolve(HostAndPort.fromParts('localhost', 8080))
+    def channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter())
+    channel.attr(Backend.BACKEND_KEY).set(backend)
+    def context = Mock(ChannelHandlerContext)
+    context.channel() >> channel
+    def promise = channel.newPromise()
+
+    when:
+    handler.write(context, request, promise)
+    promise.setFailure(new ConnectException())
+    handler.channelInactive(context)
+
+    then:
+    backend.outstanding == 0
+    backend.requests == 0
+    0 * listener._
+  }
+
+  private static ReplayLastHttpContent lastContent() {
+    new DefaultReplayLastHttpContent(LastHttpContent.EMPTY_LAST_CONTENT, Optional.absent())
   }
 }
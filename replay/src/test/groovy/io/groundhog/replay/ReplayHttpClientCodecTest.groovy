@@ -0,0 +1,67 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.groundhog.replay
+
+import com.google.common.base.Charsets
+import com.google.common.base.Optional
+import io.netty.buffer.ByteBuf
+import io.netty.buffer.Unpooled
+import io.netty.buffer.UnpooledByteBufAllocator
+import io.netty.channel.embedded.EmbeddedChannel
+import io.netty.handler.codec.http.*
+import spock.lang.Specification
+
+/**
+ * Tests for {@link ReplayHttpClientCodec}.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+class ReplayHttpClientCodecTest extends Specification {
+  def 'prelude is written in place of the request line and static headers'() {
+    def captured = new UserAgentRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/path", Optional.absent(),
+        HttpHeaders.EMPTY_HEADERS, Collections.emptySet(), new File(""), 0l)
+    def prelude = new RequestPreludeEncoder(UnpooledByteBufAllocator.DEFAULT, false).encode(captured, false)
+    def uaRequest = new UserAgentRequest(captured, new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK), prelude, false)
+    def request = new ReplayHttpRequest(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/path"), uaRequest,
+        new NonPersistentUserAgent(), Optional.absent(), 0, Optional.absent(), 0)
+    request.headers().add(HttpHeaders.Names.COOKIE, 'name=value')
+    def channel = new EmbeddedChannel(new ReplayHttpClientCodec())
+
+    when:
+    channel.writeOutbound(request)
+    def encoded = ((ByteBuf) channel.readOutbound()).toString(Charsets.US_ASCII)
+
+    then:
+    encoded.startsWith(prelude.toString(Charsets.US_ASCII))
+    encoded.endsWith('Cookie: name=value\r\n\r\n')
+    encoded.count('GET /path HTTP/1.1') == 1
+  }
+
+  def 'response to a HEAD request is decoded without content'() {
+    def channel = new EmbeddedChannel(new ReplayHttpClientCodec())
+    channel.writeOutbound(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.HEAD, "/"))
+
+    when:
+    channel.writeInbound(Unpooled.copiedBuffer('HTTP/1.1 200 OK\r\nContent-Length: 10\r\n\r\n', Charsets.US_ASCII))
+
+    then:
+    channel.readInbound() instanceof HttpResponse
+    channel.readInbound() instanceof LastHttpContent
+  }
+}
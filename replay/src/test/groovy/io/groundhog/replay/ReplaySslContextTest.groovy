@@ -0,0 +1,52 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay
+
+import com.google.common.net.HostAndPort
+import spock.lang.Specification
+
+/**
+ * Tests for {@link ReplaySslContext}.
+ */
+class ReplaySslContextTest extends Specification {
+  def 'engines are created in client mode for the target, so their sessions can be resumed'() {
+    given:
+    def context = new ReplaySslContext(HostAndPort.fromParts('localhost', 8443))
+
+    when:
+    def engine = context.newHandler().engine()
+
+    then:
+    engine.useClientMode
+    engine.peerHost == 'localhost'
+    engine.peerPort == 8443
+  }
+
+  def 'engines for a target without a port are created for the default HTTPS port'() {
+    expect:
+    new ReplaySslContext(HostAndPort.fromHost('localhost')).newHandler().engine().peerPort == 443
+  }
+
+  def 'engines for a backend are created for its host and port, so sessions are only resumed with that backend'() {
+    when:
+    def engine = new ReplaySslContext(HostAndPort.fromParts('localhost', 8443)).newHandler(HostAndPort.fromParts('backend', 9443)).engine()
+
+    then:
+    engine.peerHost == 'backend'
+    engine.peerPort == 9443
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.groundhog.replay
+
+import com.google.common.base.Charsets
+import io.netty.buffer.UnpooledByteBufAllocator
+import io.netty.handler.codec.http.*
+import spock.lang.Specification
+
+/**
+ * Tests for {@link RequestPreludeEncoder}.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+class RequestPreludeEncoderTest extends Specification {
+  def encoder = new RequestPreludeEncoder(UnpooledByteBufAllocator.DEFAULT, false)
+
+  def 'Connection header set to close in prelude'() {
+    def request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/")
+    request.headers().add(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.KEEP_ALIVE)
+
+    when:
+    def prelude = encoder.encode(request, false).toString(Charsets.US_ASCII)
+
+    then:
+    prelude.startsWith('GET / HTTP/1.1\r\n')
+    prelude.contains('Connection: close\r\n')
+    !prelude.contains(HttpHeaders.Values.KEEP_ALIVE)
+  }
+
+  def 'Connection header set to keep-alive in prelude for persistent connections'() {
+    def request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/")
+    request.headers().add(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.CLOSE)
+
+    when:
+    def prelude = new RequestPreludeEncoder(UnpooledByteBufAllocator.DEFAULT, true).encode(request, false).toString(Charsets.US_ASCII)
+
+    then:
+    prelude.contains('Connection: keep-alive\r\n')
+    !prelude.contains(HttpHeaders.Values.CLOSE)
+  }
+
+  def 'cookies are never included in prelude'() {
+    def request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/")
+    request.headers().add('cookie', 'session_id=value')
+
+    when:
+    def prelude = encoder.encode(request, false).toString(Charsets.US_ASCII)
+
+    then:
+    !prelude.toLowerCase().contains('cookie')
+  }
+
+  def 'entity headers are excluded from prelude only for requests with a body'() {
+    def request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/")
+    request.headers().add(HttpHeaders.Names.CONTENT_TYPE, 'application/x-www-form-urlencoded')
+    request.headers().add(HttpHeaders.Names.CONTENT_LENGTH, '10')
+
+    expect:
+    !RequestPreludeEncoder.getStaticHeaders(request.headers(), true, false).contains(HttpHeaders.Names.CONTENT_LENGTH)
+    RequestPreludeEncoder.getStaticHeaders(request.headers(), false, false).contains(HttpHeaders.Names.CONTENT_LENGTH)
+  }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay
+
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Tests for {@link RequestTiming}.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+class RequestTimingTest extends Specification {
+  def 'latency includes the delay sending a request, service time does not'() {
+    def timing = new RequestTiming(TimeUnit.MILLISECONDS.toNanos(100), TimeUnit.MILLISECONDS.toNanos(350),
+        TimeUnit.MILLISECONDS.toNanos(400), 10000)
+
+    expect:
+    timing.getLatency(TimeUnit.MILLISECONDS) == 300
+    timing.getServiceTime(TimeUnit.MILLISECONDS) == 50
+    timing.getSendDelay(TimeUnit.MILLISECONDS) == 250
+    timing.intendedStartMillis == 9700
+    timing.sentMillis == 9950
+    timing.endedMillis == 10000
+  }
+}
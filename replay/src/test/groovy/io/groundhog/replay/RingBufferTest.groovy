@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay
+
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * Tests for {@link RingBuffer}.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+class RingBufferTest extends Specification {
+  def 'elements are drained in the order they were offered, across laps of the buffer'() {
+    def buffer = new RingBuffer<Integer>(4)
+    def drained = []
+
+    when:
+    (1..3).each { buffer.offer(it) }
+    buffer.drainTo(drained, 2)
+    (4..6).each { buffer.offer(it) }
+    buffer.drainTo(drained, 10)
+
+    then:
+    drained == [1, 2, 3, 4, 5, 6]
+  }
+
+  def 'offers are refused once the buffer is full, until it is drained'() {
+    def buffer = new RingBuffer<Integer>(2)
+
+    expect:
+    buffer.offer(1)
+    buffer.offer(2)
+    !buffer.offer(3)
+    buffer.drainTo([], 1) == 1
+    buffer.offer(3)
+  }
+
+  def 'every element offered by concurrent producers is drained exactly once'() {
+    def buffer = new RingBuffer<Integer>(64)
+    def producers = 4
+    def perProducer = 10000
+    def start = new CountDownLatch(1)
+    def executor = Executors.newFixedThreadPool(producers)
+    producers.times { producer ->
+      executor.submit {
+        start.await()
+        perProducer.times {
+          while (!buffer.offer(producer * perProducer + it)) {
+            Thread.yield()
+          }
+        }
+      }
+    }
+    def drained = []
+
+    when:
+    start.countDown()
+    def deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30)
+    while (drained.size() < producers * perProducer && System.currentTimeMillis() < deadline) {
+      buffer.drainTo(drained, 100)
+    }
+    executor.shutdown()
+
+    then:
+    drained.size() == producers * perProducer
+    drained.toSet().size() == producers * perProducer
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay
+
+import com.google.common.base.Optional
+import io.netty.buffer.Unpooled
+import io.netty.handler.codec.http.*
+import spock.lang.Specification
+
+/**
+ * Tests for {@link SessionArrivalScheduler}.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+class SessionArrivalSchedulerTest extends Specification {
+  def 'captured arrivals keep the captured timing'() {
+    def scheduler = new SessionArrivalScheduler(ArrivalRate.CAPTURED, 1000)
+
+    expect:
+    scheduler.schedule(request(Optional.of("a"), 1500)) == Optional.of(1500l)
+  }
+
+  def 'sessions are started at the arrival rate, preserving think time'() {
+    def scheduler = new SessionArrivalScheduler(ArrivalRate.constant(10), 0)
+
+    expect:
+    // Captured a second apart, started 100ms apart
+    scheduler.schedule(request(Optional.of("a"), 0)) == Optional.of(0l)
+    scheduler.schedule(request(Optional.of("b"), 1000)) == Optional.of(100l)
+    scheduler.schedule(request(Optional.of("a"), 500)) == Optional.of(500l)
+    scheduler.schedule(request(Optional.of("c"), 2000)) == Optional.of(200l)
+    scheduler.schedule(request(Optional.of("b"), 3000)) == Optional.of(2100l)
+  }
+
+  def 'sessions captured faster than the arrival rate are skipped'() {
+    def scheduler = new SessionArrivalScheduler(ArrivalRate.constant(1), 0)
+
+    expect:
+    scheduler.schedule(request(Optional.of("a"), 0)) == Optional.of(0l)
+    !scheduler.schedule(request(Optional.of("b"), 500)).isPresent()
+    scheduler.schedule(request(Optional.of("a"), 700)) == Optional.of(700l)
+    !scheduler.schedule(request(Optional.of("b"), 800)).isPresent()
+    scheduler.schedule(request(Optional.absent(), 1200)) == Optional.of(1000l)
+    !scheduler.schedule(request(Optional.absent(), 1300)).isPresent()
+  }
+
+  private static UserAgentRequest request(Optional<String> session, long startedDateTime) {
+    def cookies = session.isPresent() ? [new DefaultCookie(UserAgentChannelWriter.APPLICATION_SESSION_COOKIE_NAME, session.get())] as Set : Collections.emptySet()
+    def request = new UserAgentRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/", Optional.absent(), HttpHeaders.EMPTY_HEADERS,
+        cookies, new File(""), startedDateTime)
+    new UserAgentRequest(request, new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK), Unpooled.EMPTY_BUFFER, false)
+  }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay
+
+import io.groundhog.har.HttpArchive
+
+import com.google.common.base.Optional
+import io.netty.buffer.Unpooled
+import io.netty.handler.codec.http.*
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Tests for {@link SessionDependencies}.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+class SessionDependenciesTest extends Specification {
+  def dependencies = new SessionDependencies(new SessionRouter(), 30, TimeUnit.MINUTES)
+
+  def 'requests of a session depend on the request setting its cookie'() {
+    def login = dependencies.add(request(HttpMethod.GET, Optional.absent(), Optional.of("session"), Optional.absent()), 0)
+    def page = dependencies.add(request(HttpMethod.GET, Optional.of("session"), Optional.absent(), Optional.of("application/javascript")), 0)
+
+    expect:
+    login.prerequisites.done
+    login.completion.present
+    !page.prerequisites.done
+
+    when:
+    login.completion.get().set(null)
+
+    then:
+    page.prerequisites.done
+  }
+
+  def 'form posts depend on the page before them, other requests do not'() {
+    def login = dependencies.add(request(HttpMethod.GET, Optional.absent(), Optional.of("session"), Optional.absent()), 0)
+    login.completion.get().set(null)
+    def form = dependencies.add(request(HttpMethod.GET, Optional.of("session"), Optional.absent(), Optional.of("text/html")), 0)
+    def script = dependencies.add(request(HttpMethod.GET, Optional.of("session"), Optional.absent(), Optional.of("application/javascript")), 0)
+    def post = dependencies.add(formPost("session"), 0)
+
+    expect:
+    form.completion.present
+    !script.completion.present
+    script.prerequisites.done
+    !post.prerequisites.done
+
+    when:
+    form.completion.get().set(null)
+
+    then:
+    post.prerequisites.done
+  }
+
+  def 'form posts depend on every pending page before them'() {
+    def login = dependencies.add(request(HttpMethod.GET, Optional.absent(), Optional.of("session"), Optional.absent()), 0)
+    login.completion.get().set(null)
+    def first = dependencies.add(request(HttpMethod.GET, Optional.of("session"), Optional.absent(), Optional.of("text/html")), 0)
+    def second = dependencies.add(request(HttpMethod.GET, Optional.of("session"), Optional.absent(), Optional.of("text/html")), 0)
+    second.completion.get().set(null)
+    def post = dependencies.add(formPost("session"), 0)
+
+    expect:
+    !post.prerequisites.done
+
+    when:
+    first.completion.get().set(null)
+
+    then:
+    post.prerequisites.done
+  }
+
+  def 'the last request of a session waits for the page before it, and ends the session'() {
+    def login = dependencies.add(request(HttpMethod.GET, Optional.absent(), Optional.of("session"), Optional.absent()), 0)
+    login.completion.get().set(null)
+    def form = dependencies.add(request(HttpMethod.GET, Optional.of("session"), Optional.absent(), Optional.of("text/html")), 0)
+    def last = dependencies.add(sessionEnd(request(HttpMethod.GET, Optional.of("session"), Optional.absent(), Optional.of("image/png"))), 0)
+    def afterEnd = dependencies.add(formPost("session"), 0)
+
+    expect:
+    !last.prerequisites.done
+    afterEnd.prerequisites.done
+  }
+
+  def 'each copy of a session has its own dependencies'() {
+    def login = dependencies.add(request(HttpMethod.GET, Optional.absent(), Optional.of("session"), Optional.absent()), 0)
+    def otherCopy = dependencies.add(request(HttpMethod.GET, Optional.of("session"), Optional.absent(), Optional.absent()), 1)
+
+    expect:
+    !login.completion.get().done
+    otherCopy.prerequisites.done
+  }
+
+  def 'requests without a session are independent'() {
+    expect:
+    dependencies.add(request(HttpMethod.GET, Optional.absent(), Optional.absent(), Optional.of("text/html")), 0).is(SessionDependencies.Dependency.INDEPENDENT)
+  }
+
+  def 'the state of a session is discarded once it has been idle for the timeout'() {
+    def minute = TimeUnit.MINUTES.toMillis(1)
+    def login = dependencies.add(request(HttpMethod.GET, Optional.absent(), Optional.of("session"), Optional.absent()), 0)
+    def pending = dependencies.add(request(HttpMethod.GET, Optional.of("session"), Optional.absent(), Optional.absent(), 29 * minute), 0)
+    def expired = dependencies.add(request(HttpMethod.GET, Optional.of("session"), Optional.absent(), Optional.absent(), 60 * minute), 0)
+
+    expect:
+    !login.completion.get().done
+    !pending.prerequisites.done
+    expired.prerequisites.done
+  }
+
+  private static UserAgentRequest request(HttpMethod method, Optional<String> session, Optional<String> setSession, Optional<String> contentType,
+                                          long startedDateTime = 0) {
+    def cookies = session.isPresent() ? [new DefaultCookie(UserAgentChannelWriter.APPLICATION_SESSION_COOKIE_NAME, session.get())] as Set : Collections.emptySet()
+    def request = new UserAgentRequest(HttpVersion.HTTP_1_1, method, "/", Optional.absent(), HttpHeaders.EMPTY_HEADERS,
+        cookies, new File(""), startedDateTime)
+    userAgentRequest(request, setSession, contentType)
+  }
+
+  private static UserAgentRequest sessionEnd(UserAgentRequest request) {
+    new UserAgentRequest(request, request.expectedResponse.get(), Unpooled.EMPTY_BUFFER, false, true)
+  }
+
+  private static UserAgentRequest formPost(String session) {
+    def postData = new HttpArchive.PostData("application/x-www-form-urlencoded", "", [new HttpArchive.Param("nonce", "1")])
+    def request = new UserAgentRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/", Optional.of(postData), HttpHeaders.EMPTY_HEADERS,
+        [new DefaultCookie(UserAgentChannelWriter.APPLICATION_SESSION_COOKIE_NAME, session)] as Set, new File(""), 0l)
+    userAgentRequest(request, Optional.absent(), Optional.absent())
+  }
+
+  private static UserAgentRequest userAgentRequest(UserAgentRequest request, Optional<String> setSession, Optional<String> contentType) {
+    def response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK)
+    if (setSession.isPresent()) {
+      response.headers().add(HttpHeaders.Names.SET_COOKIE, ServerCookieEncoder.encode(UserAgentChannelWriter.APPLICATION_SESSION_COOKIE_NAME, setSession.get()))
+    }
+    if (contentType.isPresent()) {
+      response.headers().add(HttpHeaders.Names.CONTENT_TYPE, contentType.get())
+    }
+    new UserAgentRequest(request, response, Unpooled.EMPTY_BUFFER, false)
+  }
+}
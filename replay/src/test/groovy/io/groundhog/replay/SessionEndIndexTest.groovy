@@ -0,0 +1,92 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay
+
+import com.google.common.base.Optional
+import io.netty.buffer.Unpooled
+import io.netty.handler.codec.http.*
+import spock.lang.Specification
+
+/**
+ * Tests for {@link SessionEndIndex}.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+class SessionEndIndexTest extends Specification {
+  def 'the last request of each session is indexed'() {
+    def reader = new ListRequestReader([
+        request(Optional.absent(), Optional.of("first")),
+        request(Optional.absent(), Optional.of("second")),
+        request(Optional.of("first"), Optional.absent()),
+        request(Optional.absent(), Optional.absent()),
+        request(Optional.of("second"), Optional.absent()),
+        request(Optional.absent(), Optional.absent())])
+
+    when:
+    def index = SessionEndIndex.build(reader)
+
+    then:
+    index.requests == 6
+    index.sessions == 2
+    (0..5).findAll { index.isSessionEnd(it) } == [2, 4]
+  }
+
+  def 'sessions are followed when their cookie is changed'() {
+    def reader = new ListRequestReader([
+        request(Optional.absent(), Optional.of("first")),
+        request(Optional.of("first"), Optional.of("changed")),
+        request(Optional.of("changed"), Optional.absent())])
+
+    when:
+    def index = SessionEndIndex.build(reader)
+
+    then:
+    index.sessions == 1
+    (0..2).findAll { index.isSessionEnd(it) } == [2]
+  }
+
+  private static UserAgentRequest request(Optional<String> session, Optional<String> setSession) {
+    def cookies = session.isPresent() ? [new DefaultCookie(UserAgentChannelWriter.APPLICATION_SESSION_COOKIE_NAME, session.get())] as Set : Collections.emptySet()
+    def request = new UserAgentRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/", Optional.absent(), HttpHeaders.EMPTY_HEADERS,
+        cookies, new File(""), 0l)
+    def response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK)
+    if (setSession.isPresent()) {
+      response.headers().add(HttpHeaders.Names.SET_COOKIE, ServerCookieEncoder.encode(UserAgentChannelWriter.APPLICATION_SESSION_COOKIE_NAME, setSession.get()))
+    }
+    new UserAgentRequest(request, response, Unpooled.EMPTY_BUFFER, false)
+  }
+
+  private static final class ListRequestReader implements RequestReader {
+    private final List<UserAgentRequest> requests
+    private int position
+
+    ListRequestReader(List<UserAgentRequest> requests) {
+      this.requests = requests
+    }
+
+    @Override
+    UserAgentRequest readRequest() throws IOException {
+      requests[position++]
+    }
+
+    @Override
+    boolean isLastRequest(UserAgentRequest request) {
+      request.is(requests.last())
+    }
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay
+
+import com.google.common.base.Optional
+import io.netty.buffer.Unpooled
+import io.netty.handler.codec.http.*
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Tests for {@link SessionPartitioner}.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+class SessionPartitionerTest extends Specification {
+  def 'every request is matched by exactly one partition, and each session by the same partition'() {
+    def partitioners = (0..2).collect { new SessionPartitioner(ReplayPartition.of(it, 3, 0, TimeUnit.SECONDS)) }
+    def requests = (0..29).collectMany { session(it) } + (0..9).collect { request(Optional.absent(), Optional.absent()) }
+
+    when:
+    def matches = requests.collect { request -> partitioners.findIndexValues { it.apply(request) } }
+
+    then:
+    matches.every { it.size() == 1 }
+    (0..29).every { matches[it * 3..it * 3 + 2].flatten().unique().size() == 1 }
+    matches.flatten().unique().size() == 3
+  }
+
+  def 'a session is followed when its cookie is changed'() {
+    def partitioners = (0..3).collect { new SessionPartitioner(ReplayPartition.of(it, 4, 0, TimeUnit.SECONDS)) }
+    def requests = (0..19).collect { request(Optional.of("old" + it), Optional.of("new" + it)) } +
+        (0..19).collect { request(Optional.of("new" + it), Optional.absent()) }
+
+    when:
+    def matches = requests.collect { request -> partitioners.findIndexValues { it.apply(request) } }
+
+    then:
+    (0..19).every { matches[it] == matches[it + 20] }
+  }
+
+  def 'the whole capture matches all requests'() {
+    expect:
+    new SessionPartitioner(ReplayPartition.ALL).apply(request(Optional.of("session"), Optional.absent()))
+  }
+
+  private static List<UserAgentRequest> session(int id) {
+    [request(Optional.absent(), Optional.of("session" + id)),
+     request(Optional.of("session" + id), Optional.absent()),
+     request(Optional.of("session" + id), Optional.absent())]
+  }
+
+  private static UserAgentRequest request(Optional<String> session, Optional<String> setSession) {
+    def cookies = session.isPresent() ? [new DefaultCookie(UserAgentChannelWriter.APPLICATION_SESSION_COOKIE_NAME, session.get())] as Set : Collections.emptySet()
+    def request = new UserAgentRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/", Optional.absent(), HttpHeaders.EMPTY_HEADERS,
+        cookies, new File(""), 0l)
+    def response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK)
+    if (setSession.isPresent()) {
+      response.headers().add(HttpHeaders.Names.SET_COOKIE, ServerCookieEncoder.encode(UserAgentChannelWriter.APPLICATION_SESSION_COOKIE_NAME, setSession.get()))
+    }
+    new UserAgentRequest(request, response, Unpooled.EMPTY_BUFFER, false)
+  }
+}
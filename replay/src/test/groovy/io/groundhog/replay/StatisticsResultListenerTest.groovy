@@ -0,0 +1,72 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package io.groundhog.replay
+
+import com.google.common.base.Charsets
+import com.google.common.base.Optional
+import com.google.common.io.Files
+import io.netty.handler.codec.http.*
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Tests for {@link StatisticsResultListener}.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+class StatisticsResultListenerTest extends Specification {
+  def 'results are aggregated by label, status class and media type'() {
+    def reportFile = File.createTempFile('statistics', '.tsv')
+    reportFile.deleteOnExit()
+    def listener = new StatisticsResultListener(reportFile)
+    def userAgent = new NonPersistentUserAgent()
+    def size = new ResponseSize(0, 0, false)
+
+    when:
+    [10, 20, 30].each {
+      listener.success(request('/page'), response(HttpResponseStatus.OK, 'text/html'), userAgent, size, timing(it), Optional.absent())
+    }
+    listener.failure('Expected status 200 OK', request('/page'), response(HttpResponseStatus.NOT_FOUND, 'text/html'), userAgent, size,
+        timing(40), Optional.absent())
+    listener.failure(request('/script.js'), Optional.absent(), Optional.absent())
+    listener.close()
+    def lines = Files.readLines(reportFile, Charsets.UTF_8)
+
+    then:
+    lines.size() == 4
+    lines[1].startsWith('/page\t2xx\tPage\t3\t0\t20.0\t20\t')
+    lines[2].startsWith('/page\t4xx\tPage\t1\t1\t40.0\t40\t')
+    lines[3].startsWith('/script.js\t-\t-\t1\t1\t0.0\t0\t')
+  }
+
+  private static HttpRequest request(String uri) {
+    new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, uri)
+  }
+
+  private static HttpResponse response(HttpResponseStatus status, String contentType) {
+    def response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, status)
+    response.headers().set(HttpHeaders.Names.CONTENT_TYPE, contentType)
+    response
+  }
+
+  private static RequestTiming timing(long latencyMillis) {
+    def ended = TimeUnit.MILLISECONDS.toNanos(latencyMillis)
+    new RequestTiming(0, 0, ended, 0)
+  }
+}
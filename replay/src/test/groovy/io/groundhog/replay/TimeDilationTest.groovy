@@ -0,0 +1,64 @@
+/*
+ * Copyright 2013-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.groundhog.replay
+
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Tests for {@link TimeDilation}.
+ *
+ * @author Danny Thomas
+ * @since 1.0
+ */
+class TimeDilationTest extends Specification {
+  def 'a constant speed scales capture offsets'() {
+    expect:
+    TimeDilation.constant(speed).getReplayOffsetNanos(1000, TimeUnit.MILLISECONDS) == TimeUnit.MILLISECONDS.toNanos(replayOffset)
+
+    where:
+    speed | replayOffset
+    1     | 1000
+    0.5   | 2000
+    2     | 500
+    10    | 100
+  }
+
+  def 'a ramp covers the capture time elapsed at the average speed, then holds the final speed'() {
+    def dilation = TimeDilation.ramp(1, 5, 30, TimeUnit.MINUTES)
+
+    expect:
+    // 30 minutes at an average speed of 3x covers 90 minutes of capture
+    Math.abs(dilation.getReplayOffsetNanos(90, TimeUnit.MINUTES) - TimeUnit.MINUTES.toNanos(30)) < TimeUnit.MILLISECONDS.toNanos(1)
+    Math.abs(dilation.getReplayOffsetNanos(140, TimeUnit.MINUTES) - TimeUnit.MINUTES.toNanos(40)) < TimeUnit.MILLISECONDS.toNanos(1)
+  }
+
+  def 'replay offsets preserve the order of requests'() {
+    def dilation = TimeDilation.ramp(initialSpeed, finalSpeed, 10, TimeUnit.SECONDS)
+    def offsets = (0..200).collect { dilation.getReplayOffsetNanos(it * 100, TimeUnit.MILLISECONDS) }
+
+    expect:
+    offsets == offsets.sort(false)
+
+    where:
+    initialSpeed | finalSpeed
+    1            | 5
+    5            | 0.5
+  }
+}
@@ -17,29 +17,28 @@
 
 package io.groundhog.replay
 
-import com.google.common.cache.LoadingCache
+import com.google.common.base.Charsets
+import com.google.common.base.Optional
+import com.google.common.cache.CacheBuilder
+import com.google.common.cache.CacheLoader
+import com.google.common.hash.HashCode
+import io.netty.buffer.ByteBuf
+import io.netty.buffer.Unpooled
+import io.netty.buffer.UnpooledByteBufAllocator
+import io.netty.channel.ChannelHandlerContext
+import io.netty.channel.ChannelInboundHandlerAdapter
+import io.netty.channel.ChannelOutboundHandlerAdapter
+import io.netty.channel.ChannelPromise
+import io.netty.channel.embedded.EmbeddedChannel
 import io.netty.handler.codec.http.*
+import io.netty.util.ReferenceCountUtil
+import io.netty.util.concurrent.ImmediateEventExecutor
 import spock.lang.Specification
 
 /**
  * Tests for {@link UserAgentChannelWriter}.
  */
 class UserAgentChannelWriterTest extends Specification {
-  def 'Connect header set to close following copy'() {
-    def uaRequest = Mock(UserAgentRequest)
-    uaRequest.headers() >> HttpHeaders.EMPTY_HEADERS
-    def listener = Mock(ReplayResultListener)
-    def writer = new UserAgentChannelWriter(uaRequest, Mock(LoadingCache), listener)
-    def request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/")
-    request.headers().add(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.KEEP_ALIVE)
-
-    when:
-    def copiedRequest = writer.copyRequest(request)
-
-    then:
-    copiedRequest.headers().get(HttpHeaders.Names.CONNECTION) == "close"
-  }
-
   def 'session cookie is not present on a response with no headers'() {
     def response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK)
     expect:
@@ -57,4 +56,109 @@ class UserAgentChannelWriterTest extends Specification {
     cookie.isPresent()
     cookie.get().value == "value"
   }
+
+  def 'each copy of a capture has its own user agent for a session'() {
+    def captured = new UserAgentRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/", Optional.absent(), HttpHeaders.EMPTY_HEADERS,
+        Collections.emptySet(), new File(""), 0l)
+    def response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK)
+    response.headers().add(HttpHeaders.Names.SET_COOKIE, ServerCookieEncoder.encode(UserAgentChannelWriter.APPLICATION_SESSION_COOKIE_NAME, "value"))
+    def uaRequest = new UserAgentRequest(captured, response, Unpooled.EMPTY_BUFFER, false)
+    def userAgentCache = CacheBuilder.newBuilder().build(new CacheLoader<HashCode, UserAgent>() {
+      @Override
+      UserAgent load(HashCode key) throws Exception {
+        new DefaultUserAgent(key, ImmediateEventExecutor.INSTANCE)
+      }
+    })
+
+    when:
+    def firstCopy = new UserAgentChannelWriter(new DelayedUserAgentRequest(uaRequest, 0, 0, 0, TimeDilation.NONE, 0), userAgentCache,
+        Optional.absent(), Mock(ReplayResultListener), new UploadStore()).getUserAgent()
+    def secondCopy = new UserAgentChannelWriter(new DelayedUserAgentRequest(uaRequest, 0, 0, 0, TimeDilation.NONE, 1), userAgentCache,
+        Optional.absent(), Mock(ReplayResultListener), new UploadStore()).getUserAgent()
+
+    then:
+    firstCopy.persistent
+    secondCopy.persistent
+    !firstCopy.is(secondCopy)
+    userAgentCache.size() == 2
+  }
+
+  def 'prelude is released once the request has been written, not when the write is queued'() {
+    def captured = new UserAgentRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/path", Optional.absent(),
+        HttpHeaders.EMPTY_HEADERS, Collections.emptySet(), new File(""), 0l)
+    def prelude = new RequestPreludeEncoder(UnpooledByteBufAllocator.DEFAULT, false).encode(captured, false)
+    def uaRequest = new UserAgentRequest(captured, new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK), prelude, false)
+    def queued = []
+    def channel = new EmbeddedChannel(new ReplayHttpClientCodec(), new ChannelOutboundHandlerAdapter() {
+      @Override
+      void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        queued << [ctx, msg, promise]
+      }
+    })
+    def writer = new UserAgentChannelWriter(new DelayedUserAgentRequest(uaRequest, 0, 0, 0, TimeDilation.NONE, 0),
+        CacheBuilder.newBuilder().build(Mock(CacheLoader)), Optional.absent(), Mock(ReplayResultListener), new UploadStore())
+
+    when:
+    writer.operationComplete(channel.newSucceededFuture())
+
+    then:
+    prelude.refCnt() == 1
+
+    when:
+    queued.each { ctx, msg, promise -> ctx.write(msg, promise) }
+    channel.flush()
+    def encoded = channel.readOutbound() as ByteBuf
+
+    then:
+    prelude.refCnt() == 0
+    encoded.toString(Charsets.US_ASCII).startsWith('GET /path HTTP/1.1')
+  }
+
+  def 'a request that fails to be written is reported as one failure'() {
+    def prelude = Unpooled.buffer().writeBytes('GET / HTTP/1.1\r\n'.bytes)
+    def resultListener = Mock(ReplayResultListener)
+    def channel = new EmbeddedChannel(new ChannelOutboundHandlerAdapter() {
+      @Override
+      void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        ReferenceCountUtil.release(msg)
+        promise.setFailure(new IOException('write failed'))
+      }
+    })
+
+    when:
+    writer(prelude, resultListener).operationComplete(channel.newSucceededFuture())
+
+    then:
+    1 * resultListener.failure({ it instanceof ReplayHttpRequest }, _, { it.get().message == 'write failed' })
+    0 * resultListener._
+    prelude.refCnt() == 0
+  }
+
+  def 'a request whose connection could not be opened is reported as one failure'() {
+    def prelude = Unpooled.buffer().writeBytes('GET / HTTP/1.1\r\n'.bytes)
+    def resultListener = Mock(ReplayResultListener)
+    def channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter())
+
+    when:
+    writer(prelude, resultListener).operationComplete(channel.newFailedFuture(new ConnectException()))
+
+    then:
+    1 * resultListener.failure({ it instanceof UserAgentRequest }, _, { it.get() instanceof ConnectException })
+    0 * resultListener._
+    prelude.refCnt() == 0
+  }
+
+  private static UserAgentChannelWriter writer(ByteBuf prelude, ReplayResultListener resultListener) {
+    def captured = new UserAgentRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/", Optional.absent(),
+        HttpHeaders.EMPTY_HEADERS, Collections.emptySet(), new File(""), 0l)
+    def uaRequest = new UserAgentRequest(captured, new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK), prelude, false)
+    def userAgentCache = CacheBuilder.newBuilder().build(new CacheLoader<HashCode, UserAgent>() {
+      @Override
+      UserAgent load(HashCode key) throws Exception {
+        new DefaultUserAgent(key, ImmediateEventExecutor.INSTANCE)
+      }
+    })
+    new UserAgentChannelWriter(new DelayedUserAgentRequest(uaRequest, 0, 0, 0, TimeDilation.NONE, 0), userAgentCache,
+        Optional.absent(), resultListener, new UploadStore())
+  }
 }
@@ -19,8 +19,10 @@ package io.groundhog.replay
 
 import com.google.common.base.Charsets
 import com.google.common.hash.Hashing
+import io.netty.handler.codec.http.ClientCookieEncoder
 import io.netty.handler.codec.http.Cookie
 import io.netty.handler.codec.http.DefaultCookie
+import io.netty.util.concurrent.ImmediateEventExecutor
 import spock.lang.Specification
 
 /**
@@ -31,7 +33,7 @@ import spock.lang.Specification
  */
 class UserAgentTest extends Specification {
   def 'returns cookies, ordered and filtered correctly'() {
-    DefaultUserAgent userAgent = new DefaultUserAgent(Hashing.goodFastHash(32).hashString("test", Charsets.UTF_8))
+    DefaultUserAgent userAgent = new DefaultUserAgent(Hashing.goodFastHash(32).hashString("test", Charsets.UTF_8), ImmediateEventExecutor.INSTANCE)
     Cookie noPath1 = getCookie("cookie1")
     Cookie noPath1DifferentValue = new DefaultCookie("cookie1", "newvalue")
     Cookie noPath2 = getCookie("cookie2")
@@ -53,6 +55,31 @@ class UserAgentTest extends Specification {
     cookiesForUri.toList() == [matchingPath, rootPath, noPath3, noPath1DifferentValue, noPath2]
   }
 
+  def 'cookie header is cached per path until cookies are set'() {
+    DefaultUserAgent userAgent = new DefaultUserAgent(Hashing.goodFastHash(32).hashString("test", Charsets.UTF_8), ImmediateEventExecutor.INSTANCE)
+    Cookie rootPath = getCookie("session_id")
+    rootPath.setPath("/")
+    Cookie matchingPath = getCookie("JSESSIONID")
+    matchingPath.setPath("/test")
+    userAgent.setCookies([rootPath, matchingPath])
+
+    when:
+    def header = userAgent.getCookieHeader("/test/path")
+
+    then:
+    header == ClientCookieEncoder.encode(userAgent.getCookiesForUri("/test/path"))
+    userAgent.getCookieHeader("/test/other").is(header)
+    userAgent.getCookieHeader("/other") == ClientCookieEncoder.encode(rootPath)
+    userAgent.getCookieHeader("other") == ""
+
+    when:
+    userAgent.setCookies([new DefaultCookie("session_id", "newvalue")])
+
+    then:
+    userAgent.getCookieHeader("/test/path").endsWith("session_id=newvalue")
+    userAgent.getCookieHeader("/test/path") == ClientCookieEncoder.encode(userAgent.getCookiesForUri("/test/path"))
+  }
+
   def getCookie(name) {
     new DefaultCookie(name, "value")
   }